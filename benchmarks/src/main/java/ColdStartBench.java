@@ -0,0 +1,107 @@
+package benchmarks;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import lambda.ComputeIndexHandler;
+import lambda.ComputeSearchHandler;
+import lambda.RegisterHandler;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local cold-start harness: starts a fresh JVM per run on this classpath (INDEX_STORE=memory)
+ * and measures the time to the first response of each handler, with and without priming.
+ * Priming (PRIME_ON_INIT=true) in a fresh JVM stands in for a restored SnapStart snapshot: its
+ * cost lands in "init", which SnapStart pays once at publish time, so "first" is what a restored
+ * container would see.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar benchmarks.ColdStartBench [runs]
+ */
+public final class ColdStartBench {
+    private static final List<String> HANDLERS = List.of("register", "index", "search");
+
+    private ColdStartBench() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(args[1], args.length > 2 && args[2].equals("--prime"));
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.out.printf("%-9s %-6s %10s %10s %10s %10s%n", "handler", "primed", "init p50", "first p50", "first p90", "wall p50");
+        for (String handler : HANDLERS) {
+            for (boolean prime : new boolean[]{false, true}) {
+                long[] init = new long[runs], first = new long[runs], wall = new long[runs];
+                for (int r = 0; r < runs; r++) {
+                    long[] m = spawn(handler, prime);
+                    init[r] = m[0];
+                    first[r] = m[1];
+                    wall[r] = m[2];
+                }
+                System.out.printf("%-9s %-6s %8.1fms %8.1fms %8.1fms %8.1fms%n", handler, prime,
+                        pct(init, 50), pct(first, 50), pct(first, 90), pct(wall, 50));
+            }
+        }
+    }
+
+    /** Returns {init, first response, parent-observed wall} in microseconds. */
+    private static long[] spawn(String handler, boolean prime) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> cmd = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                ColdStartBench.class.getName(), "--child", handler));
+        if (prime) cmd.add("--prime");
+        ProcessBuilder pb = new ProcessBuilder(cmd).redirectErrorStream(true);
+        pb.environment().put("INDEX_STORE", "memory");
+        if (prime) pb.environment().put("PRIME_ON_INIT", "true");
+        else pb.environment().remove("PRIME_ON_INIT");
+
+        long start = System.nanoTime();
+        Process p = pb.start();
+        String line, result = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("coldstart ")) result = line;
+            }
+        }
+        long wall = (System.nanoTime() - start) / 1000;
+        if (p.waitFor() != 0 || result == null) throw new IllegalStateException("child failed for " + handler);
+        String[] f = result.split(" ");
+        return new long[]{Long.parseLong(f[1]), Long.parseLong(f[2]), wall};
+    }
+
+    private static void child(String handler, boolean prime) {
+        // a compute handler's static init primes, whichever handler is measured
+        if (prime) new ComputeSearchHandler();
+        RequestHandler<Map<String, Object>, Map<String, Object>> h = switch (handler) {
+            case "register" -> new RegisterHandler();
+            case "index" -> new ComputeIndexHandler();
+            case "search" -> new ComputeSearchHandler();
+            default -> throw new IllegalArgumentException("unknown handler: " + handler);
+        };
+        Map<String, Object> input = switch (handler) {
+            case "index" -> Map.of("clientId", "bench", "docPath", "bench/a.txt",
+                    "termFreqs", Map.of("alpha", 3, "beta", 1));
+            case "search" -> Map.of("clientId", "bench", "terms", List.of("alpha", "beta"), "topK", 10);
+            default -> Map.of();
+        };
+        long t1 = System.nanoTime();
+        h.handleRequest(input, null);
+        long t2 = System.nanoTime();
+        // init runs from JVM start (uptime is read at t2) to the handler being ready
+        long initUs = ManagementFactory.getRuntimeMXBean().getUptime() * 1000 - (t2 - t1) / 1000;
+        System.out.println("coldstart " + initUs + " " + (t2 - t1) / 1000);
+    }
+
+    private static double pct(long[] us, int p) {
+        long[] s = us.clone();
+        Arrays.sort(s);
+        return s[Math.min(s.length - 1, (int) Math.ceil(p / 100.0 * s.length) - 1)] / 1000.0;
+    }
+}
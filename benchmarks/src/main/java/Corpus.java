@@ -0,0 +1,144 @@
+package benchmarks;
+
+import core.TextTokenizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic benchmark text. "book" is natural prose with a small vocabulary, repeated in
+ * shuffled sentence order up to the requested size: the passage below (folder/book1.txt's
+ * source), or the files under {@code -Dfre.bench.corpus=<file or dir>}. "zipf" is synthetic
+ * text over a large vocabulary whose term ranks follow Zipf's law (s = 1), the shape of real
+ * corpora that a small seed text cannot reach. The same seed always gives the same text.
+ */
+final class Corpus {
+    static final String CORPUS_PROPERTY = "fre.bench.corpus";
+    static final int ZIPF_VOCABULARY = 200_000;
+    private static final long SEED = 42;
+
+    private static final String BOOK = """
+            Alice was beginning to get very tired of sitting by her sister on the bank, and of having \
+            nothing to do: once or twice she had peeped into the book her sister was reading, but it had \
+            no pictures or conversations in it, 'and what is the use of a book,' thought Alice 'without \
+            pictures or conversations?' So she was considering in her own mind (as well as she could, for \
+            the hot day made her feel very sleepy and stupid), whether the pleasure of making a \
+            daisy-chain would be worth the trouble of getting up and picking the daisies, when suddenly a \
+            White Rabbit with pink eyes ran close by her. There was nothing so very remarkable in that; nor \
+            did Alice think it so very much out of the way to hear the Rabbit say to itself, 'Oh dear! Oh \
+            dear! I shall be late!' (when she thought it over afterwards, it occurred to her that she ought \
+            to have wondered at this, but at the time it all seemed quite natural); but when the Rabbit \
+            actually took a watch out of its waistcoat-pocket, and looked at it, and then hurried on, Alice \
+            started to her feet, for it flashed across her mind that she had never before seen a rabbit \
+            with either a waistcoat-pocket, or a watch to take out of it, and burning with curiosity, she \
+            ran across the field after it, and fortunately was just in time to see it pop down a large \
+            rabbit-hole under the hedge. In another moment down went Alice after it, never once \
+            considering how in the world she was to get out again.
+            """;
+
+    private Corpus() {}
+
+    /** About {@code chars} characters of "book" or "zipf" text. */
+    static String text(String source, int chars) {
+        return switch (source) {
+            case "book" -> book(chars, new SplittableRandom(SEED));
+            case "zipf" -> zipf(chars, new SplittableRandom(SEED));
+            default -> throw new IllegalArgumentException("unknown corpus source: " + source);
+        };
+    }
+
+    /**
+     * {@code count} documents of about {@code chars} Zipfian characters each, tokenized the
+     * way the client sends them: path -> term -> freq, in a stable order.
+     */
+    static Map<String, Map<String, Integer>> documents(int count, int chars, long seed) {
+        SplittableRandom r = new SplittableRandom(seed);
+        Map<String, Map<String, Integer>> docs = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            docs.put("docs/" + (i % 64) + "/doc-" + i + ".txt", TextTokenizer.termFreqs(zipf(chars, r)));
+        }
+        return docs;
+    }
+
+    /** The rank-{@code rank} term of the Zipfian vocabulary (rank 1 is the most frequent). */
+    static String word(int rank) {
+        // letters only, so the tokenizer sees exactly one term: a two-letter scrambled prefix, so
+        // neighbouring ranks do not share prefixes, then the rank in base 26, which keeps words distinct
+        long h = rank * 0x9E3779B97F4A7C15L;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2; i++, h = h * 31 + 17) sb.append((char) ('a' + Math.floorMod(h >>> 33, 26)));
+        for (int n = rank; n > 0; n /= 26) sb.append((char) ('a' + n % 26));
+        return sb.toString();
+    }
+
+    private static String book(int chars, SplittableRandom r) {
+        List<String> sentences = sentences(seedText());
+        StringBuilder sb = new StringBuilder(chars + 512);
+        while (sb.length() < chars) {
+            sb.append(sentences.get(r.nextInt(sentences.size()))).append(r.nextInt(8) == 0 ? "\n\n" : " ");
+        }
+        return sb.toString();
+    }
+
+    private static String zipf(int chars, SplittableRandom r) {
+        double[] cdf = Zipf.CDF;
+        StringBuilder sb = new StringBuilder(chars + 64);
+        int inSentence = 0;
+        while (sb.length() < chars) {
+            int idx = Arrays.binarySearch(cdf, r.nextDouble());
+            sb.append(word(idx < 0 ? -idx : idx + 1));
+            if (++inSentence >= 8 + r.nextInt(16)) {
+                sb.append(r.nextInt(6) == 0 ? ".\n" : ". ");
+                inSentence = 0;
+            } else {
+                sb.append(r.nextInt(12) == 0 ? ", " : " ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String seedText() {
+        String path = System.getProperty(CORPUS_PROPERTY);
+        if (path == null || path.isBlank()) return BOOK;
+        try (Stream<Path> files = Files.walk(Path.of(path))) {
+            StringBuilder sb = new StringBuilder();
+            for (Path p : files.filter(Files::isRegularFile).sorted().toList()) {
+                sb.append(Files.readString(p, StandardCharsets.UTF_8)).append('\n');
+            }
+            return sb.isEmpty() ? BOOK : sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> sentences(String text) {
+        List<String> out = new ArrayList<>();
+        for (String s : text.replace('\n', ' ').split("(?<=[.!?;:])\\s+")) {
+            if (!s.isBlank()) out.add(s.strip());
+        }
+        return out;
+    }
+
+    /** Cumulative Zipf(s = 1) probabilities for ranks 1..ZIPF_VOCABULARY, built on first use. */
+    private static final class Zipf {
+        static final double[] CDF = build();
+
+        private static double[] build() {
+            double[] cdf = new double[ZIPF_VOCABULARY];
+            double sum = 0;
+            for (int k = 1; k <= ZIPF_VOCABULARY; k++) cdf[k - 1] = sum += 1.0 / k;
+            for (int k = 0; k < cdf.length; k++) cdf[k] /= sum;
+            return cdf;
+        }
+    }
+}
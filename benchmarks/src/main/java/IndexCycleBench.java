@@ -0,0 +1,125 @@
+package benchmarks;
+
+import core.InMemoryIndexStore;
+import lambda.LocalContainer;
+import lambda.LocalDynamoDb;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole index and search requests through the handlers, on an in-memory store ("memory") or
+ * on DynamoIndexStore over the {@link LocalDynamoDb} emulator ("local-dynamo", every DynamoDB
+ * request, batch split and retry path included, without the network). Each iteration starts
+ * from the same {@code preload} documents; the index benchmarks send batches of {@code batch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IndexCycleBench {
+    @Param({"memory", "local-dynamo"})
+    public String store;
+
+    @Param({"25"})
+    public int batch;
+
+    @Param({"256"})
+    public int preload;
+
+    private List<Map.Entry<String, Map<String, Integer>>> docs;
+    private LocalContainer container;
+    private Map<String, Object> search;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void corpus() {
+        docs = new ArrayList<>(Corpus.documents(preload, 2048, 13).entrySet());
+        search = new LinkedHashMap<>();
+        search.put("clientId", SearchBench.CLIENT_ID);
+        search.put("terms", List.of(Corpus.word(1), Corpus.word(7), Corpus.word(300)));
+        search.put("topK", 10);
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        container = switch (store) {
+            case "memory" -> new LocalContainer(new InMemoryIndexStore());
+            case "local-dynamo" -> new LocalContainer(LocalDynamoDb.withFreTables(0));
+            default -> throw new IllegalArgumentException("unknown store: " + store);
+        };
+        List<Map<String, Object>> all = new ArrayList<>(docs.size());
+        for (int i = 0; i < docs.size(); i++) all.add(document(i, docs.get(i).getKey(), "h0"));
+        for (int i = 0; i < all.size(); i += 500) {
+            SearchBench.indexBatch(container, all.subList(i, Math.min(all.size(), i + 500)));
+        }
+        next = 0;
+    }
+
+    /** New paths: docId allocation, postings appends and path entries. */
+    @Benchmark
+    public Map<String, Object> indexNew() {
+        List<Map<String, Object>> documents = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++, next++) documents.add(document(next, "new/" + next + ".txt", "h0"));
+        return SearchBench.indexBatch(container, documents);
+    }
+
+    /** Preloaded paths with their content changed: the forward-index diff and its postings rewrites. */
+    @Benchmark
+    public Map<String, Object> indexUpdate() {
+        List<Map<String, Object>> documents = new ArrayList<>(batch);
+        int round = next / docs.size() + 1;
+        for (int i = 0; i < batch; i++, next++) {
+            int at = next % docs.size();
+            // each round moves every path onto its neighbour's content
+            documents.add(SearchBench.document(docs.get(at).getKey(), docs.get((at + round) % docs.size()).getValue(),
+                    "h" + round));
+        }
+        return SearchBench.indexBatch(container, documents);
+    }
+
+    /** Preloaded paths sent again with the same hash: only the path lookup. */
+    @Benchmark
+    public Map<String, Object> indexUnchanged() {
+        List<Map<String, Object>> documents = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++, next++) {
+            int at = next % docs.size();
+            documents.add(document(at, docs.get(at).getKey(), "h0"));
+        }
+        return SearchBench.indexBatch(container, documents);
+    }
+
+    @Benchmark
+    public Map<String, Object> search() {
+        return container.invoke("ComputeSearchHandler", search);
+    }
+
+    /** A batch of new documents followed by a search that sees them. */
+    @Benchmark
+    public Map<String, Object> indexThenSearch() {
+        indexNew();
+        return search();
+    }
+
+    /** The n-th corpus document (cycling) under the given path. */
+    private Map<String, Object> document(int n, String path, String hash) {
+        return SearchBench.document(path, docs.get(n % docs.size()).getValue(), hash);
+    }
+}
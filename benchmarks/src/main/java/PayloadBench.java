@@ -0,0 +1,92 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import core.TermFreqsCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (De)serialization of one ComputeIndexHandler batch payload of {@code docs} documents, with
+ * term freqs as a JSON map ("termFreqs") or as base64 TermFreqsCodec ("termFreqsBin").
+ * {@link #serialize} is the client's side: build the payload and write it with Jackson.
+ * {@link #deserialize} is the handler's: read it into a Map the way the Lambda runtime does,
+ * then turn every document into a term -> freq map of ints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PayloadBench {
+    private static final ObjectMapper M = new ObjectMapper();
+
+    @Param({"json", "binary"})
+    public String encoding;
+
+    /** characters of Zipfian text per document, so term counts grow sublinearly with it */
+    @Param({"4096", "65536", "1048576"})
+    public int docChars;
+
+    @Param({"8"})
+    public int docs;
+
+    private Map<String, Map<String, Integer>> termFreqs;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        termFreqs = Corpus.documents(docs, docChars, 7);
+        payload = serialize();
+        if (!deserialize().equals(new ArrayList<>(termFreqs.values()))) throw new IllegalStateException("round trip failed");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        boolean binary = encoding.equals("binary");
+        List<Map<String, Object>> documents = new ArrayList<>(termFreqs.size());
+        for (Map.Entry<String, Map<String, Integer>> d : termFreqs.entrySet()) {
+            Map<String, Object> doc = new LinkedHashMap<>();
+            doc.put("docPath", d.getKey());
+            if (binary) doc.put("termFreqsBin", TermFreqsCodec.toBase64(d.getValue()));
+            else doc.put("termFreqs", d.getValue());
+            documents.add(doc);
+        }
+        return M.writeValueAsBytes(Map.of("clientId", "bench", "documents", documents));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<Map<String, Integer>> deserialize() throws Exception {
+        Map<String, Object> input = M.readValue(payload, Map.class);
+        List<Map<String, Object>> documents = (List<Map<String, Object>>) input.get("documents");
+        List<Map<String, Integer>> out = new ArrayList<>(documents.size());
+        for (Map<String, Object> doc : documents) {
+            if (doc.get("termFreqsBin") instanceof String bin) {
+                out.add(TermFreqsCodec.fromBase64(bin));
+                continue;
+            }
+            Map<String, Object> raw = (Map<String, Object>) doc.get("termFreqs");
+            Map<String, Integer> tf = new HashMap<>(raw.size() * 2);
+            raw.forEach((t, f) -> tf.put(t, ((Number) f).intValue()));
+            out.add(tf);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,146 @@
+package benchmarks;
+
+import core.PostingsCodec;
+import lambda.LocalDynamoDb;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One term's {@code postings} as the FRE_TermIndex items DynamoIndexStore writes, one item per
+ * posting ("items", the default POSTINGS_FORMAT) or {@link PostingsCodec} blocks of up to
+ * BLOCK_SIZE postings ("blocks"): building the items, and reading them back into
+ * [docId, freq, docLen]. Alongside the times, the footprint counters give what a write of them
+ * costs per posting: items, item bytes and write capacity units, sized by LocalDynamoDb's
+ * DynamoDB rules. Postings have docId gaps of 1-64 and small freqs, as a mid-frequency term does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PostingsBench {
+    private static final AttributeValue TERM = AttributeValue.builder().s("rabbit").build();
+
+    @Param({"items", "blocks"})
+    public String format;
+
+    @Param({"256", "65536"})
+    public int postings;
+
+    private List<long[]> sorted;
+    private List<Map<String, AttributeValue>> encoded;
+    private double itemsPerPosting;
+    private double bytesPerPosting;
+    private double wcuPerPosting;
+
+    /** Per-posting write cost of the encoded items: constant per trial, reported by every benchmark. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double itemsPerPosting;
+        public double bytesPerPosting;
+        public double wcuPerPosting;
+    }
+
+    @Setup
+    public void setup() {
+        SplittableRandom r = new SplittableRandom(11);
+        sorted = new ArrayList<>(postings);
+        long docId = 0;
+        for (int i = 0; i < postings; i++) {
+            docId += 1 + r.nextInt(64);
+            sorted.add(new long[]{docId, 1 + r.nextInt(1 + r.nextInt(12)), 200 + r.nextInt(20_000)});
+        }
+        encoded = items();
+        List<long[]> back = postings();
+        for (int i = 0; i < postings; i++) {
+            if (!Arrays.equals(sorted.get(i), back.get(i))) throw new IllegalStateException("round trip failed at " + i);
+        }
+        long bytes = 0;
+        double wcu = 0;
+        for (Map<String, AttributeValue> item : encoded) {
+            long size = LocalDynamoDb.itemSize(item);
+            bytes += size;
+            wcu += LocalDynamoDb.writeUnits(size);
+        }
+        itemsPerPosting = (double) encoded.size() / postings;
+        bytesPerPosting = (double) bytes / postings;
+        wcuPerPosting = wcu / postings;
+    }
+
+    /** The items a write of the postings puts, with the attributes DynamoIndexStore gives them. */
+    @Benchmark
+    public List<Map<String, AttributeValue>> encode(Footprint f) {
+        footprint(f);
+        return items();
+    }
+
+    /** The postings back from the items, as lookupIndex reads a Query page. */
+    @Benchmark
+    public List<long[]> decode(Footprint f) {
+        footprint(f);
+        return postings();
+    }
+
+    private void footprint(Footprint f) {
+        f.itemsPerPosting = itemsPerPosting;
+        f.bytesPerPosting = bytesPerPosting;
+        f.wcuPerPosting = wcuPerPosting;
+    }
+
+    private List<Map<String, AttributeValue>> items() {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        if (format.equals("blocks")) {
+            for (List<long[]> block : PostingsCodec.split(sorted)) {
+                items.add(Map.of(
+                        "term", TERM,
+                        "docId", AttributeValue.builder().n(Long.toString(block.get(0)[0])).build(),
+                        "n", AttributeValue.builder().n(Integer.toString(block.size())).build(),
+                        "B", AttributeValue.builder().b(SdkBytes.fromByteArray(PostingsCodec.encode(block))).build()));
+            }
+        } else {
+            for (long[] p : sorted) {
+                items.add(Map.of(
+                        "term", TERM,
+                        "docId", AttributeValue.builder().n(Long.toString(p[0])).build(),
+                        "freq", AttributeValue.builder().n(Long.toString(p[1])).build(),
+                        "len", AttributeValue.builder().n(Long.toString(p[2])).build()));
+            }
+        }
+        return items;
+    }
+
+    private List<long[]> postings() {
+        List<long[]> out = new ArrayList<>(postings);
+        for (Map<String, AttributeValue> item : encoded) {
+            AttributeValue b = item.get("B");
+            if (b != null) {
+                PostingsCodec.decodeInto(b.b().asByteArrayUnsafe(), out);
+            } else {
+                out.add(new long[]{Long.parseLong(item.get("docId").n()),
+                        Long.parseLong(item.get("freq").n()), Long.parseLong(item.get("len").n())});
+            }
+        }
+        return out;
+    }
+}
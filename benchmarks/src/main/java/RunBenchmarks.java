@@ -0,0 +1,33 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JMH's command line with one different default: unless {@code -rf}/{@code -rff} are given,
+ * results are also written as JSON to {@code jmh-results/<timestamp>.json}, one file per run,
+ * so runs can be collected and compared over time. Every other JMH option works as usual.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar [regexp...] [jmh options]
+ */
+public final class RunBenchmarks {
+    static final Path RESULTS_DIR = Path.of("jmh-results");
+
+    private RunBenchmarks() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> argv = new ArrayList<>(Arrays.asList(args));
+        boolean listing = argv.stream().anyMatch(a -> a.equals("-h") || a.equals("-l") || a.equals("-lp") || a.equals("-lprof"));
+        if (!listing && !argv.contains("-rf") && !argv.contains("-rff")) {
+            Files.createDirectories(RESULTS_DIR);
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            argv.addAll(List.of("-rf", "json", "-rff", RESULTS_DIR.resolve(stamp + ".json").toString()));
+        }
+        org.openjdk.jmh.Main.main(argv.toArray(String[]::new));
+    }
+}
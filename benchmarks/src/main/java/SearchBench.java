@@ -0,0 +1,103 @@
+package benchmarks;
+
+import core.InMemoryIndexStore;
+import lambda.LocalContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ComputeSearchHandler over an in-memory store of {@code docs} Zipfian documents, so the time
+ * is the handler's own: merging every posting's score into one map, the top-k selection and
+ * building the response. "one" and "three" use the most frequent terms (postings that cover
+ * most documents, the worst case for the merge), "rare" mixes in terms from the long tail and
+ * "boolean" goes through the query evaluator instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SearchBench {
+    static final String CLIENT_ID = "bench";
+
+    @Param({"2000", "20000"})
+    public int docs;
+
+    @Param({"one", "three", "rare", "boolean"})
+    public String query;
+
+    @Param({"bm25", "freq"})
+    public String scoring;
+
+    private LocalContainer container;
+    private Map<String, Object> request;
+
+    @Setup
+    public void setup() {
+        container = new LocalContainer(new InMemoryIndexStore());
+        index(container, Corpus.documents(docs, 1024, 11), 500);
+
+        request = new LinkedHashMap<>();
+        request.put("clientId", CLIENT_ID);
+        request.put("topK", 10);
+        request.put("scoring", scoring);
+        switch (query) {
+            case "one" -> request.put("terms", List.of(Corpus.word(1)));
+            case "three" -> request.put("terms", List.of(Corpus.word(1), Corpus.word(2), Corpus.word(3)));
+            case "rare" -> request.put("terms", List.of(Corpus.word(1), Corpus.word(500), Corpus.word(20_000)));
+            case "boolean" -> request.put("query",
+                    Corpus.word(1) + " AND (" + Corpus.word(2) + " OR " + Corpus.word(3) + ") NOT " + Corpus.word(40));
+            default -> throw new IllegalArgumentException("unknown query: " + query);
+        }
+        if (((Number) search().get("count")).intValue() == 0) throw new IllegalStateException("query matched nothing");
+    }
+
+    @Benchmark
+    public Map<String, Object> search() {
+        return container.invoke("ComputeSearchHandler", request);
+    }
+
+    /** Indexes docs through ComputeIndexHandler in batches of {@code batchSize}, as the client does. */
+    static void index(LocalContainer container, Map<String, Map<String, Integer>> docs, int batchSize) {
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<String, Map<String, Integer>> d : docs.entrySet()) {
+            batch.add(document(d.getKey(), d.getValue(), null));
+            if (batch.size() == batchSize) {
+                indexBatch(container, batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) indexBatch(container, batch);
+    }
+
+    static Map<String, Object> document(String path, Map<String, Integer> termFreqs, String hash) {
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("docPath", path);
+        doc.put("termFreqs", termFreqs);
+        if (hash != null) doc.put("hash", hash);
+        return doc;
+    }
+
+    static Map<String, Object> indexBatch(LocalContainer container, List<Map<String, Object>> documents) {
+        Map<String, Object> input = new LinkedHashMap<>();
+        input.put("clientId", CLIENT_ID);
+        input.put("documents", documents);
+        return container.invoke("ComputeIndexHandler", input);
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import core.InMemoryIndexStore;
+import core.IndexStore;
+import lambda.LocalContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Local load test for tenant isolation: grows the corpus by adding tenants of the same size and
+ * measures one tenant's search latency and how many postings its queries match, once with
+ * isolated tenants and once with every tenant sharing one term space (the layout before
+ * isolation). Isolated numbers should stay flat as the corpus grows; shared ones grow with it.
+ * Runs in-process over InMemoryIndexStore; "matched" is what a DynamoDB query would have to read.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar benchmarks.TenantBench [docsPerTenant] [queries]
+ */
+public final class TenantBench {
+    private static final int[] TENANTS = {1, 4, 16, 64};
+    private static final int VOCABULARY = 2000;
+    private static final int DOC_TERMS = 150;
+    private static final int BATCH = 100;
+
+    private TenantBench() {}
+
+    public static void main(String[] args) {
+        int docsPerTenant = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.out.printf("%-8s %8s %8s %10s %10s %12s%n", "layout", "tenants", "docs", "p50", "p99", "matched/q");
+        for (boolean isolated : new boolean[]{true, false}) {
+            for (int tenants : TENANTS) {
+                IndexStore store = isolated ? new InMemoryIndexStore() : new InMemoryIndexStore() {
+                    @Override
+                    public InMemoryIndexStore forTenant(String clientId) {
+                        return this;
+                    }
+                };
+                LocalContainer container = new LocalContainer(store);
+                for (int t = 0; t < tenants; t++) load(container, "tenant-" + t, docsPerTenant, new Random(t));
+
+                long[] nanos = new long[queries];
+                long matched = 0;
+                Random r = new Random(42);
+                for (int q = 0; q < queries; q++) {
+                    Map<String, Object> req = Map.of("clientId", "tenant-0",
+                            "terms", List.of(term(r), term(r)), "topK", 10);
+                    long s = System.nanoTime();
+                    Map<String, Object> resp = container.invoke("ComputeSearchHandler", req);
+                    nanos[q] = System.nanoTime() - s;
+                    matched += ((Number) resp.get("total")).longValue();
+                }
+                System.out.printf("%-8s %8d %8d %8.1fus %8.1fus %12.1f%n", isolated ? "isolated" : "shared",
+                        tenants, (long) tenants * docsPerTenant, pct(nanos, 50), pct(nanos, 99), (double) matched / queries);
+            }
+        }
+    }
+
+    private static void load(LocalContainer container, String clientId, int docs, Random r) {
+        for (int from = 0; from < docs; from += BATCH) {
+            List<Map<String, Object>> batch = new ArrayList<>(BATCH);
+            for (int d = from; d < Math.min(docs, from + BATCH); d++) {
+                Map<String, Integer> tf = new HashMap<>();
+                for (int k = 0; k < DOC_TERMS; k++) tf.merge(term(r), 1, Integer::sum);
+                batch.add(Map.of("docPath", clientId + "/" + d + ".txt", "termFreqs", tf));
+            }
+            container.invoke("ComputeIndexHandler", Map.of("clientId", clientId, "documents", batch));
+        }
+    }
+
+    /** Roughly Zipfian: low ranks are common, like real text. */
+    private static String term(Random r) {
+        return "t" + (int) Math.pow(VOCABULARY, r.nextDouble());
+    }
+
+    private static double pct(long[] nanos, int p) {
+        long[] s = nanos.clone();
+        Arrays.sort(s);
+        return s[Math.min(s.length - 1, s.length * p / 100)] / 1e3;
+    }
+}
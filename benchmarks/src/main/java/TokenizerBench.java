@@ -0,0 +1,75 @@
+package benchmarks;
+
+import core.TermCounter;
+import core.TextTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client's tokenizer over one document of {@code chars} characters: the map the handlers
+ * receive ({@link TextTokenizer#termFreqs}), the counting pass alone, and the Unicode mode.
+ * "book" text repeats a few hundred distinct terms, so the counter stays small and hot;
+ * "zipf" keeps meeting new terms, so table growth and string creation dominate.
+ * {@link #termFreqsRegex} is the tokenizer termFreqs replaced, kept as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TokenizerBench {
+    @Param({"book", "zipf"})
+    public String source;
+
+    @Param({"16384", "1048576", "16777216"})
+    public int chars;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        text = Corpus.text(source, chars);
+        if (!termFreqsRegex().equals(termFreqs())) throw new IllegalStateException("tokenizers disagree on " + source);
+    }
+
+    @Benchmark
+    public Map<String, Integer> termFreqs() {
+        return TextTokenizer.termFreqs(text);
+    }
+
+    /** The regex tokenizer termFreqs used before the table-driven one: same output, for ASCII text. */
+    @Benchmark
+    public Map<String, Integer> termFreqsRegex() {
+        Map<String, Integer> tf = new HashMap<>();
+        String norm = text.toLowerCase().replaceAll("[^a-z0-9 ]", " ");
+        for (String t : norm.split("\\s+")) {
+            if (t.isBlank()) continue;
+            tf.merge(t, 1, Integer::sum);
+        }
+        return tf;
+    }
+
+    @Benchmark
+    public TermCounter countAscii() {
+        return TextTokenizer.count(text, TextTokenizer.Normalization.ASCII);
+    }
+
+    @Benchmark
+    public TermCounter countUnicode() {
+        return TextTokenizer.count(text, TextTokenizer.Normalization.UNICODE);
+    }
+}
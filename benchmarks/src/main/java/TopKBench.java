@@ -0,0 +1,55 @@
+package benchmarks;
+
+import core.TopK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search handler's ranking step on its own: {@link TopK#select} of the best {@code k} out
+ * of {@code hits} scored documents, in the ConcurrentHashMap the handler merges into. Scores
+ * are BM25-like (few distinct values), so ties and the docId tie-break are exercised.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TopKBench {
+    @Param({"10000", "1000000"})
+    public int hits;
+
+    @Param({"10", "1000"})
+    public int k;
+
+    private Map<Long, Double> scores;
+
+    @Setup
+    public void setup() {
+        SplittableRandom r = new SplittableRandom(3);
+        scores = new ConcurrentHashMap<>(hits * 2);
+        for (long docId = 0; scores.size() < hits; docId += 1 + r.nextInt(4)) {
+            scores.put(docId, Math.round(r.nextDouble() * 2_000) / 100.0);
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<Long, Double>> select() {
+        return TopK.select(scores, k);
+    }
+}
@@ -42,31 +42,40 @@
 
 package client;
 
+import core.TermFreqsCodec;
 import core.TextTokenizer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.lambda.LambdaClient;
-import software.amazon.awssdk.services.lambda.model.InvokeRequest;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class App {
     private static final ObjectMapper M = new ObjectMapper();
-    private static final LambdaClient LAMBDA = LambdaClient.builder()
-            .region(Region.of(Optional.ofNullable(System.getenv("AWS_REGION")).orElse("us-east-1")))
-            .credentialsProvider(DefaultCredentialsProvider.create())
-            .build();
+    // set in main: "--local" has to be seen before the shared engine is built
+    private static AsyncLambdaEngine LAMBDA;
 
+    private static final SearchCache SEARCH_CACHE = new SearchCache();
+
+    // "--client-id <id>", else the id saved by an earlier run (SavedClientId), else registered on first use
     private static String clientId = null;
 
     public static void main(String[] args) throws Exception {
-        System.out.println("Cloud FRE Client. Commands: register | index-json <j> | index-file <path> | search-json <j> | pwd | quit");
+        List<String> argList = Arrays.asList(args);
+        if (argList.contains("--local")) System.setProperty(AsyncLambdaEngine.MODE_PROPERTY, "local");
+        LAMBDA = AsyncLambdaEngine.shared();
+        if (LAMBDA.isLocal()) System.out.println("Local mode: handlers run in-process over emulated DynamoDB tables (nothing is persisted).");
+        int flag = argList.indexOf("--client-id");
+        if (flag >= 0 && flag + 1 < args.length) {
+            clientId = args[flag + 1];
+        } else {
+            clientId = SavedClientId.load(SavedClientId.file());
+        }
+        if (clientId != null) System.out.println("Client id: " + clientId);
+        System.out.println("Cloud FRE Client. Commands: register | index-json <j> | index-file <path> [--binary] | index-dir <path> [--parallel N] [--batch N] [--positions] [--binary] | delete <path> | search-json <j> | search-stream <j> | stats | pwd | quit");
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
 
         while (true) {
@@ -80,11 +89,14 @@ public class App {
                 if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) {
                     System.out.println("Bye.");
                     break;
+                } else if (line.equalsIgnoreCase("stats")) {
+                    System.out.println(toJson(Map.of("latency", LAMBDA.latency(), "searchCache", SEARCH_CACHE.stats(),
+                            "lambda", LAMBDA.stats())));
                 } else if (line.equalsIgnoreCase("pwd")) {
                     System.out.println("CWD: " + Path.of(System.getProperty("user.dir")).toAbsolutePath());
                 } else if (line.equalsIgnoreCase("register")) {
-                    Map<String, Object> resp = invoke("RegisterHandler", Map.of());
-                    clientId = (String) resp.get("clientId");
+                    // a new tenant: what the old id indexed stays under the old id
+                    Map<String, Object> resp = register();
                     System.out.println(toJson(resp));
                 } else if (line.startsWith("index-json")) {
                     String json = line.substring("index-json".length()).trim();
@@ -95,33 +107,88 @@ public class App {
                     }
                     Map<String, Object> resp = invoke("ComputeIndexHandler", payload);
                     System.out.println(toJson(resp));
+                } else if (line.startsWith("index-dir")) {
+                    String[] parts = line.substring("index-dir".length()).trim().split("\\s+");
+                    String pathArg = null;
+                    int parallel = 8;
+                    int batch = 1;
+                    boolean positions = false;
+                    boolean binary = false;
+                    for (int i = 0; i < parts.length; i++) {
+                        if (parts[i].equals("--parallel") && i + 1 < parts.length) parallel = Integer.parseInt(parts[++i]);
+                        else if (parts[i].equals("--batch") && i + 1 < parts.length) batch = Integer.parseInt(parts[++i]);
+                        else if (parts[i].equals("--positions")) positions = true;
+                        else if (parts[i].equals("--binary")) binary = true;
+                        else if (!parts[i].isBlank()) pathArg = parts[i];
+                    }
+                    if (pathArg == null) { System.out.println("Usage: index-dir <path> [--parallel N] [--batch N] [--positions] [--binary]"); continue; }
+
+                    Path dir = resolvePath(pathArg);
+                    if (!Files.isDirectory(dir)) {
+                        System.out.println("Directory not found: " + dir.toAbsolutePath());
+                        continue;
+                    }
+                    if (clientId == null) register();
+                    BulkIndexer.Report report = new BulkIndexer(App::invoke, clientId, parallel, batch,
+                            Runtime.getRuntime().availableProcessors(), positions, binary).run(dir);
+                    System.out.println(toJson(report.toMap()));
                 } else if (line.startsWith("index-file")) {
                     String pathArg = line.substring("index-file".length()).trim();
-                    if (pathArg.isBlank()) { System.out.println("Usage: index-file <path>"); continue; }
+                    boolean binary = pathArg.endsWith(" --binary") || pathArg.equals("--binary");
+                    if (binary) pathArg = pathArg.substring(0, pathArg.length() - "--binary".length()).trim();
+                    if (pathArg.isBlank()) { System.out.println("Usage: index-file <path> [--binary]"); continue; }
 
                     Path p = resolvePath(pathArg);
                     if (!Files.exists(p)) {
                         System.out.println("File not found: " + p.toAbsolutePath());
                         continue;
                     }
-                    if (clientId == null) {
-                        Map<String,Object> r = invoke("RegisterHandler", Map.of());
-                        clientId = (String) r.get("clientId");
+                    if (clientId == null) register();
+                    // unchanged content: skip tokenizing altogether
+                    String hash = ContentHash.of(p);
+                    Map<String, Object> known = indexedPath(p.toString());
+                    if (known != null && hash.equals(known.get("hash"))) {
+                        System.out.println(toJson(Map.of("status", "OK", "action", "unchanged",
+                                "indexed", p.toString(), "docId", known.get("docId"))));
+                        continue;
                     }
-                    String text = Files.readString(p, StandardCharsets.UTF_8);
-                    Map<String, Integer> tf = TextTokenizer.termFreqs(text);
+                    // mapped + chunked: heap stays bounded by vocabulary, not file size
+                    Map<String, Integer> tf = ParallelTokenizer.count(p, TextTokenizer.Normalization.ASCII).toMap();
+                    // --binary: front-coded, deflated, base64 (core.TermFreqsCodec) instead of a JSON map
                     Map<String, Object> payload = Map.of(
                             "clientId", clientId,
                             "docPath", p.toString(),
-                            "termFreqs", tf
+                            "hash", hash,
+                            binary ? "termFreqsBin" : "termFreqs", binary ? TermFreqsCodec.toBase64(tf) : tf
+                    );
+                    Map<String, Object> resp = invoke("ComputeIndexHandler", payload);
+                    System.out.println(toJson(resp));
+                } else if (line.startsWith("delete")) {
+                    String pathArg = line.substring("delete".length()).trim();
+                    if (pathArg.isBlank()) { System.out.println("Usage: delete <path>"); continue; }
+                    if (clientId == null) { System.out.println("Not registered: nothing indexed to delete."); continue; }
+
+                    // the path as it was indexed; the file itself may already be gone
+                    Map<String, Object> payload = Map.of(
+                            "clientId", clientId,
+                            "delete", List.of(resolvePath(pathArg).toString())
                     );
                     Map<String, Object> resp = invoke("ComputeIndexHandler", payload);
                     System.out.println(toJson(resp));
                 } else if (line.startsWith("search-json")) {
                     String json = line.substring("search-json".length()).trim();
                     Map<String, Object> payload = M.readValue(json, Map.class);
-                    Map<String, Object> resp = invoke("ComputeSearchHandler", payload);
+                    if (!payload.containsKey("clientId") && clientId != null) {
+                        payload = new HashMap<>(payload);
+                        payload.put("clientId", clientId);
+                    }
+                    Map<String, Object> resp = SEARCH_CACHE.search(payload, App::invoke);
                     System.out.println(toJson(resp));
+                } else if (line.startsWith("search-stream")) {
+                    String json = line.substring("search-stream".length()).trim();
+                    Map<String, Object> payload = new HashMap<>(M.readValue(json, Map.class));
+                    if (!payload.containsKey("clientId") && clientId != null) payload.put("clientId", clientId);
+                    streamSearch(payload);
                 } else {
                     System.out.println("Unknown command.");
                 }
@@ -143,15 +210,78 @@ public class App {
         return p; // will be reported as not found
     }
 
+    /**
+     * Prints every ranked row of a search, one JSON line each, chunk by chunk as the handler
+     * pages through them with its cursor. The next chunk is requested before the current one is
+     * printed, so at most two chunks are held however many documents match. Not cached. A
+     * stream whose snapshot expired ends early; the summary then carries its STALE_CURSOR status.
+     */
+    @SuppressWarnings("unchecked")
+    private static void streamSearch(Map<String, Object> payload) throws Exception {
+        payload.put("stream", true);
+        CompletableFuture<Map<String, Object>> pending = LAMBDA.invokeAsync("ComputeSearchHandler", payload);
+        long rows = 0;
+        int chunks = 0;
+        Map<String, Object> first = null, last = null;
+        while (pending != null) {
+            last = AsyncLambdaEngine.await(pending);
+            if (first == null) first = last;
+            chunks++;
+            pending = null;
+            if (last.get("cursor") instanceof String cursor) {
+                Map<String, Object> next = new HashMap<>(payload);
+                next.put("cursor", cursor);
+                pending = LAMBDA.invokeAsync("ComputeSearchHandler", next);
+            }
+            StringBuilder out = new StringBuilder();
+            for (Map<String, Object> row : (List<Map<String, Object>>) last.getOrDefault("results", List.of())) {
+                out.append(toJson(row)).append('\n');
+                rows++;
+            }
+            System.out.print(out);
+            System.out.flush();
+        }
+        Map<String, Object> summary = new LinkedHashMap<>();
+        if (last.containsKey("status")) {
+            summary.put("status", last.get("status"));
+            summary.put("error", last.get("error"));
+        }
+        summary.put("rows", rows);
+        summary.put("chunks", chunks);
+        summary.put("total", first.get("total"));
+        summary.put("generation", first.get("generation"));
+        // continuations only read the ranking, so the expansions come with the first chunk
+        if (first.containsKey("expansions")) summary.put("expansions", first.get("expansions"));
+        System.out.println(toJson(summary));
+    }
+
+    /**
+     * Takes a new clientId and saves it for later runs. Local mode keeps nothing between runs,
+     * so its ids are not saved and do not replace the one a cloud session uses.
+     */
+    private static Map<String, Object> register() throws Exception {
+        Map<String, Object> resp = invoke("RegisterHandler", Map.of());
+        clientId = (String) resp.get("clientId");
+        if (!LAMBDA.isLocal()) SavedClientId.save(SavedClientId.file(), clientId);
+        return resp;
+    }
+
+    /** The index's {path, docId, hash} row for exactly this path, or null. */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> indexedPath(String path) throws Exception {
+        Map<String, Object> resp = invoke("ComputeIndexHandler", Map.of(
+                "clientId", clientId, "listPaths", path, "limit", 1));
+        List<Map<String, Object>> rows = (List<Map<String, Object>>) resp.getOrDefault("paths", List.of());
+        return rows.isEmpty() || !path.equals(rows.get(0).get("path")) ? null : rows.get(0);
+    }
+
     private static Map<String, Object> invoke(String functionName, Map<String, Object> payload) throws Exception {
-        byte[] bytes = M.writeValueAsBytes(payload);
-        InvokeRequest req = InvokeRequest.builder()
-                .functionName(functionName)
-                .payload(SdkBytes.fromByteArray(bytes))
-                .build();
-        var resp = LAMBDA.invoke(req);
-        byte[] out = resp.payload().asByteArray();
-        return M.readValue(out, Map.class);
+        Map<String, Object> result = LAMBDA.invoke(functionName, payload);
+        // every index write bumps the generation; cached searches older than it are stale
+        if (functionName.equals("ComputeIndexHandler")) {
+            SEARCH_CACHE.observeGeneration(payload.get("clientId"), result.get("generation"));
+        }
+        return result;
     }
 
     private static String toJson(Object o) throws Exception {
@@ -0,0 +1,317 @@
+package client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import core.Metrics;
+import lambda.LocalDynamoDb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lambda.LambdaAsyncClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking handler calls over one {@link LambdaAsyncClient} and one Netty HTTP client.
+ * At most {@code maxConcurrency} invokes are on the wire at a time; the rest wait in a FIFO
+ * queue without holding a thread, so a single JVM can have thousands of requests outstanding.
+ * Identical searches that are already in flight share one invoke and its response.
+ * {@link #shared()} is the process-wide instance; the blocking {@link #invoke} makes it an
+ * {@link Invoker} for the existing synchronous callers. {@link #local} runs the handlers
+ * in-process instead of calling AWS (see {@link LocalLambdaClient}).
+ * Every invoke carries a "requestId" that the handlers trace and echo back; it is logged
+ * (DEBUG per call, WARN on failure) and each call's latency, queueing included, is recorded
+ * per operation for {@link #latency()}.
+ */
+public final class AsyncLambdaEngine implements Invoker, AutoCloseable {
+    public static final int DEFAULT_MAX_CONCURRENCY = 256;
+    public static final int DEFAULT_LOCAL_CONCURRENCY = 10;
+    /** "local" (system property, or FRE_MODE in the environment) makes {@link #shared()} a local engine */
+    public static final String MODE_PROPERTY = "fre.mode";
+    private static final String SEARCH_FUNCTION = "ComputeSearchHandler";
+    private static final String REQUEST_ID = "requestId";
+    private static final ObjectMapper M = new ObjectMapper();
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncLambdaEngine.class);
+    /**
+     * Starts the calls a finished one frees a slot for. A completion runs on the thread that
+     * completed it (a Netty event loop, or the caller's own thread for a call that failed
+     * early), which must neither marshal the next request nor recurse through a long queue.
+     */
+    private static final Executor DISPATCH = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("lambda-dispatch-", 0).factory());
+
+    private static volatile AsyncLambdaEngine shared;
+
+    private final SdkAsyncHttpClient http;
+    private final LambdaAsyncClient lambda;
+    private final int maxConcurrency;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final Map<String, CompletableFuture<Map<String, Object>>> searches = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Metrics metrics = new Metrics();
+
+    public AsyncLambdaEngine(int maxConcurrency) {
+        this(NettyNioAsyncHttpClient.builder()
+                // the engine queues past its own limit, so the pool never has to make callers wait
+                .maxConcurrency(maxConcurrency)
+                .connectionAcquisitionTimeout(Duration.ofSeconds(60))
+                .build(), maxConcurrency);
+    }
+
+    private AsyncLambdaEngine(SdkAsyncHttpClient http, int maxConcurrency) {
+        this(LambdaAsyncClient.builder()
+                .region(Region.of(Optional.ofNullable(System.getenv("AWS_REGION")).orElse("us-east-1")))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .httpClient(http)
+                .build(), http, maxConcurrency);
+    }
+
+    /** Over an existing client; {@code http} is closed with the engine and may be null. */
+    AsyncLambdaEngine(LambdaAsyncClient lambda, SdkAsyncHttpClient http, int maxConcurrency) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be >= 1");
+        this.lambda = lambda;
+        this.http = http;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * The process-wide engine, sized by {@code LAMBDA_MAX_CONCURRENCY} (default 256). In local
+     * mode it is {@link #local} with {@code LOCAL_CONCURRENCY} executions (default 10) and
+     * {@code LOCAL_DDB_LATENCY_MS} of emulated DynamoDB latency per call (default 0).
+     */
+    public static AsyncLambdaEngine shared() {
+        AsyncLambdaEngine e = shared;
+        if (e == null) {
+            synchronized (AsyncLambdaEngine.class) {
+                e = shared;
+                if (e == null) {
+                    int max = Integer.parseInt(env("LAMBDA_MAX_CONCURRENCY", Integer.toString(DEFAULT_MAX_CONCURRENCY)));
+                    shared = e = "local".equalsIgnoreCase(System.getProperty(MODE_PROPERTY, System.getenv("FRE_MODE")))
+                            ? local(max, Integer.parseInt(env("LOCAL_CONCURRENCY", Integer.toString(DEFAULT_LOCAL_CONCURRENCY))),
+                                    Long.parseLong(env("LOCAL_DDB_LATENCY_MS", "0")))
+                            : new AsyncLambdaEngine(max);
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * An engine whose invokes run the handlers in this JVM against a fresh, empty
+     * {@link LocalDynamoDb}, with at most {@code executions} of them running at once.
+     */
+    public static AsyncLambdaEngine local(int maxConcurrency, int executions, long dynamoLatencyMs) {
+        return new AsyncLambdaEngine(new LocalLambdaClient(LocalDynamoDb.withFreTables(dynamoLatencyMs), executions),
+                null, maxConcurrency);
+    }
+
+    public boolean isLocal() {
+        return lambda instanceof LocalLambdaClient;
+    }
+
+    /**
+     * Calls the handler once a slot is free; the future fails with the invoke or decode error.
+     * A payload without a "requestId" is sent with a new one.
+     */
+    public CompletableFuture<Map<String, Object>> invokeAsync(String functionName, Map<String, Object> payload) {
+        String operation = operation(functionName, payload);
+        String requestId = payload.get(REQUEST_ID) instanceof String id ? id : UUID.randomUUID().toString();
+        byte[] bytes;
+        try {
+            Map<String, Object> traced = payload;
+            if (!payload.containsKey(REQUEST_ID)) {
+                traced = new LinkedHashMap<>(payload);
+                traced.put(REQUEST_ID, requestId);
+            }
+            bytes = M.writeValueAsBytes(traced);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        InvokeRequest req = InvokeRequest.builder()
+                .functionName(functionName)
+                .payload(SdkBytes.fromByteArray(bytes))
+                .build();
+        CompletableFuture<Map<String, Object>> out = new CompletableFuture<>();
+        calls.increment();
+        if (inFlight.get() >= maxConcurrency) queued.increment();
+        long submitted = System.nanoTime();
+        waiting.add(() -> {
+            CompletableFuture<Map<String, Object>> call;
+            try {
+                call = lambda.invoke(req).thenApply(res -> {
+                    if (res.functionError() != null) {
+                        LOG.warn("{} {} returned function error {} (requestId {})", functionName, operation,
+                                res.functionError(), requestId);
+                    }
+                    return decode(res);
+                });
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            call.whenComplete((resp, err) -> {
+                release();
+                long nanos = System.nanoTime() - submitted;
+                metrics.record(operation, nanos);
+                if (err == null) {
+                    LOG.debug("{} {} took {} ms (requestId {})", functionName, operation, nanos / 1_000_000, requestId);
+                    out.complete(resp);
+                } else {
+                    failures.increment();
+                    metrics.add(operation + ".errors", 1);
+                    Throwable cause = unwrap(err);
+                    LOG.warn("{} {} failed after {} ms (requestId {}): {}", functionName, operation, nanos / 1_000_000,
+                            requestId, cause.toString());
+                    out.completeExceptionally(cause);
+                }
+            });
+        });
+        drain();
+        return out;
+    }
+
+    /**
+     * A search; when the same query (see {@link SearchCache#key}) is already in flight, its
+     * future is returned instead of invoking again. Callers share the response map.
+     */
+    public CompletableFuture<Map<String, Object>> searchAsync(Map<String, Object> payload) {
+        String key = SearchCache.key(payload);
+        CompletableFuture<Map<String, Object>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> running = searches.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        invokeAsync(SEARCH_FUNCTION, payload).whenComplete((resp, err) -> {
+            searches.remove(key, mine);
+            if (err == null) mine.complete(resp);
+            else mine.completeExceptionally(err);
+        });
+        return mine;
+    }
+
+    /** Blocking form for {@link Invoker} callers; searches are coalesced like {@link #searchAsync}. */
+    @Override
+    public Map<String, Object> invoke(String functionName, Map<String, Object> payload) throws Exception {
+        return await(SEARCH_FUNCTION.equals(functionName) ? searchAsync(payload) : invokeAsync(functionName, payload));
+    }
+
+    /** Waits for the call and rethrows what it failed with rather than an ExecutionException. */
+    public static <T> T await(CompletableFuture<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception ex) throw ex;
+            throw e;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("maxConcurrency", maxConcurrency);
+        s.put("inFlight", inFlight.get());
+        s.put("waiting", waiting.size());
+        s.put("calls", calls.sum());
+        s.put("queued", queued.sum());
+        s.put("coalesced", coalesced.sum());
+        s.put("failures", failures.sum());
+        if (lambda instanceof LocalLambdaClient local) s.put("local", local.stats());
+        return s;
+    }
+
+    /**
+     * Client-side latency per operation (register, index, indexBatch, delete, listPaths,
+     * compact, search, query, checkGeneration) in ms, from the call to its response, queueing
+     * included: count, mean, p50, p90, p99, max. Coalesced searches count once.
+     */
+    public Map<String, Object> latency() {
+        return metrics.latencies();
+    }
+
+    /** The handler operation a payload asks for, named as the handlers name it in their metrics. */
+    static String operation(String functionName, Map<String, Object> payload) {
+        return switch (functionName) {
+            case "RegisterHandler" -> "register";
+            case "ComputeIndexHandler" -> payload.containsKey("compact") ? "compact"
+                    : payload.containsKey("documents") ? "indexBatch"
+                    : payload.containsKey("delete") ? "delete"
+                    : payload.containsKey("listPaths") ? "listPaths"
+                    : "index";
+            case SEARCH_FUNCTION -> Boolean.TRUE.equals(payload.get("checkGeneration")) ? "checkGeneration"
+                    : payload.get("query") != null ? "query" : "search";
+            default -> functionName;
+        };
+    }
+
+    @Override
+    public void close() {
+        lambda.close();
+        if (http != null) http.close();
+    }
+
+    private static String env(String name, String fallback) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? fallback : v;
+    }
+
+    /** Starts waiting calls while slots are free; the caller's thread runs their requests. */
+    private void drain() {
+        while (!waiting.isEmpty()) {
+            int n = inFlight.get();
+            if (n >= maxConcurrency) return;
+            if (!inFlight.compareAndSet(n, n + 1)) continue;
+            Runnable next = waiting.poll();
+            if (next == null) {
+                // lost the race for the last waiter; give the slot back and look again
+                inFlight.decrementAndGet();
+                continue;
+            }
+            next.run();
+        }
+    }
+
+    /** Frees a slot; a waiting call is started on DISPATCH, not on the completing thread. */
+    private void release() {
+        inFlight.decrementAndGet();
+        if (!waiting.isEmpty()) DISPATCH.execute(this::drain);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> decode(InvokeResponse res) {
+        try {
+            return M.readValue(res.payload().asByteArray(), Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        if (t instanceof UncheckedIOException u) return u.getCause();
+        return t;
+    }
+}
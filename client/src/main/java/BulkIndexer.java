@@ -0,0 +1,328 @@
+package client;
+
+import core.TermCounter;
+import core.TermFreqsCodec;
+import core.TextTokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Indexes a directory tree as a three-stage pipeline: one walker discovers files, a CPU-sized
+ * pool tokenizes them, and {@code parallel} virtual threads invoke ComputeIndexHandler with up to
+ * {@code batchSize} documents per call. With {@code positions} the tokenizers also record term
+ * offsets and send them in place of termFreqs, so the index can answer phrase queries.
+ * Stages are joined by bounded queues, so a slow stage back-pressures the ones before it.
+ * Before walking, the paths already indexed under the root are listed with their content
+ * hashes; files whose hash still matches are skipped without being tokenized. With
+ * {@code binary} the termFreqs are sent as "termFreqsBin" ({@link TermFreqsCodec}), encoded on
+ * the tokenizer threads; positions are always sent as JSON.
+ */
+public final class BulkIndexer {
+    private static final Path END_OF_FILES = Path.of("");
+    private static final Tokenized END_OF_DOCS = new Tokenized(null, null, null, null, null, 0);
+    private static final int MANIFEST_PAGE = 5000;
+
+    /** exactly one of termFreqs, termFreqsBin (encoded) and positions is set */
+    private record Tokenized(Path path, String hash, Map<String, Integer> termFreqs, String termFreqsBin,
+                             Map<String, int[]> positions, long bytes) {
+        long payloadBytes() {
+            if (positions != null) return IndexBatcher.estimatePositionBytes(path.toString(), positions);
+            if (termFreqsBin != null) return IndexBatcher.estimateBinaryBytes(path.toString(), termFreqsBin);
+            return IndexBatcher.estimateBytes(path.toString(), termFreqs);
+        }
+
+        Map<String, Object> payload() {
+            if (positions != null) return Map.of("docPath", path.toString(), "hash", hash, "positions", positions);
+            if (termFreqsBin != null) return Map.of("docPath", path.toString(), "hash", hash, "termFreqsBin", termFreqsBin);
+            return Map.of("docPath", path.toString(), "hash", hash, "termFreqs", termFreqs);
+        }
+    }
+
+    /** Outcome of one index-dir run. */
+    public record Report(int files, int skipped, long bytes, long elapsedNanos,
+                         long[] discoverNanos, long[] tokenizeNanos, long[] invokeNanos,
+                         Map<Path, String> failures) {
+        public Map<String, Object> toMap() {
+            double secs = Math.max(1e-9, elapsedNanos / 1e9);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("files", files);
+            m.put("skipped", skipped);
+            m.put("failed", failures.size());
+            m.put("bytes", bytes);
+            m.put("seconds", round(secs));
+            m.put("filesPerSec", round(files / secs));
+            m.put("mbPerSec", round(bytes / 1048576.0 / secs));
+            m.put("discoverMs", latency(discoverNanos));
+            m.put("tokenizeMs", latency(tokenizeNanos));
+            m.put("invokeMs", latency(invokeNanos));
+            if (!failures.isEmpty()) {
+                Map<String, String> f = new LinkedHashMap<>();
+                failures.forEach((p, e) -> f.put(p.toString(), e));
+                m.put("failures", f);
+            }
+            return m;
+        }
+
+        private static Map<String, Object> latency(long[] nanos) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            if (nanos.length == 0) return m;
+            long[] s = nanos.clone();
+            Arrays.sort(s);
+            m.put("p50", round(s[s.length / 2] / 1e6));
+            m.put("p99", round(s[Math.min(s.length - 1, (int) (s.length * 0.99))] / 1e6));
+            m.put("max", round(s[s.length - 1] / 1e6));
+            return m;
+        }
+
+        private static double round(double v) {
+            return Math.round(v * 100) / 100.0;
+        }
+    }
+
+    private final Invoker invoker;
+    private final String clientId;
+    private final int parallel;
+    private final int tokenizers;
+    private final int batchSize;
+    private final boolean positions;
+    private final boolean binary;
+
+    public BulkIndexer(Invoker invoker, String clientId, int parallel, int batchSize) {
+        this(invoker, clientId, parallel, batchSize, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    public BulkIndexer(Invoker invoker, String clientId, int parallel, int batchSize, int tokenizers, boolean positions) {
+        this(invoker, clientId, parallel, batchSize, tokenizers, positions, false);
+    }
+
+    public BulkIndexer(Invoker invoker, String clientId, int parallel, int batchSize, int tokenizers,
+                       boolean positions, boolean binary) {
+        this.invoker = invoker;
+        this.positions = positions;
+        this.binary = binary;
+        this.clientId = clientId;
+        this.parallel = Math.max(1, parallel);
+        this.batchSize = Math.max(1, Math.min(batchSize, IndexBatcher.MAX_DOCS));
+        this.tokenizers = Math.max(1, tokenizers);
+    }
+
+    public Report run(Path root) throws InterruptedException {
+        BlockingQueue<Path> files = new ArrayBlockingQueue<>(tokenizers * 4);
+        BlockingQueue<Tokenized> docs = new ArrayBlockingQueue<>(parallel * Math.max(2, batchSize));
+        Queue<Long> discoverLat = new ConcurrentLinkedQueue<>();
+        Queue<Long> tokenizeLat = new ConcurrentLinkedQueue<>();
+        Queue<Long> invokeLat = new ConcurrentLinkedQueue<>();
+        Map<Path, String> failures = new ConcurrentSkipListMap<>();
+        AtomicLong bytes = new AtomicLong();
+        AtomicInteger skipped = new AtomicInteger();
+        long t0 = System.nanoTime();
+        Map<String, String> manifest = manifest(root, failures);
+
+        // 1) discovery
+        Thread walker = Thread.ofPlatform().name("index-dir-walk").start(() -> {
+            long last = System.nanoTime();
+            try (Stream<Path> s = Files.walk(root)) {
+                for (Iterator<Path> it = s.filter(Files::isRegularFile).iterator(); it.hasNext(); ) {
+                    Path p = it.next();
+                    long now = System.nanoTime();
+                    discoverLat.add(now - last);
+                    files.put(p);
+                    last = System.nanoTime();
+                }
+            } catch (IOException | RuntimeException e) {
+                failures.put(root, "walk: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                for (int i = 0; i < tokenizers; i++) putUninterruptibly(files, END_OF_FILES);
+            }
+        });
+
+        // 2) tokenization on a CPU-sized pool
+        ExecutorService cpu = Executors.newFixedThreadPool(tokenizers);
+        CountDownLatch tokenizersDone = new CountDownLatch(tokenizers);
+        for (int i = 0; i < tokenizers; i++) {
+            cpu.execute(() -> {
+                try {
+                    for (Path p = files.take(); p != END_OF_FILES; p = files.take()) {
+                        long s = System.nanoTime();
+                        try {
+                            String hash = ContentHash.of(p);
+                            if (hash.equals(manifest.get(p.toString()))) {
+                                skipped.incrementAndGet();
+                                continue;
+                            }
+                            Tokenized d = tokenize(p, hash);
+                            tokenizeLat.add(System.nanoTime() - s);
+                            docs.put(d);
+                        } catch (IOException | RuntimeException e) {
+                            failures.put(p, "tokenize: " + e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    tokenizersDone.countDown();
+                }
+            });
+        }
+        Thread.ofVirtual().start(() -> {
+            try {
+                tokenizersDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                for (int i = 0; i < parallel; i++) putUninterruptibly(docs, END_OF_DOCS);
+            }
+        });
+
+        // 3) Lambda invocation on virtual threads, up to batchSize docs per call
+        AtomicInteger indexed = new AtomicInteger();
+        try (ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < parallel; i++) {
+                io.execute(() -> {
+                    try {
+                        Tokenized carry = null;
+                        boolean end = false;
+                        while (!end) {
+                            Tokenized d = carry != null ? carry : docs.take();
+                            carry = null;
+                            if (d == END_OF_DOCS) break;
+                            List<Tokenized> batch = new ArrayList<>();
+                            batch.add(d);
+                            long size = d.payloadBytes();
+                            // top the batch up with whatever is already queued, within count and payload limits
+                            while (batch.size() < batchSize) {
+                                Tokenized n = docs.poll();
+                                if (n == null) break;
+                                if (n == END_OF_DOCS) { end = true; break; }
+                                long b = n.payloadBytes();
+                                if (size + b > IndexBatcher.MAX_PAYLOAD_BYTES) { carry = n; break; }
+                                batch.add(n);
+                                size += b;
+                            }
+                            long s = System.nanoTime();
+                            send(batch, failures, bytes, indexed);
+                            invokeLat.add(System.nanoTime() - s);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        } finally {
+            cpu.shutdown();
+        }
+        walker.join();
+
+        return new Report(indexed.get(), skipped.get(), bytes.get(), System.nanoTime() - t0,
+                toArray(discoverLat), toArray(tokenizeLat), toArray(invokeLat), failures);
+    }
+
+    /**
+     * path -> content hash of everything already indexed under root. A failed listing only
+     * costs the skip: the run goes on and re-sends every file.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> manifest(Path root, Map<Path, String> failures) {
+        Map<String, String> out = new HashMap<>();
+        String after = null;
+        try {
+            do {
+                Map<String, Object> req = new HashMap<>();
+                req.put("clientId", clientId);
+                req.put("listPaths", root.toString());
+                req.put("limit", MANIFEST_PAGE);
+                if (after != null) req.put("after", after);
+                Map<String, Object> resp = invoker.invoke("ComputeIndexHandler", req);
+                List<Map<String, Object>> rows = (List<Map<String, Object>>) resp.get("paths");
+                if (rows == null) break;
+                for (Map<String, Object> r : rows) {
+                    if (r.get("hash") != null) out.put((String) r.get("path"), (String) r.get("hash"));
+                }
+                after = (String) resp.get("next");
+            } while (after != null);
+        } catch (Exception e) {
+            failures.put(root, "manifest: " + e);
+        }
+        return out;
+    }
+
+    private Tokenized tokenize(Path p, String hash) throws IOException {
+        if (!positions) {
+            Map<String, Integer> tf = ParallelTokenizer.count(p, TextTokenizer.Normalization.ASCII).toMap();
+            return binary
+                    ? new Tokenized(p, hash, null, TermFreqsCodec.toBase64(tf), null, Files.size(p))
+                    : new Tokenized(p, hash, tf, null, null, Files.size(p));
+        }
+        // offsets run across the whole file, so this path tokenizes it in one sequential pass
+        byte[] data = Files.readAllBytes(p);
+        TermCounter c = new TextTokenizer(TextTokenizer.Normalization.ASCII, new TermCounter(256, true))
+                .accept(ByteBuffer.wrap(data)).finish();
+        return new Tokenized(p, hash, null, null, c.positionsMap(), data.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void send(List<Tokenized> batch, Map<Path, String> failures, AtomicLong bytes, AtomicInteger indexed) {
+        try {
+            if (batch.size() == 1) {
+                Tokenized d = batch.get(0);
+                Map<String, Object> payload = new HashMap<>(d.payload());
+                payload.put("clientId", clientId);
+                Map<String, Object> resp = invoker.invoke("ComputeIndexHandler", payload);
+                if (!"OK".equals(resp.get("status"))) {
+                    failures.put(d.path(), "index: " + resp);
+                    return;
+                }
+                bytes.addAndGet(d.bytes());
+                indexed.incrementAndGet();
+                return;
+            }
+
+            List<Map<String, Object>> documents = new ArrayList<>(batch.size());
+            for (Tokenized d : batch) documents.add(d.payload());
+            Map<String, Object> resp = invoker.invoke("ComputeIndexHandler", Map.of(
+                    "clientId", clientId,
+                    "documents", documents));
+            List<Map<String, Object>> statuses = (List<Map<String, Object>>) resp.get("documents");
+            for (int i = 0; i < batch.size(); i++) {
+                Tokenized d = batch.get(i);
+                Map<String, Object> st = statuses != null && i < statuses.size() ? statuses.get(i) : resp;
+                if ("OK".equals(st.get("status"))) {
+                    bytes.addAndGet(d.bytes());
+                    indexed.incrementAndGet();
+                } else {
+                    failures.put(d.path(), "index: " + st.getOrDefault("error", st));
+                }
+            }
+        } catch (Exception e) {
+            for (Tokenized d : batch) failures.put(d.path(), "index: " + e);
+        }
+    }
+
+    /** end-of-stream markers must get through even if the producer was interrupted */
+    private static <T> void putUninterruptibly(BlockingQueue<T> q, T v) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                q.put(v);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static long[] toArray(Queue<Long> q) {
+        return q.stream().mapToLong(Long::longValue).toArray();
+    }
+}
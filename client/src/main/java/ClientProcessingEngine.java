@@ -1,37 +1,97 @@
 package client;
 
-import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.services.lambda.LambdaClient;
-import software.amazon.awssdk.services.lambda.model.InvokeRequest;
-import java.nio.charset.StandardCharsets;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Programmatic entry point. The String methods block; the *Async ones return as soon as the
+ * request is queued on the {@link AsyncLambdaEngine}, so one caller can keep thousands of
+ * index and search requests outstanding. All engines share one Lambda client by default.
+ */
 public class ClientProcessingEngine {
-    private final LambdaClient lambda = LambdaClient.create();
-
-    public String register() {
-        var req = InvokeRequest.builder()
-                .functionName("RegisterHandler")
-                .payload(SdkBytes.fromString("{}", StandardCharsets.UTF_8))
-                .build();
-        var res = lambda.invoke(req);
-        return res.payload().asUtf8String();
-    }
-
-    public String computeIndex(String jsonPayload) {
-        var req = InvokeRequest.builder()
-                .functionName("ComputeIndexHandler")
-                .payload(SdkBytes.fromString(jsonPayload, StandardCharsets.UTF_8))
-                .build();
-        var res = lambda.invoke(req);
-        return res.payload().asUtf8String();
-    }
-
-    public String computeSearch(String jsonPayload) {
-        var req = InvokeRequest.builder()
-                .functionName("ComputeSearchHandler")
-                .payload(SdkBytes.fromString(jsonPayload, StandardCharsets.UTF_8))
-                .build();
-        var res = lambda.invoke(req);
-        return res.payload().asUtf8String();
+    private static final ObjectMapper M = new ObjectMapper();
+    private final AsyncLambdaEngine lambda;
+    private final SearchCache searchCache = new SearchCache();
+
+    public ClientProcessingEngine() {
+        this(AsyncLambdaEngine.shared());
+    }
+
+    public ClientProcessingEngine(AsyncLambdaEngine lambda) {
+        this.lambda = lambda;
+    }
+
+    public String register() throws Exception {
+        return M.writeValueAsString(lambda.invoke("RegisterHandler", Map.of()));
+    }
+
+    @SuppressWarnings("unchecked")
+    public String computeIndex(String jsonPayload) throws Exception {
+        return M.writeValueAsString(AsyncLambdaEngine.await(computeIndexAsync(M.readValue(jsonPayload, Map.class))));
+    }
+
+    /** Index, batch or delete request; its generation invalidates older cached searches. */
+    public CompletableFuture<Map<String, Object>> computeIndexAsync(Map<String, Object> payload) {
+        return lambda.invokeAsync("ComputeIndexHandler", payload).thenApply(resp -> {
+            searchCache.observeGeneration(payload.get("clientId"), resp.get("generation"));
+            return resp;
+        });
+    }
+
+    /**
+     * Uncached search; identical searches already in flight share one invoke. The payload carries
+     * the clientId the documents were indexed under (required with tenant isolation).
+     */
+    public CompletableFuture<Map<String, Object>> computeSearchAsync(Map<String, Object> payload) {
+        return lambda.searchAsync(payload);
+    }
+
+    /**
+     * Indexes many {docPath, termFreqs} documents, split into payload-size-bounded batches.
+     * Returns one raw response per batch; each carries per-document statuses.
+     */
+    public List<String> computeIndexBatch(String clientId, List<Map<String, Object>> documents) throws Exception {
+        List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+        for (List<Map<String, Object>> batch : IndexBatcher.split(documents, IndexBatcher.MAX_PAYLOAD_BYTES, IndexBatcher.MAX_DOCS)) {
+            calls.add(computeIndexAsync(payload(clientId, "documents", batch)));
+        }
+        List<String> out = new ArrayList<>(calls.size());
+        for (CompletableFuture<Map<String, Object>> c : calls) out.add(M.writeValueAsString(AsyncLambdaEngine.await(c)));
+        return out;
+    }
+
+    /** Removes the documents indexed under these paths; the response has a status per path. */
+    public String delete(String clientId, List<String> paths) throws Exception {
+        return M.writeValueAsString(AsyncLambdaEngine.await(computeIndexAsync(payload(clientId, "delete", paths))));
+    }
+
+    /** {name: value}, plus the clientId unless it is null (the shared index). */
+    private static Map<String, Object> payload(String clientId, String name, Object value) {
+        Map<String, Object> p = new HashMap<>();
+        if (clientId != null) p.put("clientId", clientId);
+        p.put(name, value);
+        return p;
+    }
+
+    /**
+     * Served from the search cache when the index generation still matches. With tenant
+     * isolation the payload must carry the registered clientId, and only sees that tenant's documents.
+     */
+    @SuppressWarnings("unchecked")
+    public String computeSearch(String jsonPayload) throws Exception {
+        Map<String, Object> payload = M.readValue(jsonPayload, Map.class);
+        return M.writeValueAsString(searchCache.search(payload, lambda));
+    }
+
+    public Map<String, Object> cacheStats() {
+        return searchCache.stats();
+    }
+
+    public Map<String, Object> lambdaStats() {
+        return lambda.stats();
     }
 }
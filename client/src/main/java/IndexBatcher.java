@@ -0,0 +1,66 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Splits index documents into ComputeIndexHandler batches that stay under Lambda's payload limit. */
+public final class IndexBatcher {
+    /** Lambda's synchronous invoke limit is 6 MB; leave room for the envelope and estimate error */
+    public static final long MAX_PAYLOAD_BYTES = 5L << 20;
+    public static final int MAX_DOCS = 500;
+
+    private IndexBatcher() {}
+
+    /** Upper-bound JSON size of {"docPath":..., "termFreqs":{...}} without serializing it. */
+    public static long estimateBytes(String docPath, Map<String, Integer> termFreqs) {
+        long n = 32 + docPath.getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            // "term":123, -> quotes, colon, comma, up to 10 digits; non-ASCII terms take up to 3 bytes/char
+            n += 4 + 3L * e.getKey().length() + digits(e.getValue());
+        }
+        return n;
+    }
+
+    /** Same estimate for a document sent as {term: [offsets]}; an offset takes up to 11 bytes. */
+    public static long estimatePositionBytes(String docPath, Map<String, int[]> positions) {
+        long n = 32 + docPath.getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, int[]> e : positions.entrySet()) {
+            n += 6 + 3L * e.getKey().length();
+            for (int p : e.getValue()) n += 1 + digits(p);
+        }
+        return n;
+    }
+
+    /** Size of {"docPath":..., "termFreqsBin":"..."}, exact up to the path's escaping. */
+    public static long estimateBinaryBytes(String docPath, String termFreqsBin) {
+        return 36 + docPath.getBytes(StandardCharsets.UTF_8).length + termFreqsBin.length();
+    }
+
+    /** Greedy split of documents ({docPath, termFreqs or termFreqsBin}) by size and count, preserving order. */
+    @SuppressWarnings("unchecked")
+    public static List<List<Map<String, Object>>> split(List<Map<String, Object>> documents, long maxBytes, int maxDocs) {
+        List<List<Map<String, Object>>> out = new ArrayList<>();
+        List<Map<String, Object>> cur = new ArrayList<>();
+        long curBytes = 0;
+        for (Map<String, Object> d : documents) {
+            long b = d.get("termFreqsBin") instanceof String bin
+                    ? estimateBinaryBytes((String) d.get("docPath"), bin)
+                    : estimateBytes((String) d.get("docPath"), (Map<String, Integer>) d.get("termFreqs"));
+            if (!cur.isEmpty() && (curBytes + b > maxBytes || cur.size() >= maxDocs)) {
+                out.add(cur);
+                cur = new ArrayList<>();
+                curBytes = 0;
+            }
+            cur.add(d);
+            curBytes += b;
+        }
+        if (!cur.isEmpty()) out.add(cur);
+        return out;
+    }
+
+    private static int digits(int v) {
+        return v < 10 ? 1 : v < 100 ? 2 : v < 1000 ? 3 : Integer.toString(v).length();
+    }
+}
@@ -0,0 +1,9 @@
+package client;
+
+import java.util.Map;
+
+/** Calls a handler by function name with a JSON-able payload and returns its decoded response. */
+@FunctionalInterface
+public interface Invoker {
+    Map<String, Object> invoke(String functionName, Map<String, Object> payload) throws Exception;
+}
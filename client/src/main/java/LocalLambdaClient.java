@@ -0,0 +1,139 @@
+package client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lambda.LocalContainer;
+import lambda.LocalDynamoDb;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaAsyncClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+import software.amazon.awssdk.services.lambda.model.RequestTooLargeException;
+import software.amazon.awssdk.services.lambda.model.ResourceNotFoundException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local mode: a LambdaAsyncClient that runs the handlers in this JVM over a
+ * {@link LocalDynamoDb}, so the whole engine can be profiled and load-tested on one machine.
+ * Like a function with reserved concurrency, at most {@code concurrency} invocations execute
+ * at once, each in its own {@link LocalContainer} that is created on first use (a cold start)
+ * and reused after; further invocations wait. Lambda's 6 MB request and response limits apply,
+ * and a handler exception comes back as FunctionError "Unhandled" with Lambda's error payload.
+ */
+final class LocalLambdaClient implements LambdaAsyncClient {
+    static final int MAX_PAYLOAD_BYTES = 6 * 1024 * 1024;
+    private static final ObjectMapper M = new ObjectMapper();
+
+    private final LocalDynamoDb db;
+    private final int concurrency;
+    private final ExecutorService executions;
+    private final ThreadLocal<LocalContainer> container;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger peakBusy = new AtomicInteger();
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder coldStarts = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    LocalLambdaClient(LocalDynamoDb db, int concurrency) {
+        this.db = db;
+        this.concurrency = concurrency;
+        // one platform thread per execution environment, each holding its container
+        this.executions = Executors.newFixedThreadPool(concurrency,
+                Thread.ofPlatform().name("local-lambda-", 0).daemon(true).factory());
+        this.container = ThreadLocal.withInitial(() -> {
+            coldStarts.increment();
+            return new LocalContainer(db);
+        });
+    }
+
+    @Override
+    public CompletableFuture<InvokeResponse> invoke(InvokeRequest req) {
+        if (!LocalContainer.FUNCTIONS.contains(req.functionName())) {
+            return CompletableFuture.failedFuture(ResourceNotFoundException.builder()
+                    .message("Function not found: " + req.functionName())
+                    .statusCode(404)
+                    .build());
+        }
+        byte[] payload = req.payload() == null ? new byte[0] : req.payload().asByteArray();
+        if (payload.length > MAX_PAYLOAD_BYTES) {
+            return CompletableFuture.failedFuture(RequestTooLargeException.builder()
+                    .message("Request must be smaller than " + MAX_PAYLOAD_BYTES + " bytes for the InvokeFunction operation")
+                    .statusCode(413)
+                    .build());
+        }
+        invocations.increment();
+        if (busy.get() >= concurrency) waited.increment();
+        return CompletableFuture.supplyAsync(() -> execute(req.functionName(), payload), executions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private InvokeResponse execute(String functionName, byte[] payload) {
+        peakBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+        try {
+            Map<String, Object> input = payload.length == 0 ? new HashMap<>() : M.readValue(payload, Map.class);
+            byte[] out = M.writeValueAsBytes(container.get().invoke(functionName, input));
+            if (out.length > MAX_PAYLOAD_BYTES) {
+                return error("Function.ResponseSizeTooLarge",
+                        "Response payload size exceeded maximum allowed payload size (" + MAX_PAYLOAD_BYTES + " bytes).");
+            }
+            return InvokeResponse.builder()
+                    .statusCode(200)
+                    .executedVersion("$LATEST")
+                    .payload(SdkBytes.fromByteArray(out))
+                    .build();
+        } catch (Exception e) {
+            return error(e.getClass().getName(), String.valueOf(e.getMessage()));
+        } finally {
+            busy.decrementAndGet();
+        }
+    }
+
+    private InvokeResponse error(String type, String message) {
+        errors.increment();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("errorMessage", message);
+        body.put("errorType", type);
+        try {
+            return InvokeResponse.builder()
+                    .statusCode(200)
+                    .functionError("Unhandled")
+                    .executedVersion("$LATEST")
+                    .payload(SdkBytes.fromByteArray(M.writeValueAsBytes(body)))
+                    .build();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("concurrency", concurrency);
+        s.put("busy", busy.get());
+        s.put("peakBusy", peakBusy.get());
+        s.put("invocations", invocations.sum());
+        s.put("coldStarts", coldStarts.sum());
+        s.put("waited", waited.sum());
+        s.put("errors", errors.sum());
+        s.put("dynamodb", db.stats());
+        s.put("handlers", LocalContainer.metrics());
+        return s;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        executions.shutdown();
+    }
+}
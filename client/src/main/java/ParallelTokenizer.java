@@ -0,0 +1,122 @@
+package client;
+
+import core.TermCounter;
+import core.TextTokenizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tokenizes a file without reading it onto the heap: the file is memory-mapped in chunks cut on
+ * word boundaries, each chunk is counted on a ForkJoin worker, and the per-chunk counters are
+ * merged pairwise. Heap use is bounded by vocabulary size, not file size.
+ */
+public final class ParallelTokenizer {
+    /** chunk size before boundary alignment */
+    static final long CHUNK_BYTES = 8L << 20;
+
+    private ParallelTokenizer() {}
+
+    public static TermCounter count(Path file, TextTokenizer.Normalization mode) throws IOException {
+        return count(file, mode, ForkJoinPool.commonPool());
+    }
+
+    public static TermCounter count(Path file, TextTokenizer.Normalization mode, ForkJoinPool pool) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = split(ch, CHUNK_BYTES);
+            if (chunks.isEmpty()) return new TermCounter();
+            if (chunks.size() == 1) return countChunk(ch, chunks.get(0), mode);
+            return pool.invoke(new ChunkTask(ch, chunks, 0, chunks.size(), mode));
+        }
+    }
+
+    /**
+     * Cuts [0, size) into ~chunkBytes pieces, moving each cut forward to the next ASCII byte that is
+     * not a letter or digit. Such a byte never occurs inside a UTF-8 sequence, so no token or
+     * character is split in any normalization mode.
+     */
+    static List<long[]> split(FileChannel ch, long chunkBytes) throws IOException {
+        long size = ch.size();
+        List<long[]> out = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkBytes);
+            scan:
+            while (end < size) {
+                probe.clear();
+                int n = ch.read(probe, end);
+                if (n <= 0) { end = size; break; }
+                for (int i = 0; i < n; i++) {
+                    if (isBoundary(probe.get(i))) { end += i; break scan; }
+                }
+                end += n;
+            }
+            out.add(new long[]{start, Math.min(end, size)});
+            start = end;
+        }
+        return out;
+    }
+
+    private static boolean isBoundary(byte b) {
+        return b >= 0 && !Character.isLetterOrDigit(b);
+    }
+
+    private static TermCounter countChunk(FileChannel ch, long[] range, TextTokenizer.Normalization mode) throws IOException {
+        TextTokenizer tok = new TextTokenizer(mode);
+        // a single mapping is limited to 2 GB; chunks are far smaller, but stay safe on huge cuts
+        for (long pos = range[0]; pos < range[1]; ) {
+            long len = Math.min(range[1] - pos, Integer.MAX_VALUE);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            tok.accept(buf);
+            pos += len;
+        }
+        return tok.finish();
+    }
+
+    // ForkJoinTask is Serializable only by inheritance; a ChunkTask is never serialized
+    @SuppressWarnings("serial")
+    private static final class ChunkTask extends RecursiveTask<TermCounter> {
+        private final FileChannel ch;
+        private final List<long[]> chunks;
+        private final int lo, hi;
+        private final TextTokenizer.Normalization mode;
+
+        ChunkTask(FileChannel ch, List<long[]> chunks, int lo, int hi, TextTokenizer.Normalization mode) {
+            this.ch = ch;
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+            this.mode = mode;
+        }
+
+        @Override
+        protected TermCounter compute() {
+            if (hi - lo == 1) {
+                try {
+                    return countChunk(ch, chunks.get(lo), mode);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            ChunkTask right = new ChunkTask(ch, chunks, mid, hi, mode);
+            right.fork();
+            TermCounter left = new ChunkTask(ch, chunks, lo, mid, mode).compute();
+            TermCounter r = right.join();
+            // merge the smaller vocabulary into the larger one
+            if (left.size() >= r.size()) { left.addAll(r); return left; }
+            r.addAll(left);
+            return r;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The clientId kept between runs in $XDG_CONFIG_HOME/fre/client-id (~/.config/fre/client-id by
+ * default). The index keys paths, docIds and, with tenant isolation, postings by clientId, so a
+ * client that registered anew each run could no longer find what it indexed before.
+ */
+final class SavedClientId {
+    private SavedClientId() {}
+
+    static Path file() {
+        String xdg = System.getenv("XDG_CONFIG_HOME");
+        Path config = xdg != null && !xdg.isBlank() ? Path.of(xdg) : Path.of(System.getProperty("user.home"), ".config");
+        return config.resolve("fre").resolve("client-id");
+    }
+
+    /** The saved id, or null when none has been saved yet. */
+    static String load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        String id = Files.readString(file, StandardCharsets.UTF_8).trim();
+        return id.isEmpty() ? null : id;
+    }
+
+    /** Written to a temp file and moved into place, so a crash never leaves half an id. */
+    static void save(Path file, String id) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "client-id", ".tmp");
+        Files.writeString(tmp, id + "\n", StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
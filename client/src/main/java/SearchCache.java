@@ -0,0 +1,144 @@
+package client;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded LRU of search responses keyed by the normalized query. Each entry remembers the
+ * index generation it was computed at: entries older than a generation this client has seen
+ * for the same clientId (from its own index calls) are dropped, and entries past
+ * {@code checkMillis} are revalidated with a cheap {"checkGeneration":true} call instead of a
+ * full search. Generations count per tenant, so one tenant's are never compared with another's.
+ */
+public final class SearchCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_CHECK_MILLIS = 2_000;
+
+    private record Entry(Map<String, Object> response, long generation, long checkedAt) {}
+
+    private final int maxEntries;
+    private final long checkMillis;
+    private final LinkedHashMap<String, Entry> lru;
+    // clientId ("" for payloads without one) -> highest generation seen for that tenant
+    private final Map<String, AtomicLong> knownGenerations = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public SearchCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_CHECK_MILLIS);
+    }
+
+    public SearchCache(int maxEntries, long checkMillis) {
+        this.maxEntries = maxEntries;
+        this.checkMillis = checkMillis;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= SearchCache.this.maxEntries) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public Map<String, Object> search(Map<String, Object> payload, Invoker invoker) throws Exception {
+        String key = key(payload);
+        Entry e;
+        synchronized (lru) {
+            e = lru.get(key);
+        }
+        if (e != null) {
+            if (e.generation() < knownGeneration(payload.get("clientId")).get()) {
+                invalidations.increment();
+            } else if (System.currentTimeMillis() - e.checkedAt() < checkMillis) {
+                hits.increment();
+                return e.response();
+            } else {
+                validations.increment();
+                Map<String, Object> check = new HashMap<>();
+                check.put("checkGeneration", true);
+                // generations are per tenant
+                if (payload.get("clientId") != null) check.put("clientId", payload.get("clientId"));
+                long g = generationOf(invoker.invoke("ComputeSearchHandler", check));
+                observeGeneration(payload.get("clientId"), g);
+                if (g == e.generation()) {
+                    put(key, new Entry(e.response(), g, System.currentTimeMillis()));
+                    hits.increment();
+                    return e.response();
+                }
+                invalidations.increment();
+            }
+        }
+
+        misses.increment();
+        Map<String, Object> resp = invoker.invoke("ComputeSearchHandler", payload);
+        long g = generationOf(resp);
+        if (g >= 0) {
+            put(key, new Entry(resp, g, System.currentTimeMillis()));
+        } else {
+            synchronized (lru) {
+                lru.remove(key);
+            }
+        }
+        return resp;
+    }
+
+    /**
+     * Records a generation returned by an index write for {@code clientId}; that tenant's older
+     * cached entries become stale.
+     */
+    public void observeGeneration(Object clientId, Object generation) {
+        long g = generation instanceof Number n ? n.longValue() : -1;
+        if (g > 0) knownGeneration(clientId).accumulateAndGet(g, Math::max);
+    }
+
+    private AtomicLong knownGeneration(Object clientId) {
+        return knownGenerations.computeIfAbsent(clientId == null ? "" : clientId.toString(), c -> new AtomicLong());
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum(), m = misses.sum();
+        Map<String, Object> s = new LinkedHashMap<>();
+        synchronized (lru) {
+            s.put("entries", lru.size());
+        }
+        s.put("maxEntries", maxEntries);
+        s.put("hits", h);
+        s.put("misses", m);
+        s.put("hitRatio", h + m == 0 ? 0.0 : Math.round(1000.0 * h / (h + m)) / 1000.0);
+        s.put("evictions", evictions.sum());
+        s.put("validations", validations.sum());
+        s.put("invalidations", invalidations.sum());
+        Map<String, Long> generations = new TreeMap<>();
+        knownGenerations.forEach((c, g) -> generations.put(c, g.get()));
+        s.put("generations", generations);
+        return s;
+    }
+
+    /** Same query regardless of term order: parameters sorted by name, terms sorted. */
+    static String key(Map<String, Object> payload) {
+        Map<String, Object> k = new TreeMap<>(payload);
+        if (k.get("terms") instanceof List<?> terms) {
+            List<String> sorted = new ArrayList<>(terms.size());
+            for (Object t : terms) sorted.add(String.valueOf(t));
+            Collections.sort(sorted);
+            k.put("terms", sorted);
+        }
+        return k.toString();
+    }
+
+    private void put(String key, Entry e) {
+        synchronized (lru) {
+            lru.put(key, e);
+        }
+    }
+
+    private static long generationOf(Map<String, Object> resp) {
+        return resp.get("generation") instanceof Number n ? n.longValue() : -1;
+    }
+}
@@ -0,0 +1,106 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaAsyncClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLambdaEngineTest {
+    private static final String SEARCH = "ComputeSearchHandler";
+
+    private static Map<String, Object> search(String term) {
+        return Map.of("clientId", "client-1", "terms", List.of(term));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> local(AsyncLambdaEngine engine) {
+        return (Map<String, Object>) engine.stats().get("local");
+    }
+
+    @Test
+    void neverRunsMoreThanMaxConcurrencyInvokes() throws Exception {
+        // plenty of emulated executions, so only the engine's cap holds calls back
+        try (AsyncLambdaEngine engine = AsyncLambdaEngine.local(2, 8, 5)) {
+            List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+            for (int i = 0; i < 24; i++) calls.add(engine.invokeAsync(SEARCH, search("term" + i)));
+            for (CompletableFuture<Map<String, Object>> c : calls) assertNotNull(c.get(30, TimeUnit.SECONDS).get("results"));
+
+            Map<String, Object> stats = engine.stats();
+            assertEquals(24L, stats.get("calls"));
+            assertTrue((Long) stats.get("queued") > 0, stats.toString());
+            assertEquals(0, stats.get("inFlight"));
+            assertEquals(0, stats.get("waiting"));
+            assertTrue((Integer) local(engine).get("peakBusy") <= 2, local(engine).toString());
+        }
+    }
+
+    @Test
+    void identicalSearchesInFlightShareOneInvoke() throws Exception {
+        // slow DynamoDB keeps the first search in flight while the others arrive
+        try (AsyncLambdaEngine engine = AsyncLambdaEngine.local(8, 8, 50)) {
+            CompletableFuture<Map<String, Object>> first = engine.searchAsync(search("alice"));
+            CompletableFuture<Map<String, Object>> second = engine.searchAsync(search("alice"));
+            CompletableFuture<Map<String, Object>> other = engine.searchAsync(search("bob"));
+            assertSame(first, second);
+            assertNotSame(first, other);
+            first.get(30, TimeUnit.SECONDS);
+            other.get(30, TimeUnit.SECONDS);
+            assertEquals(1L, engine.stats().get("coalesced"));
+            assertEquals(2L, local(engine).get("invocations"));
+
+            // once it has finished, the same search invokes again
+            engine.searchAsync(search("alice")).get(30, TimeUnit.SECONDS);
+            assertEquals(3L, local(engine).get("invocations"));
+        }
+    }
+
+    @Test
+    void queuedInvokesStartOffTheCompletingThread() throws Exception {
+        CompletableFuture<InvokeResponse> gate = new CompletableFuture<>();
+        Set<Thread> starters = ConcurrentHashMap.newKeySet();
+        LambdaAsyncClient client = new LambdaAsyncClient() {
+            private boolean first = true;
+
+            @Override
+            public synchronized CompletableFuture<InvokeResponse> invoke(InvokeRequest req) {
+                if (first) {
+                    first = false;
+                    return gate;
+                }
+                starters.add(Thread.currentThread());
+                // completes at once, so starting the next call inline would recurse once per queued call
+                return CompletableFuture.completedFuture(InvokeResponse.builder()
+                        .statusCode(200).payload(SdkBytes.fromUtf8String("{}")).build());
+            }
+
+            @Override
+            public String serviceName() {
+                return SERVICE_NAME;
+            }
+
+            @Override
+            public void close() {}
+        };
+        try (AsyncLambdaEngine engine = new AsyncLambdaEngine(client, null, 1)) {
+            List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) calls.add(engine.invokeAsync("RegisterHandler", Map.of()));
+            assertEquals(19_999, engine.stats().get("waiting"));
+
+            gate.complete(InvokeResponse.builder().statusCode(200).payload(SdkBytes.fromUtf8String("{}")).build());
+            for (CompletableFuture<Map<String, Object>> c : calls) c.get(30, TimeUnit.SECONDS);
+            assertFalse(starters.contains(Thread.currentThread()));
+            assertEquals(0L, engine.stats().get("failures"));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package client;
+
+import core.TermCounter;
+import core.TextTokenizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTokenizerTest {
+    @TempDir
+    Path dir;
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(dir.resolve("doc.txt"), text, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void cutsOnlyOnAsciiSeparators() throws IOException {
+        // multi-byte letters around every would-be cut point
+        String text = "ééééé ".repeat(1000) + "ab日本cd".repeat(500);
+        Path file = write(text);
+        byte[] bytes = Files.readAllBytes(file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = ParallelTokenizer.split(ch, 7);
+            assertTrue(chunks.size() > 1);
+            long expectStart = 0;
+            for (long[] c : chunks) {
+                assertEquals(expectStart, c[0]);
+                if (c[1] < bytes.length) {
+                    byte b = bytes[(int) c[1]];
+                    assertTrue(b >= 0 && !Character.isLetterOrDigit(b), "cut inside a token at " + c[1]);
+                }
+                expectStart = c[1];
+            }
+            assertEquals(bytes.length, expectStart);
+        }
+    }
+
+    @Test
+    void emptyFileHasNoChunksOrTerms() throws IOException {
+        Path file = write("");
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(List.of(), ParallelTokenizer.split(ch, 16));
+        }
+        assertEquals(0, ParallelTokenizer.count(file, TextTokenizer.Normalization.UNICODE).size());
+    }
+
+    @Test
+    void mergedChunkCountsMatchASingleThreadedPass() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        // a few chunks' worth, so the ForkJoin merge runs
+        for (int i = 0; sb.length() < 3 * ParallelTokenizer.CHUNK_BYTES; i++) {
+            sb.append("Straße café term").append(i % 5_000).append(" THE the\n");
+        }
+        String text = sb.toString();
+        Path file = write(text);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (TextTokenizer.Normalization mode : TextTokenizer.Normalization.values()) {
+                TermCounter expected = TextTokenizer.count(text, mode);
+                TermCounter merged = ParallelTokenizer.count(file, mode, pool);
+                assertEquals(expected.toMap(), merged.toMap(), mode.name());
+                assertEquals(expected.tokens(), merged.tokens(), mode.name());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
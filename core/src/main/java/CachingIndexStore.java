@@ -0,0 +1,288 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IndexStore decorator that keeps recently read postings lists in memory for a short TTL.
+ * The cache is bounded by an estimate of retained bytes and evicts least-recently-used terms
+ * until it fits. Writes made through this store drop the terms they touch. Each entry is tagged
+ * with the index generation known when it was read, and is only served while no newer
+ * generation has been seen through this store (its corpus stats or generation reads), so a
+ * search never pairs cached postings with a generation they predate; writes from other
+ * containers become visible once that generation is seen, or the TTL expires. Tenant views
+ * share one budget, with the tenant in the cache key; each tracks its own generation.
+ */
+public class CachingIndexStore implements IndexStore {
+    /** rough retained size of one long[3] posting plus its list slot */
+    static final int POSTING_BYTES = 48;
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private record Entry(List<long[]> postings, long bytes, long loadedAt, long generation) {}
+
+    /** The LRU and its counters, shared by the root store and its tenant views. */
+    private static final class Shared {
+        final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(256, 0.75f, true);
+        long bytes;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final Map<String, CachingIndexStore> tenants = new ConcurrentHashMap<>();
+    }
+
+    private final IndexStore delegate;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Shared shared;
+    private final LinkedHashMap<String, Entry> lru;
+    // cache keys are tenant NUL term; "" for the shared index
+    private final String keyPrefix;
+    private final CachingIndexStore root;
+    /** newest generation this view has handed out; older entries are stale */
+    private final AtomicLong seenGeneration = new AtomicLong();
+
+    public CachingIndexStore(IndexStore delegate, long maxBytes, long ttlMillis) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.shared = new Shared();
+        this.lru = shared.lru;
+        this.keyPrefix = "";
+        this.root = this;
+    }
+
+    private CachingIndexStore(CachingIndexStore root, String tenant) {
+        this.delegate = root.delegate.forTenant(tenant);
+        this.maxBytes = root.maxBytes;
+        this.ttlMillis = root.ttlMillis;
+        this.shared = root.shared;
+        this.lru = shared.lru;
+        this.keyPrefix = tenant + '\0';
+        this.root = root;
+    }
+
+    @Override
+    public CachingIndexStore forTenant(String clientId) {
+        return clientId == null ? root : shared.tenants.computeIfAbsent(clientId, c -> new CachingIndexStore(root, c));
+    }
+
+    @Override
+    public boolean requiresTenant() {
+        return delegate.requiresTenant();
+    }
+
+    @Override
+    public List<long[]> lookupIndex(String term) {
+        long now = System.currentTimeMillis();
+        String key = keyPrefix + term;
+        // read before the postings: a write landing during the fetch can only make the tag older
+        long generation = corpusStats().generation();
+        synchronized (lru) {
+            Entry e = lru.get(key);
+            if (e != null && now - e.loadedAt() < ttlMillis && e.generation() >= generation) {
+                shared.hits.increment();
+                return e.postings();
+            }
+        }
+        shared.misses.increment();
+        List<long[]> postings = Collections.unmodifiableList(delegate.lookupIndex(term));
+        long size = ENTRY_OVERHEAD_BYTES + 2L * key.length() + (long) POSTING_BYTES * postings.size();
+        // a list bigger than a quarter of the budget would just flush everything else
+        if (size <= maxBytes / 4) {
+            synchronized (lru) {
+                Entry old = lru.put(key, new Entry(postings, size, now, generation));
+                if (old != null) shared.bytes -= old.bytes();
+                shared.bytes += size;
+                Iterator<Entry> it = lru.values().iterator();
+                while (shared.bytes > maxBytes && it.hasNext()) {
+                    shared.bytes -= it.next().bytes();
+                    it.remove();
+                    shared.evictions.increment();
+                }
+            }
+        }
+        return postings;
+    }
+
+    @Override
+    public Map<String, Object> cacheStats() {
+        long h = shared.hits.sum(), m = shared.misses.sum();
+        Map<String, Object> s = new LinkedHashMap<>();
+        synchronized (lru) {
+            s.put("entries", lru.size());
+            s.put("bytes", shared.bytes);
+        }
+        s.put("hits", h);
+        s.put("misses", m);
+        s.put("hitRatio", h + m == 0 ? 0.0 : Math.round(1000.0 * h / (h + m)) / 1000.0);
+        s.put("evictions", shared.evictions.sum());
+        return s;
+    }
+
+    @Override
+    public long putDocument(String clientId, String relativePath) {
+        return delegate.putDocument(clientId, relativePath);
+    }
+
+    @Override
+    public long[] putDocuments(String clientId, List<String> relativePaths) {
+        return delegate.putDocuments(clientId, relativePaths);
+    }
+
+    @Override
+    public String getDocument(long docId) {
+        return delegate.getDocument(docId);
+    }
+
+    @Override
+    public Map<Long, String> getDocuments(Collection<Long> docIds) {
+        return delegate.getDocuments(docIds);
+    }
+
+    @Override
+    public WriteStats updateIndex(long docId, Map<String, Integer> termFreqs) {
+        WriteStats w = delegate.updateIndex(docId, termFreqs);
+        invalidate(termFreqs.keySet());
+        return w;
+    }
+
+    @Override
+    public WriteStats updateIndexBatch(Map<Long, Map<String, Integer>> docs) {
+        WriteStats w = delegate.updateIndexBatch(docs);
+        for (Map<String, Integer> tf : docs.values()) invalidate(tf.keySet());
+        return w;
+    }
+
+    @Override
+    public WriteStats compact(String term) {
+        WriteStats w = delegate.compact(term);
+        invalidate(List.of(term));
+        return w;
+    }
+
+    @Override
+    public WriteStats updatePositions(Map<Long, Map<String, int[]>> docs) {
+        return delegate.updatePositions(docs);
+    }
+
+    /** Not cached: fetched only for phrase candidates, which differ per query. */
+    @Override
+    public Map<Long, int[]> lookupPositions(String term, Collection<Long> docIds) {
+        return delegate.lookupPositions(term, docIds);
+    }
+
+    @Override
+    public Map<String, PathEntry> findPaths(String clientId, Collection<String> paths) {
+        return delegate.findPaths(clientId, paths);
+    }
+
+    @Override
+    public List<PathEntry> listPaths(String clientId, String prefix, String after, int limit) {
+        return delegate.listPaths(clientId, prefix, after, limit);
+    }
+
+    @Override
+    public void putPaths(String clientId, List<PathEntry> entries) {
+        delegate.putPaths(clientId, entries);
+    }
+
+    @Override
+    public Map<String, PathEntry> claimPaths(String clientId, List<PathEntry> pending) {
+        return delegate.claimPaths(clientId, pending);
+    }
+
+    /** The old terms are only known to the backend, so updates and deletes drop this tenant's entries. */
+    @Override
+    public WriteStats updateDocument(long docId, Map<String, Integer> termFreqs) {
+        try {
+            return delegate.updateDocument(docId, termFreqs);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public WriteStats resumeDocument(long docId, Map<String, Integer> termFreqs) {
+        try {
+            return delegate.resumeDocument(docId, termFreqs);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public WriteStats deleteDocument(String clientId, PathEntry entry) {
+        try {
+            return delegate.deleteDocument(clientId, entry);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public CorpusStats corpusStats() {
+        CorpusStats s = delegate.corpusStats();
+        long g = seen(s.generation());
+        return g == s.generation() ? s : new CorpusStats(s.docs(), s.tokens(), g);
+    }
+
+    @Override
+    public long generation() {
+        return seen(delegate.generation());
+    }
+
+    /** The newest generation seen so far, g included; a lagging cached read never moves it back. */
+    private long seen(long g) {
+        return seenGeneration.accumulateAndGet(g, Math::max);
+    }
+
+    @Override
+    public void putSnapshot(String id, List<byte[]> pages, long ttlMillis) {
+        delegate.putSnapshot(id, pages, ttlMillis);
+    }
+
+    @Override
+    public byte[] snapshotPage(String id, int page) {
+        return delegate.snapshotPage(id, page);
+    }
+
+    /** The backend keeps its own copy fresh. */
+    @Override
+    public TermDictionary termDictionary() {
+        return delegate.termDictionary();
+    }
+
+    /** Drops every tenant's entries; the backend's root drops its tenants' state. */
+    @Override
+    public void dropCaches() {
+        synchronized (lru) {
+            lru.clear();
+            shared.bytes = 0;
+        }
+        root.delegate.dropCaches();
+    }
+
+    private void clear() {
+        synchronized (lru) {
+            Iterator<Map.Entry<String, Entry>> it = lru.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (keyPrefix.isEmpty() ? e.getKey().indexOf('\0') < 0 : e.getKey().startsWith(keyPrefix)) {
+                    shared.bytes -= e.getValue().bytes();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void invalidate(Collection<String> terms) {
+        synchronized (lru) {
+            for (String t : terms) {
+                Entry e = lru.remove(keyPrefix + t);
+                if (e != null) shared.bytes -= e.bytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package core;
+
+/**
+ * Corpus-wide statistics kept by the indexer: document count, total token count, and the
+ * index generation, which every index write bumps so cached search results can be validated.
+ */
+public record CorpusStats(long docs, long tokens, long generation) {
+    public static final CorpusStats EMPTY = new CorpusStats(0, 0, 0);
+
+    public double avgDocLen() {
+        return docs == 0 ? 0 : (double) tokens / docs;
+    }
+}
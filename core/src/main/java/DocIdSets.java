@@ -0,0 +1,69 @@
+package core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Set operations over ascending, duplicate-free docId arrays. */
+public final class DocIdSets {
+    private DocIdSets() {}
+
+    /** The docIds of postings sorted by docId. */
+    public static long[] of(List<long[]> postings) {
+        long[] out = new long[postings.size()];
+        for (int i = 0; i < out.length; i++) out[i] = postings.get(i)[0];
+        return out;
+    }
+
+    /**
+     * Galloping intersection: walks the smaller set and skips through the larger one with
+     * exponential then binary search, so cost is O(small * log(large / small)).
+     */
+    public static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) return intersect(b, a);
+        long[] out = new long[a.length];
+        int n = 0, j = 0;
+        for (long x : a) {
+            j = advance(b, j, x);
+            if (j == b.length) break;
+            if (b[j] == x) out[n++] = x;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** First index >= from whose value is >= target, or sorted.length. */
+    public static int advance(long[] sorted, int from, long target) {
+        if (from >= sorted.length || sorted[from] >= target) return from;
+        int step = 1, lo = from, hi = from + 1;
+        while (hi < sorted.length && sorted[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        int idx = Arrays.binarySearch(sorted, lo + 1, Math.min(hi + 1, sorted.length), target);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    public static long[] union(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) out[n++] = b[j++];
+            else { out[n++] = a[i++]; j++; }
+        }
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return Arrays.copyOf(out, n);
+    }
+
+    /** a without the members of b. */
+    public static long[] minus(long[] a, long[] b) {
+        long[] out = new long[a.length];
+        int n = 0, j = 0;
+        for (long x : a) {
+            j = advance(b, j, x);
+            if (j == b.length || b[j] != x) out[n++] = x;
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
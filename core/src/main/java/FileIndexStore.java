@@ -0,0 +1,251 @@
+package core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local file-backed IndexStore: every write is appended to a JSON-lines journal and served
+ * from memory; the journal is replayed on open, so an index survives restarts without AWS.
+ * Tenant views share the journal and tag their records with "tenant".
+ */
+public class FileIndexStore implements IndexStore, AutoCloseable {
+    private static final ObjectMapper M = new ObjectMapper();
+
+    private final InMemoryIndexStore mem;
+    private final BufferedWriter out;
+    // null for the store that owns the journal; tenant views point back at it
+    private final String tenant;
+    private final FileIndexStore root;
+    private final Map<String, FileIndexStore> tenants;
+
+    public FileIndexStore(Path journal) {
+        this.mem = new InMemoryIndexStore();
+        this.tenant = null;
+        this.root = this;
+        this.tenants = new ConcurrentHashMap<>();
+        try {
+            if (journal.getParent() != null) Files.createDirectories(journal.getParent());
+            if (Files.exists(journal)) replay(journal);
+            out = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open index journal " + journal, e);
+        }
+    }
+
+    private FileIndexStore(FileIndexStore root, String tenant) {
+        this.mem = root.mem.forTenant(tenant);
+        this.out = root.out;
+        this.tenant = tenant;
+        this.root = root;
+        this.tenants = null;
+    }
+
+    @Override
+    public FileIndexStore forTenant(String clientId) {
+        return clientId == null ? root : root.tenants.computeIfAbsent(clientId, c -> new FileIndexStore(root, c));
+    }
+
+    @Override
+    public long putDocument(String clientId, String relativePath) {
+        long docId = mem.putDocument(clientId, relativePath);
+        Map<String, Object> rec = new LinkedHashMap<>();
+        rec.put("docId", docId);
+        rec.put("clientId", clientId);
+        rec.put("path", relativePath);
+        append(rec);
+        return docId;
+    }
+
+    @Override
+    public String getDocument(long docId) {
+        return mem.getDocument(docId);
+    }
+
+    @Override
+    public WriteStats updateIndex(long docId, Map<String, Integer> termFreqs) {
+        append(Map.of("docId", docId, "termFreqs", termFreqs));
+        return mem.updateIndex(docId, termFreqs);
+    }
+
+    @Override
+    public WriteStats updatePositions(Map<Long, Map<String, int[]>> docs) {
+        for (Map.Entry<Long, Map<String, int[]>> d : docs.entrySet()) {
+            append(Map.of("docId", d.getKey(), "positions", d.getValue()));
+        }
+        return mem.updatePositions(docs);
+    }
+
+    @Override
+    public Map<Long, int[]> lookupPositions(String term, Collection<Long> docIds) {
+        return mem.lookupPositions(term, docIds);
+    }
+
+    @Override
+    public Map<String, PathEntry> findPaths(String clientId, Collection<String> paths) {
+        return mem.findPaths(clientId, paths);
+    }
+
+    @Override
+    public List<PathEntry> listPaths(String clientId, String prefix, String after, int limit) {
+        return mem.listPaths(clientId, prefix, after, limit);
+    }
+
+    @Override
+    public void putPaths(String clientId, List<PathEntry> entries) {
+        if (entries.isEmpty()) return;
+        journalPaths(clientId, entries);
+        mem.putPaths(clientId, entries);
+    }
+
+    /** Claimed in memory first, so only the entries that won reach the journal. */
+    @Override
+    public Map<String, PathEntry> claimPaths(String clientId, List<PathEntry> pending) {
+        Map<String, PathEntry> lost = mem.claimPaths(clientId, pending);
+        List<PathEntry> won = new ArrayList<>(pending.size());
+        for (PathEntry e : pending) {
+            if (!lost.containsKey(e.path())) won.add(e);
+        }
+        if (!won.isEmpty()) journalPaths(clientId, won);
+        return lost;
+    }
+
+    private void journalPaths(String clientId, List<PathEntry> entries) {
+        List<Map<String, Object>> rows = new ArrayList<>(entries.size());
+        for (PathEntry e : entries) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("path", e.path());
+            row.put("docId", e.docId());
+            row.put("hash", e.hash());
+            if (e.pending()) row.put("pending", true);
+            rows.add(row);
+        }
+        Map<String, Object> rec = new LinkedHashMap<>();
+        rec.put("clientId", clientId);
+        rec.put("paths", rows);
+        append(rec);
+    }
+
+    @Override
+    public WriteStats updateDocument(long docId, Map<String, Integer> termFreqs) {
+        append(Map.of("docId", docId, "update", termFreqs));
+        return mem.updateDocument(docId, termFreqs);
+    }
+
+    /** Journaled as an update: replaying it indexes the doc if the journal holds no earlier write of it. */
+    @Override
+    public WriteStats resumeDocument(long docId, Map<String, Integer> termFreqs) {
+        append(Map.of("docId", docId, "update", termFreqs));
+        return mem.resumeDocument(docId, termFreqs);
+    }
+
+    @Override
+    public WriteStats deleteDocument(String clientId, PathEntry entry) {
+        Map<String, Object> rec = new LinkedHashMap<>();
+        rec.put("docId", entry.docId());
+        rec.put("delete", entry.path());
+        rec.put("clientId", clientId);
+        append(rec);
+        return mem.deleteDocument(clientId, entry);
+    }
+
+    @Override
+    public List<long[]> lookupIndex(String term) {
+        return mem.lookupIndex(term);
+    }
+
+    @Override
+    public CorpusStats corpusStats() {
+        return mem.corpusStats();
+    }
+
+    @Override
+    public TermDictionary termDictionary() {
+        return mem.termDictionary();
+    }
+
+    /** Kept in memory only: a stream does not outlive the process, so it is not journaled. */
+    @Override
+    public void putSnapshot(String id, List<byte[]> pages, long ttlMillis) {
+        mem.putSnapshot(id, pages, ttlMillis);
+    }
+
+    @Override
+    public byte[] snapshotPage(String id, int page) {
+        return mem.snapshotPage(id, page);
+    }
+
+    /** Closes the shared journal; tenant views are closed with it. */
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+
+    private void append(Map<String, Object> rec) {
+        if (tenant != null) {
+            rec = new LinkedHashMap<>(rec);
+            rec.put("tenant", tenant);
+        }
+        synchronized (out) {
+            try {
+                out.write(M.writeValueAsString(rec));
+                out.newLine();
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("index journal write failed", e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay(Path journal) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Map<String, Object> rec = M.readValue(line, Map.class);
+                InMemoryIndexStore mem = this.mem.forTenant((String) rec.get("tenant"));
+                if (rec.containsKey("paths")) {
+                    List<PathEntry> entries = new ArrayList<>();
+                    for (Map<String, Object> row : (List<Map<String, Object>>) rec.get("paths")) {
+                        entries.add(new PathEntry((String) row.get("path"), ((Number) row.get("docId")).longValue(),
+                                (String) row.get("hash"), Boolean.TRUE.equals(row.get("pending"))));
+                    }
+                    mem.putPaths((String) rec.get("clientId"), entries);
+                    continue;
+                }
+                long docId = ((Number) rec.get("docId")).longValue();
+                if (rec.containsKey("delete")) {
+                    mem.deleteDocument((String) rec.get("clientId"), new PathEntry((String) rec.get("delete"), docId, null));
+                } else if (rec.containsKey("update")) {
+                    mem.updateDocument(docId, (Map<String, Integer>) rec.get("update"));
+                } else if (rec.containsKey("path")) {
+                    mem.restoreDocument(docId, (String) rec.get("path"));
+                } else if (rec.containsKey("positions")) {
+                    Map<String, int[]> byTerm = new LinkedHashMap<>();
+                    ((Map<String, List<Number>>) rec.get("positions")).forEach((t, ps) ->
+                            byTerm.put(t, ps.stream().mapToInt(Number::intValue).toArray()));
+                    mem.updatePositions(Map.of(docId, byTerm));
+                } else {
+                    mem.updateIndex(docId, (Map<String, Integer>) rec.get("termFreqs"));
+                }
+            }
+        }
+    }
+}
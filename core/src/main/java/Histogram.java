@@ -0,0 +1,96 @@
+package core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the HdrHistogram style: log-linear buckets, 32 per power of two, so
+ * any recorded value is reported within about 3% at a fixed 15 KB whatever the range (1 ns to
+ * centuries). Recording is one array increment, lock-free and safe from any thread; readers
+ * see a slightly moving but never torn picture.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records one value, e.g. elapsed nanoseconds; negative values count as 0. */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // lost a race with a larger or equal value; look again
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * The value at percentile p (0-100): the upper end of the bucket holding it, capped at the
+     * largest value seen, so it is never below the true percentile. 0 when nothing was recorded.
+     */
+    public long percentile(double p) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upper(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** count, mean, p50, p90, p99 and max, in milliseconds when values are nanoseconds. */
+    public Map<String, Object> summary() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("count", count());
+        s.put("mean", millis(mean()));
+        s.put("p50", millis(percentile(50)));
+        s.put("p90", millis(percentile(90)));
+        s.put("p99", millis(percentile(99)));
+        s.put("max", millis(max()));
+        return s;
+    }
+
+    /** Nanoseconds as milliseconds rounded to the microsecond. */
+    public static double millis(double nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        // top SUB_BITS + 1 bits of v, the leading one dropped
+        return SUB + shift * SUB + (int) ((v >>> shift) - SUB);
+    }
+
+    static long upper(int bucket) {
+        if (bucket < SUB) return bucket;
+        int shift = (bucket - SUB) / SUB;
+        long top = SUB + (bucket - SUB) % SUB;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,245 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe in-process IndexStore; postings are kept sorted by docId like the FRE_TermIndex range key.
+ * Each tenant gets a store of its own, created on first use.
+ */
+public class InMemoryIndexStore implements IndexStore {
+    // the store that owns the tenant map; tenant stores point back at it
+    private final InMemoryIndexStore root;
+    private final Map<String, InMemoryIndexStore> tenants;
+    private final AtomicLong docSeq = new AtomicLong();
+    private final Map<Long, String> docs = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Integer>> postings = new ConcurrentHashMap<>();
+    private final Map<Long, Long> docLens = new ConcurrentHashMap<>();
+    private final Map<String, Map<Long, int[]>> positions = new ConcurrentHashMap<>();
+    // forward index (docId -> termFreqs) so updates and deletes can find a document's postings
+    private final Map<Long, Map<String, Integer>> forward = new ConcurrentHashMap<>();
+    // clientId NUL path -> entry; sorted for prefix listing
+    private final ConcurrentSkipListMap<String, PathEntry> paths = new ConcurrentSkipListMap<>();
+    private final LongAdder corpusDocs = new LongAdder();
+    private final LongAdder corpusTokens = new LongAdder();
+    private final AtomicLong generation = new AtomicLong();
+    // rebuilt from the postings keys when a search needs it and the index has changed since
+    private volatile Dictionary dictionary = new Dictionary(TermDictionary.EMPTY, 0);
+    // streamed searches' ranking pages, in this process only
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private record Dictionary(TermDictionary terms, long generation) {}
+
+    private record Snapshot(List<byte[]> pages, long expiresAt) {}
+
+    public InMemoryIndexStore() {
+        this.root = this;
+        this.tenants = new ConcurrentHashMap<>();
+    }
+
+    private InMemoryIndexStore(InMemoryIndexStore root) {
+        this.root = root;
+        this.tenants = null;
+    }
+
+    @Override
+    public InMemoryIndexStore forTenant(String clientId) {
+        return clientId == null ? root : root.tenants.computeIfAbsent(clientId, c -> new InMemoryIndexStore(root));
+    }
+
+    @Override
+    public long putDocument(String clientId, String relativePath) {
+        long docId = docSeq.incrementAndGet();
+        docs.put(docId, relativePath);
+        return docId;
+    }
+
+    @Override
+    public String getDocument(long docId) {
+        return docs.get(docId);
+    }
+
+    @Override
+    public WriteStats updateIndex(long docId, Map<String, Integer> termFreqs) {
+        long len = 0;
+        for (int f : termFreqs.values()) len += f;
+        docLens.put(docId, len);
+        forward.put(docId, Map.copyOf(termFreqs));
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), t -> new ConcurrentSkipListMap<>()).put(docId, e.getValue());
+        }
+        corpusDocs.increment();
+        corpusTokens.add(len);
+        return new WriteStats(termFreqs.size(), termFreqs.isEmpty() ? 0 : 1, 0, generation.incrementAndGet());
+    }
+
+    @Override
+    public List<long[]> lookupIndex(String term) {
+        ConcurrentSkipListMap<Long, Integer> p = postings.get(term);
+        if (p == null) return List.of();
+        List<long[]> out = new ArrayList<>(p.size());
+        for (Map.Entry<Long, Integer> e : p.entrySet()) {
+            out.add(new long[]{e.getKey(), e.getValue(), docLens.getOrDefault(e.getKey(), 0L)});
+        }
+        return out;
+    }
+
+    @Override
+    public WriteStats updatePositions(Map<Long, Map<String, int[]>> docs) {
+        int items = 0;
+        for (Map.Entry<Long, Map<String, int[]>> d : docs.entrySet()) {
+            for (Map.Entry<String, int[]> e : d.getValue().entrySet()) {
+                positions.computeIfAbsent(e.getKey(), t -> new ConcurrentHashMap<>()).put(d.getKey(), e.getValue());
+                items++;
+            }
+        }
+        return new WriteStats(items, items == 0 ? 0 : 1, 0);
+    }
+
+    @Override
+    public Map<Long, int[]> lookupPositions(String term, Collection<Long> docIds) {
+        Map<Long, int[]> byDoc = positions.get(term);
+        if (byDoc == null) return Map.of();
+        Map<Long, int[]> out = new HashMap<>();
+        for (long id : docIds) {
+            int[] p = byDoc.get(id);
+            if (p != null) out.put(id, p);
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, PathEntry> findPaths(String clientId, Collection<String> docPaths) {
+        Map<String, PathEntry> out = new HashMap<>();
+        for (String path : docPaths) {
+            PathEntry e = paths.get(pathKey(clientId, path));
+            if (e != null) out.put(path, e);
+        }
+        return out;
+    }
+
+    @Override
+    public List<PathEntry> listPaths(String clientId, String prefix, String after, int limit) {
+        String start = pathKey(clientId, prefix);
+        Map<String, PathEntry> tail = after == null || after.compareTo(prefix) < 0
+                ? paths.tailMap(start, true)
+                : paths.tailMap(pathKey(clientId, after), false);
+        List<PathEntry> out = new ArrayList<>();
+        for (Map.Entry<String, PathEntry> e : tail.entrySet()) {
+            if (out.size() >= limit || !e.getKey().startsWith(start)) break;
+            out.add(e.getValue());
+        }
+        return out;
+    }
+
+    @Override
+    public void putPaths(String clientId, List<PathEntry> entries) {
+        for (PathEntry e : entries) paths.put(pathKey(clientId, e.path()), e);
+    }
+
+    @Override
+    public Map<String, PathEntry> claimPaths(String clientId, List<PathEntry> pending) {
+        Map<String, PathEntry> lost = new HashMap<>();
+        for (PathEntry e : pending) {
+            PathEntry there = paths.putIfAbsent(pathKey(clientId, e.path()), e);
+            if (there != null) lost.put(e.path(), there);
+        }
+        return lost;
+    }
+
+    @Override
+    public WriteStats updateDocument(long docId, Map<String, Integer> termFreqs) {
+        Map<String, Integer> old = forward.get(docId);
+        if (old == null) return updateIndex(docId, termFreqs);
+        TermFreqDiff diff = TermFreqDiff.of(old, termFreqs);
+        removePostings(docId, diff.removed());
+        docLens.put(docId, diff.newLen());
+        forward.put(docId, Map.copyOf(termFreqs));
+        for (Map.Entry<String, Integer> e : diff.upserts().entrySet()) {
+            postings.computeIfAbsent(e.getKey(), t -> new ConcurrentSkipListMap<>()).put(docId, e.getValue());
+        }
+        corpusTokens.add(diff.newLen() - diff.oldLen());
+        int items = diff.upserts().size() + diff.removed().size();
+        return new WriteStats(items, items == 0 ? 0 : 1, 0, generation.incrementAndGet());
+    }
+
+    /** Every write here is whole, so a doc is either fully indexed (it has a forward entry) or not at all. */
+    @Override
+    public WriteStats resumeDocument(long docId, Map<String, Integer> termFreqs) {
+        return updateDocument(docId, termFreqs);
+    }
+
+    @Override
+    public WriteStats deleteDocument(String clientId, PathEntry entry) {
+        long docId = entry.docId();
+        Map<String, Integer> old = forward.remove(docId);
+        paths.remove(pathKey(clientId, entry.path()));
+        docs.remove(docId);
+        docLens.remove(docId);
+        if (old == null) return new WriteStats(1, 1, 0, generation.get());
+        removePostings(docId, old.keySet());
+        corpusDocs.decrement();
+        corpusTokens.add(-TermFreqDiff.length(old));
+        return new WriteStats(old.size() + 1, 1, 0, generation.incrementAndGet());
+    }
+
+    private void removePostings(long docId, Collection<String> terms) {
+        for (String t : terms) {
+            ConcurrentSkipListMap<Long, Integer> p = postings.get(t);
+            if (p != null) p.remove(docId);
+            Map<Long, int[]> pos = positions.get(t);
+            if (pos != null) pos.remove(docId);
+        }
+    }
+
+    private static String pathKey(String clientId, String path) {
+        return (clientId == null ? "" : clientId) + '\0' + path;
+    }
+
+    @Override
+    public CorpusStats corpusStats() {
+        return new CorpusStats(corpusDocs.sum(), corpusTokens.sum(), generation.get());
+    }
+
+    @Override
+    public void putSnapshot(String id, List<byte[]> pages, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        snapshots.values().removeIf(s -> s.expiresAt() <= now);
+        snapshots.put(id, new Snapshot(List.copyOf(pages), now + ttlMillis));
+    }
+
+    @Override
+    public byte[] snapshotPage(String id, int page) {
+        Snapshot s = snapshots.get(id);
+        if (s == null || s.expiresAt() <= System.currentTimeMillis() || page < 1 || page > s.pages().size()) return null;
+        return s.pages().get(page - 1);
+    }
+
+    /** Terms that still have postings. */
+    @Override
+    public TermDictionary termDictionary() {
+        Dictionary d = dictionary;
+        long g = generation.get();
+        if (d.generation() == g) return d.terms();
+        List<String> terms = new ArrayList<>(postings.size());
+        postings.forEach((t, p) -> {
+            if (!p.isEmpty()) terms.add(t);
+        });
+        d = new Dictionary(TermDictionary.of(terms), g);
+        dictionary = d;
+        return d.terms();
+    }
+
+    /** Re-creates a document under a known docId (used when replaying a journal). */
+    void restoreDocument(long docId, String relativePath) {
+        docs.put(docId, relativePath);
+        docSeq.accumulateAndGet(docId, Math::max);
+    }
+}
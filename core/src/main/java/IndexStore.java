@@ -1,13 +1,153 @@
 package core;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-/** Contract for the cloud IndexStore (DynamoDB impl will come next). */
+/** Contract for the index backends (DynamoDB, in-memory, local file). */
 public interface IndexStore {
     long putDocument(String clientId, String relativePath);
     String getDocument(long docId);
-    void updateIndex(long docId, Map<String, Integer> termFreqs);
-    /** Returns list of [docId, freq] pairs for a term. */
+    /** Writes postings for docId and adds the document to the corpus statistics. */
+    WriteStats updateIndex(long docId, Map<String, Integer> termFreqs);
+    /** Returns list of [docId, freq, docLen] triples for a term, sorted by docId. */
     List<long[]> lookupIndex(String term);
+    /** May be slightly stale; backends cache it for scoring. */
+    CorpusStats corpusStats();
+
+    /** Current index generation, read fresh; the cheap validation path for client caches. */
+    default long generation() {
+        return corpusStats().generation();
+    }
+
+    /** Registers several documents; backends override to allocate all docIds at once. */
+    default long[] putDocuments(String clientId, List<String> relativePaths) {
+        long[] ids = new long[relativePaths.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = putDocument(clientId, relativePaths.get(i));
+        return ids;
+    }
+
+    /** Indexes several documents (docId -> termFreqs); backends override to merge postings per term. */
+    default WriteStats updateIndexBatch(Map<Long, Map<String, Integer>> docs) {
+        WriteStats total = WriteStats.NONE;
+        for (Map.Entry<Long, Map<String, Integer>> e : docs.entrySet()) {
+            total = total.plus(updateIndex(e.getKey(), e.getValue()));
+        }
+        return total;
+    }
+
+    /**
+     * Stores token positions (docId -> term -> ascending offsets) for phrase queries.
+     * Optional: a backend that keeps none just cannot match phrases.
+     */
+    default WriteStats updatePositions(Map<Long, Map<String, int[]>> docs) {
+        return WriteStats.NONE;
+    }
+
+    /** Positions of term in those of docIds that have them recorded. */
+    default Map<Long, int[]> lookupPositions(String term, Collection<Long> docIds) {
+        return Map.of();
+    }
+
+    /** Current entries for those of paths that are indexed; empty when the backend keeps no path index. */
+    default Map<String, PathEntry> findPaths(String clientId, Collection<String> paths) {
+        return Map.of();
+    }
+
+    /** Up to limit entries whose path starts with prefix, in path order, strictly after 'after' (null = from the start). */
+    default List<PathEntry> listPaths(String clientId, String prefix, String after, int limit) {
+        return List.of();
+    }
+
+    /** Records path -> docId / content hash; written after the document's postings. */
+    default void putPaths(String clientId, List<PathEntry> entries) {}
+
+    /**
+     * Writes the pending entries of new documents, each only if its path has no entry yet, so
+     * two requests indexing the same new path at once agree on one docId. Returns the entries
+     * already there for the paths that lost, whose callers resume that docId instead of theirs.
+     */
+    default Map<String, PathEntry> claimPaths(String clientId, List<PathEntry> pending) {
+        putPaths(clientId, pending);
+        return Map.of();
+    }
+
+    /** Replaces an indexed document's term freqs, writing only the postings that change ({@link TermFreqDiff}). */
+    WriteStats updateDocument(long docId, Map<String, Integer> termFreqs);
+
+    /**
+     * Finishes indexing a new document whose path entry is still pending: an earlier attempt
+     * took docId and may have written some of its postings before it failed. Writes the rest
+     * without duplicating those already there, and counts the document in the corpus once.
+     */
+    WriteStats resumeDocument(long docId, Map<String, Integer> termFreqs);
+
+    /** Removes a document's postings, positions, document row and path entry. */
+    WriteStats deleteDocument(String clientId, PathEntry entry);
+
+    /**
+     * The part of the index owned by clientId: its own postings, docIds and corpus statistics,
+     * so a tenant's searches never scan another tenant's postings. null is the shared index that
+     * predates tenancy. Backends that do not isolate tenants return themselves.
+     */
+    default IndexStore forTenant(String clientId) {
+        return this;
+    }
+
+    /**
+     * True when the shared index is not usable next to the tenants' own, so every request must
+     * name its tenant. Backends that fall back to the shared index for a null clientId say false.
+     */
+    default boolean requiresTenant() {
+        return false;
+    }
+
+    /**
+     * Every indexed term, for expanding prefix, wildcard and fuzzy queries. May be slightly
+     * stale, and may still hold terms whose last document was deleted (they expand to nothing).
+     * Empty when the backend keeps no dictionary.
+     */
+    default TermDictionary termDictionary() {
+        return TermDictionary.EMPTY;
+    }
+
+    /**
+     * Keeps the pages of a streamed search's ranking (opaque to the store) under id for about
+     * ttlMillis, so later chunks read a page instead of ranking again. Page k is pages.get(k - 1):
+     * the first page is returned right away and never stored. A backend with nowhere to keep
+     * them drops them, and {@link #snapshotPage} then finds nothing.
+     */
+    default void putSnapshot(String id, List<byte[]> pages, long ttlMillis) {}
+
+    /** Page k (from 1) of a kept snapshot; null when it expired, never existed or was kept elsewhere. */
+    default byte[] snapshotPage(String id, int page) {
+        return null;
+    }
+
+    /** Repacks a term's postings into compact blocks where the backend supports it. */
+    default WriteStats compact(String term) {
+        return WriteStats.NONE;
+    }
+
+    /**
+     * Forgets per-process state (read caches, leased id ranges) so it is re-fetched on next use;
+     * called when a JVM resumes from a snapshot that other containers may share.
+     */
+    default void dropCaches() {}
+
+    /** Hit/miss counters of any read cache in front of the backend; empty when there is none. */
+    default Map<String, Object> cacheStats() {
+        return Map.of();
+    }
+
+    /** Resolves many docIds at once; missing docs are left out. Backends override to batch. */
+    default Map<Long, String> getDocuments(Collection<Long> docIds) {
+        Map<Long, String> out = new HashMap<>();
+        for (long id : docIds) {
+            String path = getDocument(id);
+            if (path != null) out.put(id, path);
+        }
+        return out;
+    }
 }
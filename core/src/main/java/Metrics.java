@@ -0,0 +1,56 @@
+package core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Named latency {@link Histogram}s and running totals (e.g. consumed capacity) for one
+ * process. Names are free-form, by convention "<operation>" or "<operation>.<phase>".
+ */
+public final class Metrics {
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, DoubleAdder> totals = new ConcurrentHashMap<>();
+
+    public Histogram histogram(String name) {
+        return latencies.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Records elapsed nanoseconds under name. */
+    public void record(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    /** Records the time since {@code startNanos} (a System.nanoTime) and returns now. */
+    public long recordSince(String name, long startNanos) {
+        long now = System.nanoTime();
+        histogram(name).record(now - startNanos);
+        return now;
+    }
+
+    public void add(String name, double amount) {
+        totals.computeIfAbsent(name, k -> new DoubleAdder()).add(amount);
+    }
+
+    /** Latency summaries in ms (see {@link Histogram#summary()}) by name. */
+    public Map<String, Object> latencies() {
+        Map<String, Object> out = new TreeMap<>();
+        latencies.forEach((name, h) -> out.put(name, h.summary()));
+        return out;
+    }
+
+    public Map<String, Object> totals() {
+        Map<String, Object> out = new TreeMap<>();
+        totals.forEach((name, t) -> out.put(name, t.sum()));
+        return out;
+    }
+
+    /** {"latency": {...}, "totals": {...}}, the totals only when there are some. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> out = new TreeMap<>();
+        out.put("latency", latencies());
+        if (!totals.isEmpty()) out.put("totals", totals());
+        return out;
+    }
+}
@@ -0,0 +1,13 @@
+package core;
+
+/**
+ * What is indexed for a client's path: its docId and the content hash sent with it (may be null).
+ * A pending entry is written as soon as a new document has its docId, before any of its
+ * postings; the final entry replaces it once they are in. A retry that finds it pending
+ * finishes the document under the same docId ({@link IndexStore#resumeDocument}).
+ */
+public record PathEntry(String path, long docId, String hash, boolean pending) {
+    public PathEntry(String path, long docId, String hash) {
+        this(path, docId, hash, false);
+    }
+}
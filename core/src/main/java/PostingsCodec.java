@@ -0,0 +1,78 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary posting blocks: varint count, then per posting varint(docId - previous docId),
+ * varint(freq), varint(docLen). Postings must be sorted by docId.
+ */
+public final class PostingsCodec {
+    /** postings per block; keeps a block well under DynamoDB's 400 KB item limit */
+    public static final int BLOCK_SIZE = 256;
+
+    private PostingsCodec() {}
+
+    /** Encodes [docId, freq, docLen] postings (sorted by docId) into one block. */
+    public static byte[] encode(List<long[]> postings) {
+        byte[] buf = new byte[10 + postings.size() * 30];
+        int pos = Varint.write(buf, 0, postings.size());
+        long prev = 0;
+        for (long[] p : postings) {
+            if (p[0] < prev) throw new IllegalArgumentException("postings not sorted by docId at " + p[0]);
+            pos = Varint.write(buf, pos, p[0] - prev);
+            pos = Varint.write(buf, pos, p[1]);
+            pos = Varint.write(buf, pos, p.length > 2 ? p[2] : 0);
+            prev = p[0];
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public static List<long[]> decode(byte[] block) {
+        List<long[]> out = new ArrayList<>();
+        decodeInto(block, out);
+        return out;
+    }
+
+    public static void decodeInto(byte[] block, List<long[]> out) {
+        int[] pos = {0};
+        long n = Varint.read(block, pos);
+        long docId = 0;
+        for (long i = 0; i < n; i++) {
+            docId += Varint.read(block, pos);
+            long freq = Varint.read(block, pos);
+            long len = Varint.read(block, pos);
+            out.add(new long[]{docId, freq, len});
+        }
+    }
+
+    /** Encodes ascending token positions as varint count + varint gaps. */
+    public static byte[] encodePositions(int[] positions) {
+        byte[] buf = new byte[5 + positions.length * 5];
+        int pos = Varint.write(buf, 0, positions.length);
+        int prev = 0;
+        for (int p : positions) {
+            pos = Varint.write(buf, pos, p - prev);
+            prev = p;
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public static int[] decodePositions(byte[] data) {
+        int[] pos = {0};
+        int[] out = new int[(int) Varint.read(data, pos)];
+        int p = 0;
+        for (int i = 0; i < out.length; i++) out[i] = p += (int) Varint.read(data, pos);
+        return out;
+    }
+
+    /** Splits sorted postings into BLOCK_SIZE runs, each ready to encode. */
+    public static List<List<long[]>> split(List<long[]> sorted) {
+        List<List<long[]>> blocks = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i += BLOCK_SIZE) {
+            blocks.add(sorted.subList(i, Math.min(i + BLOCK_SIZE, sorted.size())));
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,140 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Parsed boolean query. Built by {@link QueryParser}; evaluated by {@link QueryEvaluator}.
+ * Terms are already normalized the way the indexer normalizes them.
+ */
+public sealed interface Query {
+
+    record Term(String term) implements Query {}
+
+    /**
+     * Terms that must occur at the given positions relative to the first one: consecutive for
+     * a parsed phrase, with gaps where stopwords were dropped.
+     */
+    record Phrase(List<String> terms, List<Integer> offsets) implements Query {
+        public Phrase {
+            if (terms.size() != offsets.size()) throw new IllegalArgumentException("one offset per phrase term");
+        }
+
+        public Phrase(List<String> terms) {
+            this(terms, IntStream.range(0, terms.size()).boxed().toList());
+        }
+    }
+
+    record And(List<Query> clauses) implements Query {}
+
+    record Or(List<Query> clauses) implements Query {}
+
+    /** Only valid as a clause of an {@link And} that has at least one positive clause. */
+    record Not(Query clause) implements Query {}
+
+    /**
+     * A term pattern. It matches whole terms rather than documents, so it has to be replaced
+     * by the terms it matches ({@link #expand}, from a {@link TermDictionary}) before evaluation.
+     */
+    sealed interface Pattern extends Query {
+        /** The pattern as it is written in a query. */
+        String text();
+    }
+
+    /** "child*" */
+    record Prefix(String prefix) implements Pattern {
+        public String text() {
+            return prefix + "*";
+        }
+    }
+
+    /** "ch?ld*": '*' is any run of characters, '?' any one */
+    record Wildcard(String pattern) implements Pattern {
+        public String text() {
+            return pattern;
+        }
+    }
+
+    /** "child~1": terms within maxEdits insertions, deletions or substitutions */
+    record Fuzzy(String term, int maxEdits) implements Pattern {
+        public Fuzzy {
+            if (maxEdits < 1 || maxEdits > 2) throw new IllegalArgumentException("fuzzy distance must be 1 or 2");
+        }
+
+        public String text() {
+            return term + "~" + maxEdits;
+        }
+    }
+
+    static Query parse(String text) {
+        return QueryParser.parse(text);
+    }
+
+    default boolean hasPatterns() {
+        return switch (this) {
+            case Pattern p -> true;
+            case Term t -> false;
+            case Phrase p -> false;
+            case And a -> a.clauses().stream().anyMatch(Query::hasPatterns);
+            case Or o -> o.clauses().stream().anyMatch(Query::hasPatterns);
+            case Not n -> n.clause().hasPatterns();
+        };
+    }
+
+    /**
+     * This query with every pattern replaced by the terms it maps to: a term, an OR of terms,
+     * or an empty OR, which matches nothing.
+     */
+    default Query expand(Function<Pattern, List<String>> terms) {
+        return switch (this) {
+            case Pattern p -> {
+                List<String> ts = terms.apply(p);
+                yield ts.size() == 1 ? new Term(ts.get(0)) : new Or(ts.stream().<Query>map(Term::new).toList());
+            }
+            case Term t -> t;
+            case Phrase p -> p;
+            case And a -> new And(expandAll(a.clauses(), terms));
+            case Or o -> new Or(expandAll(o.clauses(), terms));
+            case Not n -> new Not(n.clause().expand(terms));
+        };
+    }
+
+    private static List<Query> expandAll(List<Query> clauses, Function<Pattern, List<String>> terms) {
+        List<Query> out = new ArrayList<>(clauses.size());
+        for (Query c : clauses) out.add(c.expand(terms));
+        return List.copyOf(out);
+    }
+
+    /** Every term the query mentions, negated ones included: what has to be fetched. */
+    default Map<String, Integer> allTerms() {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        collect(this, out, true);
+        return out;
+    }
+
+    /** Terms that contribute to the score, with how often each occurs outside a NOT. */
+    default Map<String, Integer> scoringTerms() {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        collect(this, out, false);
+        return out;
+    }
+
+    private static void collect(Query q, Map<String, Integer> out, boolean negated) {
+        switch (q) {
+            case Term t -> out.merge(t.term(), 1, Integer::sum);
+            case Phrase p -> p.terms().forEach(t -> out.merge(t, 1, Integer::sum));
+            case And a -> a.clauses().forEach(c -> collect(c, out, negated));
+            case Or o -> o.clauses().forEach(c -> collect(c, out, negated));
+            case Not n -> {
+                if (negated) collect(n.clause(), out, true);
+            }
+            case Pattern p -> {
+                // no terms until expanded
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Evaluates a {@link Query} over postings that were fetched up front. AND intersects the
+ * smallest clauses first with galloping search; NOT is subtracted from its AND's positive
+ * result. Phrases intersect their terms, then check positions only for the surviving docs,
+ * so positions are fetched for candidates rather than for whole postings lists. Docs indexed
+ * without positions never match a phrase.
+ */
+public final class QueryEvaluator {
+    private final Function<String, List<long[]>> postings;
+    private final BiFunction<String, List<Long>, Map<Long, int[]>> positions;
+    private final Map<String, long[]> docIds = new HashMap<>();
+
+    /**
+     * @param postings  term -> [docId, freq, docLen] sorted by docId
+     * @param positions (term, candidate docIds) -> docId -> ascending positions
+     */
+    public QueryEvaluator(Function<String, List<long[]>> postings,
+                          BiFunction<String, List<Long>, Map<Long, int[]>> positions) {
+        this.postings = postings;
+        this.positions = positions;
+    }
+
+    /** Matching docIds, ascending. */
+    public long[] evaluate(Query q) {
+        return switch (q) {
+            case Query.Term t -> docs(t.term());
+            case Query.Phrase p -> phrase(p.terms(), p.offsets());
+            case Query.And a -> and(a.clauses());
+            case Query.Or o -> {
+                long[] out = new long[0];
+                for (Query c : o.clauses()) {
+                    if (c instanceof Query.Not) throw new IllegalArgumentException("NOT cannot be an OR clause");
+                    out = DocIdSets.union(out, evaluate(c));
+                }
+                yield out;
+            }
+            case Query.Not n -> throw new IllegalArgumentException("NOT needs a positive clause to subtract from");
+            case Query.Pattern p -> throw new IllegalStateException(p.text() + " has to be expanded before evaluation");
+        };
+    }
+
+    /**
+     * Scores the matched docs by the query's positive terms (weighted by repeats), like the
+     * flat terms search would; df is each term's full postings count.
+     */
+    public Map<Long, Double> score(Query q, long[] matched, Scoring scoring, CorpusStats stats) {
+        Map<Long, Double> scores = new HashMap<>(matched.length * 4 / 3 + 1);
+        for (long id : matched) scores.put(id, 0.0);
+        for (Map.Entry<String, Integer> e : q.scoringTerms().entrySet()) {
+            List<long[]> list = postings.apply(e.getKey());
+            long df = list.size();
+            // walk the postings in step with the matched set
+            int j = 0;
+            for (long[] p : list) {
+                j = DocIdSets.advance(matched, j, p[0]);
+                if (j == matched.length) break;
+                if (matched[j] == p[0]) scores.merge(p[0], scoring.score(p[1], p[2], df, stats) * e.getValue(), Double::sum);
+            }
+        }
+        return scores;
+    }
+
+    private long[] docs(String term) {
+        return docIds.computeIfAbsent(term, t -> DocIdSets.of(postings.apply(t)));
+    }
+
+    private long[] and(List<Query> clauses) {
+        List<long[]> include = new ArrayList<>();
+        long[] exclude = new long[0];
+        for (Query c : clauses) {
+            if (c instanceof Query.Not n) exclude = DocIdSets.union(exclude, evaluate(n.clause()));
+            else include.add(evaluate(c));
+        }
+        if (include.isEmpty()) throw new IllegalArgumentException("NOT needs a positive clause to subtract from");
+        include.sort(Comparator.comparingInt(a -> a.length));
+        long[] out = include.get(0);
+        for (int k = 1; k < include.size() && out.length > 0; k++) out = DocIdSets.intersect(out, include.get(k));
+        return exclude.length == 0 ? out : DocIdSets.minus(out, exclude);
+    }
+
+    private long[] phrase(List<String> terms, List<Integer> offsets) {
+        long[] candidates = and(terms.stream().<Query>map(Query.Term::new).toList());
+        if (candidates.length == 0) return candidates;
+
+        List<Long> ids = new ArrayList<>(candidates.length);
+        for (long id : candidates) ids.add(id);
+        List<Map<Long, int[]>> byTerm = new ArrayList<>(terms.size());
+        for (String t : terms) byTerm.add(positions.apply(t, ids));
+
+        long[] out = new long[candidates.length];
+        int n = 0;
+        for (long id : candidates) {
+            if (matchesAt(byTerm, offsets, id)) out[n++] = id;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** true when some start p has term k at p + offsets[k] for every k */
+    private static boolean matchesAt(List<Map<Long, int[]>> byTerm, List<Integer> offsets, long docId) {
+        int[][] pos = new int[byTerm.size()][];
+        for (int k = 0; k < pos.length; k++) {
+            pos[k] = byTerm.get(k).get(docId);
+            if (pos[k] == null) return false;
+        }
+        for (int start : pos[0]) {
+            boolean all = true;
+            for (int k = 1; k < pos.length && all; k++) all = Arrays.binarySearch(pos[k], start + offsets.get(k)) >= 0;
+            if (all) return true;
+        }
+        return false;
+    }
+}
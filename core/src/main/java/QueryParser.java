@@ -0,0 +1,206 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent parser for the search language:
+ * <pre>
+ *   or      := and ("OR" and)*
+ *   and     := unary (["AND"] unary)*      adjacent clauses are ANDed
+ *   unary   := "NOT" unary | primary
+ *   primary := "(" or ")" | '"' words '"' | pattern | word
+ *   pattern := word with "*" / "?" in it | word "~" [0-2]
+ * </pre>
+ * Operators must be upper case; a lower-case "and" is an ordinary term. Words and phrases go
+ * through {@link TextTokenizer} (ASCII), so a word like "e-mail" becomes the phrase "e mail".
+ * A pattern ("child*", "ch?ld", "child~1"; a bare "~" means 2 edits) must be a single word of
+ * letters and digits besides its wildcards; inside a phrase "*", "?" and "~" are just separators.
+ * A NOT has to sit in an AND beside at least one positive clause ("cat NOT dog"); anything else
+ * ("NOT dog", "cat OR NOT dog") is rejected here rather than after the postings are fetched.
+ */
+final class QueryParser {
+    /** deepest nesting of parentheses and NOTs, so a hostile query cannot overflow the stack */
+    static final int MAX_DEPTH = 64;
+
+    private final String s;
+    private int i;
+    private int depth;
+
+    private QueryParser(String s) {
+        this.s = s;
+    }
+
+    static Query parse(String text) {
+        if (text == null || text.isBlank()) throw new IllegalArgumentException("empty query");
+        QueryParser p = new QueryParser(text);
+        Query q = p.or();
+        p.skipSpace();
+        if (p.i < p.s.length()) throw p.error("unexpected '" + p.s.charAt(p.i) + "'");
+        if (q == null) throw new IllegalArgumentException("query has no searchable terms: " + text);
+        checkNots(q, text);
+        return q;
+    }
+
+    /** Every NOT is a clause of an AND that also has a positive clause, and negates no NOT. */
+    private static void checkNots(Query q, String text) {
+        switch (q) {
+            case Query.And a -> {
+                if (a.clauses().stream().allMatch(c -> c instanceof Query.Not)) throw misplacedNot(text);
+                for (Query c : a.clauses()) checkNots(c instanceof Query.Not n ? n.clause() : c, text);
+            }
+            case Query.Or o -> o.clauses().forEach(c -> checkNots(c, text));
+            case Query.Not n -> throw misplacedNot(text);
+            default -> {
+                // terms, phrases and patterns hold no NOT
+            }
+        }
+    }
+
+    private static IllegalArgumentException misplacedNot(String text) {
+        return new IllegalArgumentException("NOT needs a positive clause to subtract from in query: " + text);
+    }
+
+    private Query or() {
+        List<Query> clauses = new ArrayList<>();
+        add(clauses, and());
+        while (keyword("OR")) add(clauses, and());
+        return combine(clauses, false);
+    }
+
+    private Query and() {
+        List<Query> clauses = new ArrayList<>();
+        add(clauses, unary());
+        while (true) {
+            if (keyword("AND")) {
+                add(clauses, unary());
+                continue;
+            }
+            skipSpace();
+            if (i >= s.length() || s.charAt(i) == ')' || peekKeyword("OR")) break;
+            add(clauses, unary());
+        }
+        return combine(clauses, true);
+    }
+
+    private Query unary() {
+        if (keyword("NOT")) {
+            enter();
+            Query q = unary();
+            depth--;
+            return q == null ? null : new Query.Not(q);
+        }
+        return primary();
+    }
+
+    private Query primary() {
+        skipSpace();
+        if (i >= s.length()) throw error("expected a term");
+        char c = s.charAt(i);
+        if (c == '(') {
+            i++;
+            enter();
+            Query q = or();
+            skipSpace();
+            if (i >= s.length() || s.charAt(i) != ')') throw error("missing ')'");
+            i++;
+            depth--;
+            return q;
+        }
+        if (c == '"') {
+            int end = s.indexOf('"', i + 1);
+            if (end < 0) throw error("unterminated phrase");
+            String phrase = s.substring(i + 1, end);
+            i = end + 1;
+            return words(phrase);
+        }
+        int start = i;
+        while (i < s.length() && !Character.isWhitespace(s.charAt(i)) && "()\"".indexOf(s.charAt(i)) < 0) i++;
+        if (i == start) throw error("unexpected '" + c + "'");
+        String word = s.substring(start, i);
+        Query p = pattern(word);
+        return p != null ? p : words(word);
+    }
+
+    /** null when word has no wildcard or "~", or nothing but wildcards */
+    private Query pattern(String word) {
+        int tilde = word.indexOf('~');
+        boolean wild = word.indexOf('*') >= 0 || word.indexOf('?') >= 0;
+        if (tilde >= 0) {
+            String edits = word.substring(tilde + 1);
+            if (wild || !edits.matches("[0-9]?")) throw error("bad fuzzy term '" + word + "'");
+            int maxEdits = edits.isEmpty() ? 2 : Integer.parseInt(edits);
+            if (maxEdits > 2) throw error("fuzzy distance must be 0, 1 or 2 in '" + word + "'");
+            Query base = words(word.substring(0, tilde));
+            if (base == null) return null;
+            if (!(base instanceof Query.Term t)) throw error("fuzzy term '" + word + "' must be a single word");
+            return maxEdits == 0 ? t : new Query.Fuzzy(t.term(), maxEdits);
+        }
+        if (!wild) return null;
+
+        StringBuilder p = new StringBuilder(word.length());
+        int literals = 0;
+        for (int k = 0; k < word.length(); k++) {
+            char ch = word.charAt(k);
+            if (ch == '*' || ch == '?') {
+                // "**" matches what "*" does
+                if (ch != '*' || p.isEmpty() || p.charAt(p.length() - 1) != '*') p.append(ch);
+            } else if (ch < 128 && Character.isLetterOrDigit(ch)) {
+                p.append(Character.toLowerCase(ch));
+                literals++;
+            } else {
+                throw error("wildcard term '" + word + "' must be a single word");
+            }
+        }
+        // a lone "?" or "*" is punctuation, as it always was
+        if (literals == 0) return null;
+        int star = p.indexOf("*");
+        boolean prefix = star == p.length() - 1 && p.indexOf("?") < 0;
+        return prefix ? new Query.Prefix(p.substring(0, star)) : new Query.Wildcard(p.toString());
+    }
+
+    /** null when the text holds no indexable token (e.g. punctuation only) */
+    private static Query words(String text) {
+        List<String> tokens = TextTokenizer.tokens(text, TextTokenizer.Normalization.ASCII);
+        return switch (tokens.size()) {
+            case 0 -> null;
+            case 1 -> new Query.Term(tokens.get(0));
+            default -> new Query.Phrase(List.copyOf(tokens));
+        };
+    }
+
+    private static void add(List<Query> clauses, Query q) {
+        if (q != null) clauses.add(q);
+    }
+
+    private static Query combine(List<Query> clauses, boolean and) {
+        if (clauses.isEmpty()) return null;
+        if (clauses.size() == 1) return clauses.get(0);
+        return and ? new Query.And(List.copyOf(clauses)) : new Query.Or(List.copyOf(clauses));
+    }
+
+    private boolean keyword(String kw) {
+        if (!peekKeyword(kw)) return false;
+        i += kw.length();
+        return true;
+    }
+
+    private boolean peekKeyword(String kw) {
+        skipSpace();
+        int end = i + kw.length();
+        return s.startsWith(kw, i)
+                && (end == s.length() || Character.isWhitespace(s.charAt(end)) || "()\"".indexOf(s.charAt(end)) >= 0);
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) throw error("query nests deeper than " + MAX_DEPTH + " levels");
+    }
+
+    private void skipSpace() {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at " + i + " in query: " + s);
+    }
+}
@@ -0,0 +1,49 @@
+package core;
+
+import java.util.Locale;
+
+/**
+ * Per-posting relevance functions. df is the term's document frequency (its postings count),
+ * docLen the document's token count; a docLen of 0 (postings written before lengths were kept)
+ * falls back to the corpus average.
+ */
+public enum Scoring {
+    /** raw term frequency, the original behaviour */
+    FREQ {
+        @Override
+        public double score(long tf, long docLen, long df, CorpusStats s) {
+            return tf;
+        }
+    },
+    /** log-scaled tf times smoothed idf */
+    TFIDF {
+        @Override
+        public double score(long tf, long docLen, long df, CorpusStats s) {
+            if (tf <= 0) return 0;
+            long n = Math.max(s.docs(), df);
+            return (1 + Math.log(tf)) * Math.log(1 + (double) n / Math.max(1, df));
+        }
+    },
+    /** Okapi BM25 with k1 = 1.2, b = 0.75 */
+    BM25 {
+        @Override
+        public double score(long tf, long docLen, long df, CorpusStats s) {
+            if (tf <= 0) return 0;
+            long n = Math.max(s.docs(), df);
+            double avg = s.avgDocLen() > 0 ? s.avgDocLen() : Math.max(1, docLen);
+            double dl = docLen > 0 ? docLen : avg;
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            return idf * (tf * (K1 + 1)) / (tf + K1 * (1 - B + B * dl / avg));
+        }
+    };
+
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    public abstract double score(long tf, long docLen, long df, CorpusStats s);
+
+    /** "bm25" | "tfidf" | "freq"; null means BM25. */
+    public static Scoring parse(String name) {
+        return name == null ? BM25 : valueOf(name.toUpperCase(Locale.ROOT).replace("-", ""));
+    }
+}
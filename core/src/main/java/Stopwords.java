@@ -0,0 +1,117 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Terms that are never indexed nor scored. They match almost every document, so their
+ * postings are the largest and hottest in the index while adding next to nothing to a score.
+ * Queries drop them too; inside a phrase they leave a gap, so "the white rabbit" still has to
+ * find "white rabbit" at consecutive positions one after any term.
+ */
+public final class Stopwords {
+    public static final Set<String> ENGLISH = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+            "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these",
+            "they", "this", "to", "was", "will", "with");
+
+    public static final Stopwords NONE = new Stopwords(Set.of());
+
+    private final Set<String> words;
+
+    public Stopwords(Set<String> words) {
+        this.words = Set.copyOf(words);
+    }
+
+    /**
+     * "none" or blank: nothing; "english": {@link #ENGLISH}; otherwise a comma-separated list,
+     * which may include "english". Words are normalized like indexed terms.
+     */
+    public static Stopwords parse(String spec) {
+        if (spec == null || spec.isBlank() || spec.trim().equalsIgnoreCase("none")) return NONE;
+        Set<String> out = new HashSet<>();
+        for (String w : spec.split(",")) {
+            w = w.trim();
+            if (w.equalsIgnoreCase("english")) out.addAll(ENGLISH);
+            else out.addAll(TextTokenizer.tokens(w, TextTokenizer.Normalization.ASCII));
+        }
+        return new Stopwords(out);
+    }
+
+    public boolean isEmpty() {
+        return words.isEmpty();
+    }
+
+    public boolean contains(String term) {
+        return words.contains(term);
+    }
+
+    public Set<String> words() {
+        return words;
+    }
+
+    /** termFreqs or positions without stopwords; the same map when there is nothing to drop. */
+    public <V> Map<String, V> strip(Map<String, V> byTerm) {
+        if (words.isEmpty() || byTerm == null) return byTerm;
+        Map<String, V> out = null;
+        for (String w : words) {
+            if (byTerm.containsKey(w)) {
+                if (out == null) out = new HashMap<>(byTerm);
+                out.remove(w);
+            }
+        }
+        return out == null ? byTerm : out;
+    }
+
+    public List<String> strip(List<String> terms) {
+        if (words.isEmpty()) return terms;
+        return terms.stream().filter(t -> !words.contains(t)).toList();
+    }
+
+    /** The query without stopwords; null when nothing searchable is left. */
+    public Query strip(Query q) {
+        if (words.isEmpty()) return q;
+        return switch (q) {
+            case Query.Term t -> words.contains(t.term()) ? null : t;
+            case Query.Phrase p -> {
+                List<String> terms = new ArrayList<>();
+                List<Integer> offsets = new ArrayList<>();
+                for (int k = 0; k < p.terms().size(); k++) {
+                    if (words.contains(p.terms().get(k))) continue;
+                    terms.add(p.terms().get(k));
+                    offsets.add(p.offsets().get(k));
+                }
+                if (terms.isEmpty()) yield null;
+                if (terms.size() == 1) yield new Query.Term(terms.get(0));
+                int base = offsets.get(0);
+                offsets.replaceAll(o -> o - base);
+                yield new Query.Phrase(List.copyOf(terms), List.copyOf(offsets));
+            }
+            case Query.And a -> combine(a.clauses(), true);
+            case Query.Or o -> combine(o.clauses(), false);
+            case Query.Not n -> {
+                Query c = strip(n.clause());
+                yield c == null ? null : new Query.Not(c);
+            }
+            // expands to indexed terms only, which stopwords never are
+            case Query.Pattern p -> p;
+        };
+    }
+
+    private Query combine(List<Query> clauses, boolean and) {
+        List<Query> kept = new ArrayList<>(clauses.size());
+        for (Query c : clauses) {
+            Query s = strip(c);
+            if (s != null) kept.add(s);
+        }
+        if (kept.isEmpty()) return null;
+        // a lone NOT has nothing left to subtract from
+        if (and && kept.stream().allMatch(c -> c instanceof Query.Not)) return null;
+        if (kept.size() == 1) return kept.get(0);
+        return and ? new Query.And(List.copyOf(kept)) : new Query.Or(List.copyOf(kept));
+    }
+}
@@ -0,0 +1,193 @@
+package core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Open-addressing term -> int counter. Terms live in one char arena, so counting a token
+ * that was seen before allocates nothing; Strings are only built by {@link #toMap()}/{@link #forEach}.
+ * Optionally records each term's token positions for phrase queries.
+ * Not thread-safe: use one per thread and {@link #addAll} to merge.
+ */
+public final class TermCounter {
+    private int[] slots;          // entry index + 1, 0 = empty
+    private int[] hashes = new int[64];
+    private int[] starts = new int[64];
+    private int[] lens = new int[64];
+    private int[] counts = new int[64];
+    private char[] arena = new char[1024];
+    private int arenaLen;
+    private int size;
+    private long tokens;
+    // per entry: token offsets and how many are used; null unless positions are recorded
+    private int[][] positions;
+    private int[] positionCounts;
+
+    public TermCounter() {
+        this(256);
+    }
+
+    public TermCounter(int expectedTerms) {
+        this(expectedTerms, false);
+    }
+
+    /** With recordPositions, every single-token {@link #add(char[], int, int, int)} also notes its offset. */
+    public TermCounter(int expectedTerms, boolean recordPositions) {
+        slots = new int[Integer.highestOneBit(Math.max(16, expectedTerms * 2 - 1)) << 1];
+        if (recordPositions) {
+            positions = new int[64][];
+            positionCounts = new int[64];
+        }
+    }
+
+    /** Counts buf[off, off+len) once; hash must be the String.hashCode of those chars. */
+    public void add(char[] buf, int off, int len, int hash) {
+        int position = (int) tokens;
+        int e = add(buf, off, len, hash, 1);
+        if (positions != null) addPosition(e, position);
+    }
+
+    /** Adds n to the term's count and returns its entry index; positions are not recorded. */
+    public int add(char[] buf, int off, int len, int hash, int n) {
+        tokens += n;
+        int mask = slots.length - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            int e = slots[i] - 1;
+            if (e < 0) {
+                e = insert(buf, off, len, hash, n);
+                slots[i] = e + 1;
+                if (size * 4 > slots.length * 3) rehash();
+                return e;
+            }
+            if (hashes[e] == hash && lens[e] == len
+                    && Arrays.equals(arena, starts[e], starts[e] + len, buf, off, off + len)) {
+                counts[e] += n;
+                return e;
+            }
+        }
+    }
+
+    public void add(String term, int n) {
+        add(term.toCharArray(), 0, term.length(), term.hashCode(), n);
+    }
+
+    /** Merges another counter into this one. */
+    public void addAll(TermCounter other) {
+        for (int e = 0; e < other.size; e++) {
+            add(other.arena, other.starts[e], other.lens[e], other.hashes[e], other.counts[e]);
+        }
+    }
+
+    public int get(String term) {
+        int hash = term.hashCode();
+        int mask = slots.length - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            int e = slots[i] - 1;
+            if (e < 0) return 0;
+            if (hashes[e] == hash && lens[e] == term.length() && sameChars(e, term)) return counts[e];
+        }
+    }
+
+    /** distinct terms */
+    public int size() {
+        return size;
+    }
+
+    /** tokens counted, i.e. the document length */
+    public long tokens() {
+        return tokens;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int e = 0; e < size; e++) action.accept(new String(arena, starts[e], lens[e]), counts[e]);
+    }
+
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> out = new HashMap<>(size * 4 / 3 + 1);
+        forEach(out::put);
+        return out;
+    }
+
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    /** term -> ascending token offsets; empty unless the counter records positions. */
+    public Map<String, int[]> positionsMap() {
+        if (positions == null) return Map.of();
+        Map<String, int[]> out = new HashMap<>(size * 4 / 3 + 1);
+        for (int e = 0; e < size; e++) {
+            out.put(new String(arena, starts[e], lens[e]), Arrays.copyOf(positions[e], positionCounts[e]));
+        }
+        return out;
+    }
+
+    /** The counted tokens in text order; requires recorded positions. */
+    public List<String> tokenList() {
+        if (positions == null) throw new IllegalStateException("positions are not recorded");
+        String[] out = new String[(int) tokens];
+        for (int e = 0; e < size; e++) {
+            String term = new String(arena, starts[e], lens[e]);
+            for (int k = 0; k < positionCounts[e]; k++) out[positions[e][k]] = term;
+        }
+        return Arrays.asList(out);
+    }
+
+    private void addPosition(int e, int position) {
+        if (e >= positions.length) {
+            positions = Arrays.copyOf(positions, hashes.length);
+            positionCounts = Arrays.copyOf(positionCounts, hashes.length);
+        }
+        int[] p = positions[e];
+        int n = positionCounts[e];
+        if (p == null) positions[e] = p = new int[4];
+        else if (n == p.length) positions[e] = p = Arrays.copyOf(p, n * 2);
+        p[n] = position;
+        positionCounts[e] = n + 1;
+    }
+
+    private boolean sameChars(int e, String term) {
+        for (int k = 0, s = starts[e]; k < lens[e]; k++) {
+            if (arena[s + k] != term.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private int insert(char[] buf, int off, int len, int hash, int n) {
+        if (size == hashes.length) {
+            int cap = size * 2;
+            hashes = Arrays.copyOf(hashes, cap);
+            starts = Arrays.copyOf(starts, cap);
+            lens = Arrays.copyOf(lens, cap);
+            counts = Arrays.copyOf(counts, cap);
+        }
+        if (arenaLen + len > arena.length) arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLen + len));
+        System.arraycopy(buf, off, arena, arenaLen, len);
+        hashes[size] = hash;
+        starts[size] = arenaLen;
+        lens[size] = len;
+        counts[size] = n;
+        arenaLen += len;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] next = new int[slots.length * 2];
+        int mask = next.length - 1;
+        for (int e = 0; e < size; e++) {
+            int i = mix(hashes[e]) & mask;
+            while (next[i] != 0) i = (i + 1) & mask;
+            next[i] = e + 1;
+        }
+        slots = next;
+    }
+
+    /** spreads String.hashCode's weak low bits before masking */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,357 @@
+package core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted set of the indexed terms, used to expand {@link Query.Pattern}s. Terms are kept as
+ * UTF-8, front-coded in blocks of {@link #BLOCK_SIZE} (varint shared-prefix length, varint
+ * suffix length, suffix; every block starts with a full term) with the first term of each block
+ * indexed for binary search, so a large vocabulary costs a few bytes per term. Fuzzy matching
+ * walks the terms in order like a trie, reusing the edit-distance rows of the prefix a term
+ * shares with its predecessor and skipping every term under a prefix that is already too far.
+ * Immutable; {@link #merge} returns a new dictionary. Distances and '?' count bytes, which is
+ * the same as chars for the ASCII terms queries are normalized to.
+ */
+public final class TermDictionary {
+    static final int BLOCK_SIZE = 32;
+    /** largest inflated snapshot decode accepts: tens of millions of distinct terms */
+    static final int MAX_RAW_BYTES = 512 << 20;
+
+    public static final TermDictionary EMPTY = new TermDictionary(new byte[0], 0, 0, new int[0], new byte[0][]);
+
+    /** Terms a pattern expanded to, best first, and whether the cap cut any off. */
+    public record Expansion(List<String> terms, boolean truncated) {}
+
+    private static final Comparator<byte[]> ORDER = Arrays::compareUnsigned;
+
+    private final byte[] data;
+    private final int length;
+    private final int size;
+    private final int[] blockStart;
+    private final byte[][] blockFirst;
+
+    private TermDictionary(byte[] data, int length, int size, int[] blockStart, byte[][] blockFirst) {
+        this.data = data;
+        this.length = length;
+        this.size = size;
+        this.blockStart = blockStart;
+        this.blockFirst = blockFirst;
+    }
+
+    public static TermDictionary of(Collection<String> terms) {
+        if (terms.isEmpty()) return EMPTY;
+        byte[][] sorted = new byte[terms.size()][];
+        int n = 0;
+        for (String t : terms) sorted[n++] = t.getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(sorted, ORDER);
+        Builder b = new Builder(n);
+        for (byte[] t : sorted) b.add(t, t.length);
+        return b.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Size of the front-coded terms in memory. */
+    public long bytes() {
+        return length + 16L * blockStart.length;
+    }
+
+    public boolean contains(String term) {
+        byte[] t = term.getBytes(StandardCharsets.UTF_8);
+        Cursor c = seek(t);
+        while (c.next()) {
+            int cmp = Arrays.compareUnsigned(c.term, 0, c.len, t, 0, t.length);
+            if (cmp >= 0) return cmp == 0;
+        }
+        return false;
+    }
+
+    /** Every term, in order. */
+    public List<String> terms() {
+        List<String> out = new ArrayList<>(size);
+        Cursor c = new Cursor(0);
+        while (c.next()) out.add(c.string());
+        return out;
+    }
+
+    /** This dictionary plus terms; this one when none of them is new. */
+    public TermDictionary merge(Collection<String> terms) {
+        for (String t : terms) {
+            if (!contains(t)) return merge(of(terms));
+        }
+        return this;
+    }
+
+    /** The union of both dictionaries. */
+    public TermDictionary merge(TermDictionary other) {
+        if (other.size == 0) return this;
+        if (size == 0) return other;
+        Builder b = new Builder(size + other.size);
+        Cursor x = new Cursor(0), y = other.new Cursor(0);
+        boolean hasX = x.next(), hasY = y.next();
+        while (hasX || hasY) {
+            int cmp = !hasY ? -1 : !hasX ? 1 : Arrays.compareUnsigned(x.term, 0, x.len, y.term, 0, y.len);
+            if (cmp <= 0) {
+                b.add(x.term, x.len);
+                hasX = x.next();
+                if (cmp == 0) hasY = y.next();
+            } else {
+                b.add(y.term, y.len);
+                hasY = y.next();
+            }
+        }
+        return b.build();
+    }
+
+    /** Expands a prefix, wildcard or fuzzy pattern to at most limit terms. */
+    public Expansion expand(Query.Pattern p, int limit) {
+        return switch (p) {
+            case Query.Prefix x -> prefix(x.prefix(), limit);
+            case Query.Wildcard w -> wildcard(w.pattern(), limit);
+            case Query.Fuzzy f -> fuzzy(f.term(), f.maxEdits(), limit);
+        };
+    }
+
+    /** The first limit terms starting with prefix, in order. */
+    public Expansion prefix(String prefix, int limit) {
+        byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+        List<String> out = new ArrayList<>();
+        Cursor c = seek(p);
+        while (c.next()) {
+            int cmp = Arrays.compareUnsigned(c.term, 0, Math.min(c.len, p.length), p, 0, Math.min(c.len, p.length));
+            if (cmp > 0) break;
+            if (cmp < 0 || c.len < p.length) continue;
+            if (out.size() == limit) return new Expansion(out, true);
+            out.add(c.string());
+        }
+        return new Expansion(out, false);
+    }
+
+    /** The first limit terms matching a pattern where '*' is any run of bytes and '?' any one byte. */
+    public Expansion wildcard(String pattern, int limit) {
+        byte[] p = pattern.getBytes(StandardCharsets.UTF_8);
+        int literal = 0;
+        while (literal < p.length && p[literal] != '*' && p[literal] != '?') literal++;
+        byte[] prefix = Arrays.copyOf(p, literal);
+        List<String> out = new ArrayList<>();
+        Cursor c = seek(prefix);
+        while (c.next()) {
+            int cmp = Arrays.compareUnsigned(c.term, 0, Math.min(c.len, literal), prefix, 0, Math.min(c.len, literal));
+            if (cmp > 0) break;
+            if (cmp < 0 || c.len < literal) continue;
+            if (!glob(p, c.term, c.len)) continue;
+            if (out.size() == limit) return new Expansion(out, true);
+            out.add(c.string());
+        }
+        return new Expansion(out, false);
+    }
+
+    /** The limit terms closest to term within maxEdits (Levenshtein), nearest first, then in order. */
+    public Expansion fuzzy(String term, int maxEdits, int limit) {
+        byte[] q = term.getBytes(StandardCharsets.UTF_8);
+        int m = q.length;
+        // rows[d][j]: distance between the first d bytes of the current term and the first j of q
+        int[][] rows = new int[m + maxEdits + 1][m + 1];
+        for (int j = 0; j <= m; j++) rows[0][j] = j;
+        int valid = 0;
+        // every term sharing the first 'dead' bytes of the current one is out of reach
+        int dead = Integer.MAX_VALUE;
+        List<Object[]> hits = new ArrayList<>();
+        Cursor c = new Cursor(0);
+        while (c.next()) {
+            int shared = c.shared;
+            valid = Math.min(valid, shared);
+            if (dead > shared) dead = Integer.MAX_VALUE;
+            else continue;
+            int n = c.len;
+            if (Math.abs(n - m) > maxEdits) continue;
+            for (int d = valid + 1; d <= n && dead == Integer.MAX_VALUE; d++) {
+                int[] prev = rows[d - 1], row = rows[d];
+                row[0] = d;
+                int min = d;
+                byte b = c.term[d - 1];
+                for (int j = 1; j <= m; j++) {
+                    int v = Math.min(Math.min(prev[j] + 1, row[j - 1] + 1), prev[j - 1] + (q[j - 1] == b ? 0 : 1));
+                    row[j] = v;
+                    if (v < min) min = v;
+                }
+                valid = d;
+                if (min > maxEdits) dead = d;
+            }
+            if (dead != Integer.MAX_VALUE) continue;
+            int dist = rows[n][m];
+            if (dist <= maxEdits) hits.add(new Object[]{dist, c.string()});
+        }
+        // terms come in order, so a stable sort by distance keeps them in order within a distance
+        hits.sort(Comparator.comparingInt(h -> (Integer) h[0]));
+        List<String> out = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) out.add((String) hits.get(i)[1]);
+        return new Expansion(out, hits.size() > limit);
+    }
+
+    /** Serialized form for a store: varint term count, then the front-coded blocks, deflated. */
+    public byte[] encode() {
+        byte[] buf = new byte[10 + length];
+        int pos = Varint.write(buf, 0, size);
+        System.arraycopy(data, 0, buf, pos, length);
+        return TermFreqsCodec.deflate(buf, pos + length);
+    }
+
+    /** Inverse of {@link #encode}; IllegalArgumentException when data is not a dictionary. */
+    public static TermDictionary decode(byte[] data) {
+        byte[] raw = TermFreqsCodec.inflate(data, "term dictionary", MAX_RAW_BYTES);
+        int[] pos = {0};
+        int n = (int) Varint.read(raw, pos);
+        if (n == 0) return EMPTY;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] starts = new int[blocks];
+        byte[][] firsts = new byte[blocks][];
+        byte[] body = Arrays.copyOfRange(raw, pos[0], raw.length);
+        pos[0] = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                int at = pos[0];
+                int shared = (int) Varint.read(body, pos);
+                int suffix = (int) Varint.read(body, pos);
+                if (i % BLOCK_SIZE == 0) {
+                    if (shared != 0) throw new IllegalArgumentException("corrupt term dictionary");
+                    starts[i / BLOCK_SIZE] = at;
+                    firsts[i / BLOCK_SIZE] = Arrays.copyOfRange(body, pos[0], pos[0] + suffix);
+                }
+                pos[0] += suffix;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated term dictionary", e);
+        }
+        return new TermDictionary(body, body.length, n, starts, firsts);
+    }
+
+    /** A cursor positioned before the first term that may be >= t. */
+    private Cursor seek(byte[] t) {
+        int lo = 0, hi = blockFirst.length - 1, block = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ORDER.compare(blockFirst[mid], t) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new Cursor(block);
+    }
+
+    /** true when the first len bytes of t match pattern p ('*' any run, '?' any one byte) */
+    private static boolean glob(byte[] p, byte[] t, int len) {
+        int i = 0, j = 0, star = -1, mark = 0;
+        while (j < len) {
+            if (i < p.length && (p[i] == '?' || p[i] == t[j])) {
+                i++;
+                j++;
+            } else if (i < p.length && p[i] == '*') {
+                star = i++;
+                mark = j;
+            } else if (star >= 0) {
+                i = star + 1;
+                j = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (i < p.length && p[i] == '*') i++;
+        return i == p.length;
+    }
+
+    /** Walks the terms in order from the start of a block; term[0..len) is the current one. */
+    private final class Cursor {
+        private final int[] pos = new int[1];
+        private int index;
+        byte[] term = new byte[32];
+        int len;
+        /** bytes the current term shares with the previous one (0 for the first) */
+        int shared;
+
+        Cursor(int block) {
+            if (blockStart.length > 0) {
+                pos[0] = blockStart[block];
+                index = block * BLOCK_SIZE;
+            } else {
+                index = size;
+            }
+        }
+
+        boolean next() {
+            if (index >= size) return false;
+            int keep = (int) Varint.read(data, pos);
+            int suffix = (int) Varint.read(data, pos);
+            if (keep + suffix > term.length) term = Arrays.copyOf(term, Math.max(term.length * 2, keep + suffix));
+            int s = keep;
+            // a block's first term is stored whole but may still share a prefix with the previous one
+            if (keep == 0) {
+                int max = Math.min(len, suffix);
+                while (s < max && term[s] == data[pos[0] + s]) s++;
+            }
+            System.arraycopy(data, pos[0], term, keep, suffix);
+            pos[0] += suffix;
+            len = keep + suffix;
+            shared = s;
+            index++;
+            return true;
+        }
+
+        String string() {
+            return new String(term, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Appends sorted terms as front-coded blocks; equal neighbours are dropped. */
+    private static final class Builder {
+        private byte[] buf;
+        private int pos;
+        private int n;
+        private final List<Integer> starts = new ArrayList<>();
+        private final List<byte[]> firsts = new ArrayList<>();
+        private byte[] prev = new byte[0];
+        private int prevLen;
+
+        Builder(int expected) {
+            buf = new byte[Math.max(64, expected * 8)];
+        }
+
+        void add(byte[] t, int len) {
+            if (n > 0 && Arrays.equals(prev, 0, prevLen, t, 0, len)) return;
+            int shared = 0;
+            if (n % BLOCK_SIZE == 0) {
+                starts.add(pos);
+                firsts.add(Arrays.copyOf(t, len));
+            } else {
+                int max = Math.min(prevLen, len);
+                while (shared < max && prev[shared] == t[shared]) shared++;
+            }
+            int suffix = len - shared;
+            if (pos + 20 + suffix > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + 20 + suffix));
+            pos = Varint.write(buf, pos, shared);
+            pos = Varint.write(buf, pos, suffix);
+            System.arraycopy(t, shared, buf, pos, suffix);
+            pos += suffix;
+            if (prev.length < len) prev = new byte[Math.max(len, prev.length * 2)];
+            System.arraycopy(t, 0, prev, 0, len);
+            prevLen = len;
+            n++;
+        }
+
+        TermDictionary build() {
+            if (n == 0) return EMPTY;
+            int[] s = new int[starts.size()];
+            for (int i = 0; i < s.length; i++) s[i] = starts.get(i);
+            return new TermDictionary(Arrays.copyOf(buf, pos), pos, n, s, firsts.toArray(new byte[0][]));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Postings to write when a document's term freqs change: terms whose freq changed or that are
+ * new go to upserts, terms that disappeared to removed. Every posting carries the doc length,
+ * so when the length moves by more than {@link #LENGTH_TOLERANCE} all terms are upserted to
+ * keep BM25 length normalization honest; below that, unchanged postings keep the old length.
+ */
+public record TermFreqDiff(Map<String, Integer> upserts, Set<String> removed, long oldLen, long newLen) {
+    public static final double LENGTH_TOLERANCE = 0.10;
+
+    public static TermFreqDiff of(Map<String, Integer> old, Map<String, Integer> updated) {
+        long oldLen = length(old), newLen = length(updated);
+        boolean rewriteAll = Math.abs(newLen - oldLen) > LENGTH_TOLERANCE * Math.max(1, oldLen);
+
+        Map<String, Integer> upserts = new HashMap<>();
+        for (Map.Entry<String, Integer> e : updated.entrySet()) {
+            if (rewriteAll || !e.getValue().equals(old.get(e.getKey()))) upserts.put(e.getKey(), e.getValue());
+        }
+        Set<String> removed = new HashSet<>();
+        for (String t : old.keySet()) {
+            if (!updated.containsKey(t)) removed.add(t);
+        }
+        return new TermFreqDiff(upserts, removed, oldLen, newLen);
+    }
+
+    public boolean isEmpty() {
+        return upserts.isEmpty() && removed.isEmpty();
+    }
+
+    public static long length(Map<String, Integer> termFreqs) {
+        long len = 0;
+        for (int f : termFreqs.values()) len += f;
+        return len;
+    }
+}
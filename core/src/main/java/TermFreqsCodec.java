@@ -0,0 +1,134 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary form of a document's term -> freq map: terms sorted and front-coded
+ * (varint shared-prefix length, varint suffix length, suffix UTF-8), each followed by a
+ * varint freq, the whole thing deflated. Sorted neighbours share long prefixes, so this is
+ * several times smaller than JSON. {@link #toBase64} wraps it for JSON invoke payloads
+ * ("termFreqsBin"), where it also saves the handler from parsing a boxed-number map.
+ */
+public final class TermFreqsCodec {
+    /**
+     * Largest inflated block decode accepts. A document that fits a 6 MB invoke payload is far
+     * smaller front-coded; the cap keeps a small corrupt or hostile block from inflating without
+     * bound.
+     */
+    public static final int MAX_RAW_BYTES = 32 << 20;
+
+    private TermFreqsCodec() {}
+
+    public static byte[] encode(Map<String, Integer> termFreqs) {
+        String[] terms = termFreqs.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        byte[] buf = new byte[16 + terms.length * 16];
+        int pos = Varint.write(buf, 0, terms.length);
+        byte[] prev = new byte[0];
+        for (String t : terms) {
+            byte[] cur = t.getBytes(StandardCharsets.UTF_8);
+            int shared = 0, max = Math.min(prev.length, cur.length);
+            while (shared < max && prev[shared] == cur[shared]) shared++;
+            int suffix = cur.length - shared;
+            if (pos + 30 + suffix > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + 30 + suffix));
+            pos = Varint.write(buf, pos, shared);
+            pos = Varint.write(buf, pos, suffix);
+            System.arraycopy(cur, shared, buf, pos, suffix);
+            pos += suffix;
+            pos = Varint.write(buf, pos, termFreqs.get(t));
+            prev = cur;
+        }
+        return deflate(buf, pos);
+    }
+
+    /**
+     * Inverse of {@link #encode}. Every count and length is checked against the bytes left, so
+     * malformed input fails with IllegalArgumentException rather than a huge allocation.
+     */
+    public static Map<String, Integer> decode(byte[] data) {
+        byte[] raw = inflate(data, "term-freqs block", MAX_RAW_BYTES);
+        try {
+            int[] pos = {0};
+            long n = Varint.read(raw, pos);
+            // every entry takes at least three bytes: shared, suffix and freq varints
+            if (n > (raw.length - pos[0]) / 3) throw corrupt();
+            Map<String, Integer> out = new HashMap<>((int) n * 4 / 3 + 1);
+            byte[] prev = new byte[0];
+            for (long i = 0; i < n; i++) {
+                long shared = Varint.read(raw, pos);
+                long suffix = Varint.read(raw, pos);
+                if (shared > prev.length || suffix > raw.length - pos[0]) throw corrupt();
+                byte[] cur = Arrays.copyOf(prev, (int) (shared + suffix));
+                System.arraycopy(raw, pos[0], cur, (int) shared, (int) suffix);
+                pos[0] += (int) suffix;
+                long freq = Varint.read(raw, pos);
+                if (freq > Integer.MAX_VALUE) throw corrupt();
+                out.put(new String(cur, StandardCharsets.UTF_8), (int) freq);
+                prev = cur;
+            }
+            if (pos[0] != raw.length) throw corrupt();
+            return out;
+        } catch (IndexOutOfBoundsException e) {
+            // a varint running past the end
+            throw new IllegalArgumentException("corrupt term-freqs block", e);
+        }
+    }
+
+    private static IllegalArgumentException corrupt() {
+        return new IllegalArgumentException("corrupt term-freqs block");
+    }
+
+    public static String toBase64(Map<String, Integer> termFreqs) {
+        return Base64.getEncoder().encodeToString(encode(termFreqs));
+    }
+
+    /** Inverse of {@link #toBase64}; IllegalArgumentException when the text is not a valid block. */
+    public static Map<String, Integer> fromBase64(String text) {
+        return decode(Base64.getDecoder().decode(text));
+    }
+
+    static byte[] deflate(byte[] buf, int len) {
+        Deflater d = new Deflater(Deflater.BEST_SPEED);
+        try {
+            d.setInput(buf, 0, len);
+            d.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 16);
+            byte[] chunk = new byte[8192];
+            while (!d.finished()) out.write(chunk, 0, d.deflate(chunk));
+            return out.toByteArray();
+        } finally {
+            d.end();
+        }
+    }
+
+    /** Inflates data, failing once the output passes maxBytes (so a deflate bomb costs at most that). */
+    static byte[] inflate(byte[] data, String what, int maxBytes) {
+        Inflater inf = new Inflater();
+        try {
+            inf.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(maxBytes, data.length * 4L));
+            byte[] chunk = new byte[8192];
+            while (!inf.finished()) {
+                int n = inf.inflate(chunk);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated " + what);
+                }
+                if (out.size() + n > maxBytes) throw new IllegalArgumentException(what + " inflates past " + maxBytes + " bytes");
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt " + what, e);
+        } finally {
+            inf.end();
+        }
+    }
+}
@@ -1,18 +1,204 @@
 package core;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Single-pass tokenizer: each char is classified through a lookup table (separator, or its
+ * normalized form) and tokens are hashed as they are scanned, then counted into a
+ * {@link TermCounter} without building a String per token.
+ * Not thread-safe; use one instance per thread / chunk.
+ */
 public class TextTokenizer {
+    /** How term characters are recognised and normalized. */
+    public enum Normalization {
+        /** [A-Za-z0-9] lowercased, everything else separates terms (the original behaviour) */
+        ASCII,
+        /** any Unicode letter or digit, lowercased */
+        UNICODE,
+        /** like UNICODE, with diacritics stripped (e.g. "café" -> "cafe") */
+        UNICODE_FOLD
+    }
+
+    private static final char[] ASCII_TABLE = new char[128];
+    static {
+        for (char c = '0'; c <= '9'; c++) ASCII_TABLE[c] = c;
+        for (char c = 'a'; c <= 'z'; c++) ASCII_TABLE[c] = c;
+        for (char c = 'A'; c <= 'Z'; c++) ASCII_TABLE[c] = (char) (c + ('a' - 'A'));
+    }
+
+    /** BMP tables for the Unicode modes, built on first use (0 = separator). */
+    private static final class Tables {
+        static final char[] UNICODE = build(false);
+        static final char[] FOLD = build(true);
+
+        private static char[] build(boolean fold) {
+            char[] t = new char[Character.MAX_VALUE + 1];
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                if (Character.isSurrogate((char) c) || !Character.isLetterOrDigit(c)) continue;
+                char lower = Character.toLowerCase((char) c);
+                if (fold && lower >= 0xC0) {
+                    char base = Normalizer.normalize(String.valueOf(lower), Normalizer.Form.NFD).charAt(0);
+                    if (Character.isLetterOrDigit(base)) lower = base;
+                }
+                t[c] = lower;
+            }
+            return t;
+        }
+    }
+
+    private final Normalization mode;
+    private final char[] table;
+    private final TermCounter counts;
+    private char[] tok = new char[64];
+    private int tokLen;
+    private int tokHash;
+
+    public TextTokenizer() {
+        this(Normalization.ASCII);
+    }
+
+    public TextTokenizer(Normalization mode) {
+        this(mode, new TermCounter());
+    }
+
+    public TextTokenizer(Normalization mode, TermCounter counts) {
+        this.mode = mode;
+        this.table = switch (mode) {
+            case ASCII -> null;
+            case UNICODE -> Tables.UNICODE;
+            case UNICODE_FOLD -> Tables.FOLD;
+        };
+        this.counts = counts;
+    }
+
     /** Simple tokenizer -> lowercase, strip non [a-z0-9 ], split, count */
     public static Map<String, Integer> termFreqs(String text) {
-        Map<String, Integer> tf = new HashMap<>();
-        String norm = text == null ? "" : text.toLowerCase().replaceAll("[^a-z0-9 ]", " ");
-        for (String t : norm.split("\\s+")) {
-            if (t.isBlank()) continue;
-            tf.merge(t, 1, Integer::sum);
+        return count(text == null ? "" : text, Normalization.ASCII).toMap();
+    }
+
+    public static TermCounter count(CharSequence text, Normalization mode) {
+        return new TextTokenizer(mode).accept(text).finish();
+    }
+
+    /** Like {@link #count} but also records each term's token offsets (for phrase queries). */
+    public static TermCounter countWithPositions(CharSequence text, Normalization mode) {
+        return new TextTokenizer(mode, new TermCounter(256, true)).accept(text).finish();
+    }
+
+    /** The normalized tokens of text, in order. */
+    public static List<String> tokens(CharSequence text, Normalization mode) {
+        return countWithPositions(text, mode).tokenList();
+    }
+
+    public TextTokenizer accept(CharSequence s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                supplementary(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                feed(c);
+            }
+        }
+        return this;
+    }
+
+    public TextTokenizer accept(char[] buf, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = buf[i];
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(buf[i + 1])) {
+                supplementary(Character.toCodePoint(c, buf[++i]));
+            } else {
+                feed(c);
+            }
+        }
+        return this;
+    }
+
+    /** Streams the reader in 8K-char windows; the reader is not closed. */
+    public TextTokenizer accept(Reader r) throws IOException {
+        char[] buf = new char[8192];
+        int n;
+        while ((n = r.read(buf)) > 0) {
+            // keep a trailing high surrogate for the next window so the pair is not split
+            if (Character.isHighSurrogate(buf[n - 1])) {
+                int m = r.read(buf, n, 1);
+                if (m > 0) n++;
+            }
+            accept(buf, 0, n);
+        }
+        return this;
+    }
+
+    /** Consumes UTF-8 bytes from position to limit; malformed sequences act as separators. */
+    public TextTokenizer accept(ByteBuffer utf8) {
+        while (utf8.hasRemaining()) {
+            int b = utf8.get();
+            if (b >= 0) {
+                feed((char) b);
+                continue;
+            }
+            if (mode == Normalization.ASCII) {
+                endToken();
+                continue;
+            }
+            int need = (b & 0xE0) == 0xC0 ? 1 : (b & 0xF0) == 0xE0 ? 2 : (b & 0xF8) == 0xF0 ? 3 : -1;
+            int cp = need == 1 ? b & 0x1F : need == 2 ? b & 0x0F : b & 0x07;
+            for (int k = 0; k < need; k++) {
+                if (!utf8.hasRemaining()) { need = -1; break; }
+                int cont = utf8.get(utf8.position());
+                if ((cont & 0xC0) != 0x80) { need = -1; break; }
+                utf8.get();
+                cp = (cp << 6) | (cont & 0x3F);
+            }
+            if (need < 0) endToken();
+            else if (cp <= Character.MAX_VALUE) feed((char) cp);
+            else supplementary(cp);
         }
-        return tf;
+        return this;
+    }
+
+    /** Flushes the last token and returns the counts. */
+    public TermCounter finish() {
+        endToken();
+        return counts;
+    }
+
+    private void feed(char c) {
+        char t = c < 128 ? ASCII_TABLE[c] : table == null ? 0 : table[c];
+        if (t == 0) {
+            endToken();
+            return;
+        }
+        if (tokLen == tok.length) tok = Arrays.copyOf(tok, tokLen * 2);
+        tok[tokLen++] = t;
+        tokHash = 31 * tokHash + t;
+    }
+
+    private void supplementary(int cp) {
+        if (table == null || !Character.isLetterOrDigit(cp)) {
+            endToken();
+            return;
+        }
+        int lower = Character.toLowerCase(cp);
+        if (tokLen + 2 > tok.length) tok = Arrays.copyOf(tok, tok.length * 2);
+        char hi = Character.highSurrogate(lower), lo = Character.lowSurrogate(lower);
+        tok[tokLen++] = hi;
+        tok[tokLen++] = lo;
+        tokHash = 31 * (31 * tokHash + hi) + lo;
+    }
+
+    private void endToken() {
+        if (tokLen == 0) return;
+        counts.add(tok, 0, tokLen, tokHash);
+        tokLen = 0;
+        tokHash = 0;
     }
 }
-    
\ No newline at end of file
@@ -0,0 +1,44 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Bounded min-heap selection of the best k scores: O(n log k) instead of sorting every hit. */
+public final class TopK {
+    /** score desc, then docId asc so equal scores rank deterministically */
+    public static final Comparator<Map.Entry<Long, Double>> RANK =
+            Comparator.<Map.Entry<Long, Double>>comparingDouble(Map.Entry::getValue).reversed()
+                    .thenComparing(Map.Entry::getKey);
+
+    private TopK() {}
+
+    /** Returns the k best entries of scores, best first. */
+    public static List<Map.Entry<Long, Double>> select(Map<Long, Double> scores, int k) {
+        return select(scores, k, null);
+    }
+
+    /**
+     * Returns the k best entries that rank strictly after {@code after} (null = from the top),
+     * best first: the next page of a scan that remembers only its last row, however deep it is.
+     */
+    public static List<Map.Entry<Long, Double>> select(Map<Long, Double> scores, int k, Map.Entry<Long, Double> after) {
+        if (k <= 0 || scores.isEmpty()) return List.of();
+        // heap root is the worst entry kept so far
+        PriorityQueue<Map.Entry<Long, Double>> heap = new PriorityQueue<>(Math.min(k, scores.size()) + 1, RANK.reversed());
+        for (Map.Entry<Long, Double> e : scores.entrySet()) {
+            if (after != null && RANK.compare(e, after) <= 0) continue;
+            if (heap.size() < k) {
+                heap.add(Map.entry(e.getKey(), e.getValue()));
+            } else if (RANK.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(Map.entry(e.getKey(), e.getValue()));
+            }
+        }
+        List<Map.Entry<Long, Double>> out = new ArrayList<>(heap);
+        out.sort(RANK);
+        return out;
+    }
+}
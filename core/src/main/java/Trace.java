@@ -0,0 +1,189 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings and counters of one request, keyed by its request id. The handler thread lays down
+ * phases with {@link #lap}; code further down (e.g. the DynamoDB client) reaches the request's
+ * trace through {@link #current()}, which is inherited by the threads the request starts, and
+ * adds its own counters. {@link #end} folds everything into process-wide {@link Metrics}.
+ * Outside a request, {@link #current()} is a trace that records nothing.
+ */
+public final class Trace {
+    private static final InheritableThreadLocal<Trace> CURRENT = new InheritableThreadLocal<>();
+    private static final Trace NONE = new Trace(null, 0);
+
+    private final String requestId;
+    private final long startNanos;
+    private final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Double> counters = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile long totalNanos = -1;
+
+    private Trace(String requestId, long startNanos) {
+        this.requestId = requestId;
+        this.startNanos = startNanos;
+    }
+
+    /** Starts the trace of a request and makes it {@link #current()} on this thread. */
+    public static Trace begin(String requestId) {
+        Trace t = new Trace(requestId, System.nanoTime());
+        CURRENT.set(t);
+        return t;
+    }
+
+    public static Trace current() {
+        Trace t = CURRENT.get();
+        return t == null ? NONE : t;
+    }
+
+    public String requestId() {
+        return requestId;
+    }
+
+    /**
+     * Adds the time since {@code since} (a System.nanoTime) to phase and returns now, so
+     * consecutive phases chain: {@code t = trace.lap("fetch", t); ... t = trace.lap("merge", t);}.
+     * A phase lapped more than once accumulates.
+     */
+    public long lap(String phase, long since) {
+        long now = System.nanoTime();
+        if (this != NONE) phases.merge(phase, now - since, Long::sum);
+        return now;
+    }
+
+    public void add(String counter, double amount) {
+        if (this != NONE) counters.merge(counter, amount, Double::sum);
+    }
+
+    /**
+     * Ends the request: records "total" and every phase under {@code name + "." + phase} in
+     * metrics (plain {@code name} for the total), adds the counters to its totals, and stops
+     * being current. Returns {@link #summary()}.
+     */
+    public Map<String, Object> end(Metrics metrics, String name) {
+        totalNanos = System.nanoTime() - startNanos;
+        if (CURRENT.get() == this) CURRENT.remove();
+        metrics.record(name, totalNanos);
+        synchronized (phases) {
+            phases.forEach((phase, nanos) -> metrics.record(name + "." + phase, nanos));
+        }
+        synchronized (counters) {
+            counters.forEach((counter, v) -> metrics.add(name + "." + counter, v));
+        }
+        return summary();
+    }
+
+    /** {"requestId", "ms": {"total", phase...}, counter...}: what a response carries back. */
+    public Map<String, Object> summary() {
+        Map<String, Object> ms = new LinkedHashMap<>();
+        ms.put("total", Histogram.millis(totalNanos >= 0 ? totalNanos : System.nanoTime() - startNanos));
+        synchronized (phases) {
+            phases.forEach((phase, nanos) -> ms.put(phase, Histogram.millis(nanos)));
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("requestId", requestId);
+        out.put("ms", ms);
+        synchronized (counters) {
+            counters.forEach((counter, v) -> out.put(counter, number(v)));
+        }
+        return out;
+    }
+
+    /** Whole counts as longs, the rest rounded to 3 decimals. */
+    private static Object number(double v) {
+        return v == Math.rint(v) ? (Object) (long) v : Math.round(v * 1000) / 1000.0;
+    }
+
+    /**
+     * This request as one CloudWatch Embedded Metric Format line: phase times (and counters
+     * named "*.ms") in milliseconds and the other counters as counts, all under
+     * {@code dimensions}; the request id and {@code properties} go along as searchable but
+     * unaggregated fields. Written to a Lambda function's stdout, CloudWatch
+     * Logs turns it into metrics without any PutMetricData call.
+     */
+    public String toEmf(String namespace, Map<String, String> dimensions, Map<String, ?> properties) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        List<Map<String, String>> metrics = new ArrayList<>();
+        Map<String, Object> ms = new LinkedHashMap<>(summary());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> phaseMs = (Map<String, Object>) ms.remove("ms");
+        ms.remove("requestId");
+        phaseMs.forEach((phase, v) -> {
+            metrics.add(metric(phase, "Milliseconds"));
+            line.put(phase, v);
+        });
+        ms.forEach((counter, v) -> {
+            metrics.add(metric(counter, counter.endsWith(".ms") ? "Milliseconds" : "Count"));
+            line.put(counter, v);
+        });
+
+        Map<String, Object> directive = new LinkedHashMap<>();
+        directive.put("Namespace", namespace);
+        directive.put("Dimensions", List.of(new ArrayList<>(dimensions.keySet())));
+        directive.put("Metrics", metrics);
+        Map<String, Object> aws = new LinkedHashMap<>();
+        aws.put("Timestamp", System.currentTimeMillis());
+        aws.put("CloudWatchMetrics", List.of(directive));
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("_aws", aws);
+        out.putAll(dimensions);
+        out.putAll(line);
+        out.put("requestId", requestId);
+        out.putAll(properties);
+        return json(out, new StringBuilder(512)).toString();
+    }
+
+    private static Map<String, String> metric(String name, String unit) {
+        Map<String, String> m = new LinkedHashMap<>();
+        m.put("Name", name);
+        m.put("Unit", unit);
+        return m;
+    }
+
+    /** Just enough JSON for an EMF line (maps, lists, strings, numbers, booleans); no Jackson in the Lambda jar. */
+    private static StringBuilder json(Object v, StringBuilder sb) {
+        if (v instanceof Map<?, ?> m) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                json(String.valueOf(e.getKey()), sb).append(':');
+                json(e.getValue(), sb);
+            }
+            return sb.append('}');
+        }
+        if (v instanceof List<?> l) {
+            sb.append('[');
+            for (int i = 0; i < l.size(); i++) {
+                if (i > 0) sb.append(',');
+                json(l.get(i), sb);
+            }
+            return sb.append(']');
+        }
+        if (v instanceof Number || v instanceof Boolean) return sb.append(v);
+        if (v == null) return sb.append("null");
+        String str = v.toString();
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"');
+    }
+}
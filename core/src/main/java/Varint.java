@@ -0,0 +1,41 @@
+package core;
+
+/** Unsigned LEB128 varints: 7 bits per byte, high bit set on every byte but the last. */
+public final class Varint {
+    private Varint() {}
+
+    /** Writes v at buf[pos] and returns the new position; buf must have 10 spare bytes. */
+    public static int write(byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    /** Reads a varint at pos[0] and advances pos[0] past it. */
+    public static long read(byte[] buf, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        int p = pos[0];
+        while (true) {
+            byte b = buf[p++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) break;
+            shift += 7;
+            if (shift > 63) throw new IllegalArgumentException("malformed varint at " + pos[0]);
+        }
+        pos[0] = p;
+        return v;
+    }
+
+    public static int size(long v) {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,22 @@
+package core;
+
+/**
+ * Outcome of an index write: items written, write batches used, retries needed, and the
+ * index generation after the write (0 when the write did not change searchable content).
+ */
+public record WriteStats(int items, int batches, int retries, long generation) {
+    public static final WriteStats NONE = new WriteStats(0, 0, 0, 0);
+
+    public WriteStats(int items, int batches, int retries) {
+        this(items, batches, retries, 0);
+    }
+
+    public WriteStats plus(WriteStats o) {
+        return new WriteStats(items + o.items, batches + o.batches, retries + o.retries,
+                Math.max(generation, o.generation));
+    }
+
+    public WriteStats withGeneration(long g) {
+        return new WriteStats(items, batches, retries, g);
+    }
+}
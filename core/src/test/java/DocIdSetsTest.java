@@ -0,0 +1,43 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocIdSetsTest {
+
+    @Test
+    void setOperations() {
+        long[] a = {1, 3, 5, 7, 9}, b = {2, 3, 4, 9, 10};
+        assertArrayEquals(new long[]{3, 9}, DocIdSets.intersect(a, b));
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5, 7, 9, 10}, DocIdSets.union(a, b));
+        assertArrayEquals(new long[]{1, 5, 7}, DocIdSets.minus(a, b));
+        assertArrayEquals(new long[0], DocIdSets.intersect(a, new long[0]));
+        assertArrayEquals(a, DocIdSets.union(new long[0], a));
+        assertArrayEquals(a, DocIdSets.minus(a, new long[0]));
+        assertArrayEquals(new long[]{4, 8}, DocIdSets.of(List.of(new long[]{4, 1, 2}, new long[]{8, 2, 5})));
+    }
+
+    @Test
+    void gallopingIntersectionOfVeryUnevenSets() {
+        long[] big = new long[100_000];
+        for (int i = 0; i < big.length; i++) big[i] = 2L * i;
+        long[] small = {-1, 0, 3, 1_000, 99_999, 199_998, 400_000};
+        assertArrayEquals(new long[]{0, 1_000, 199_998}, DocIdSets.intersect(small, big));
+        assertArrayEquals(new long[]{0, 1_000, 199_998}, DocIdSets.intersect(big, small));
+    }
+
+    @Test
+    void advanceFindsTheFirstValueAtOrAboveTarget() {
+        long[] s = {10, 20, 30, 40, 50};
+        assertEquals(0, DocIdSets.advance(s, 0, 5));
+        assertEquals(2, DocIdSets.advance(s, 0, 30));
+        assertEquals(3, DocIdSets.advance(s, 1, 31));
+        assertEquals(5, DocIdSets.advance(s, 0, 51));
+        // never moves backwards
+        assertEquals(4, DocIdSets.advance(s, 4, 10));
+        assertEquals(5, DocIdSets.advance(s, 5, 10));
+    }
+}
@@ -0,0 +1,100 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEvaluatorTest {
+    /** term -> docId -> positions */
+    private final Map<String, Map<Long, int[]>> index = new HashMap<>();
+
+    private void doc(long docId, String text) {
+        List<String> tokens = TextTokenizer.tokens(text, TextTokenizer.Normalization.ASCII);
+        for (int p = 0; p < tokens.size(); p++) {
+            int pos = p;
+            index.computeIfAbsent(tokens.get(p), k -> new HashMap<>()).merge(docId, new int[]{pos}, (a, b) -> {
+                int[] out = Arrays.copyOf(a, a.length + 1);
+                out[a.length] = b[0];
+                return out;
+            });
+        }
+    }
+
+    private List<long[]> postings(String term) {
+        List<long[]> out = new ArrayList<>();
+        index.getOrDefault(term, Map.of()).forEach((id, pos) -> out.add(new long[]{id, pos.length, 10}));
+        out.sort((a, b) -> Long.compare(a[0], b[0]));
+        return out;
+    }
+
+    private long[] eval(String query) {
+        QueryEvaluator eval = new QueryEvaluator(this::postings, (term, ids) -> {
+            Map<Long, int[]> out = new HashMap<>();
+            for (long id : ids) {
+                int[] pos = index.getOrDefault(term, Map.of()).get(id);
+                if (pos != null) out.put(id, pos);
+            }
+            return out;
+        });
+        return eval.evaluate(Query.parse(query));
+    }
+
+    private QueryEvaluatorTest corpus() {
+        doc(1, "the quick brown fox");
+        doc(2, "the lazy brown dog");
+        doc(3, "quick dog brown");
+        doc(4, "fox and dog");
+        return this;
+    }
+
+    @Test
+    void booleanOperatorsFollowPrecedence() {
+        corpus();
+        assertArrayEquals(new long[]{1, 2, 3}, eval("brown"));
+        assertArrayEquals(new long[]{2, 3}, eval("brown dog"));
+        assertArrayEquals(new long[]{1, 3, 4}, eval("quick OR fox"));
+        // (quick AND dog) OR fox
+        assertArrayEquals(new long[]{1, 3, 4}, eval("quick dog OR fox"));
+        // quick AND (dog OR fox)
+        assertArrayEquals(new long[]{1, 3}, eval("quick (dog OR fox)"));
+        assertArrayEquals(new long[]{1, 2}, eval("brown NOT quick dog OR brown NOT dog"));
+        assertArrayEquals(new long[]{2}, eval("brown NOT (quick OR fox)"));
+        assertArrayEquals(new long[0], eval("missing OR absent"));
+    }
+
+    @Test
+    void phrasesCheckPositions() {
+        corpus();
+        assertArrayEquals(new long[]{1, 2}, eval("\"brown\" \"the\""));
+        assertArrayEquals(new long[]{2}, eval("\"lazy brown dog\""));
+        assertArrayEquals(new long[]{3}, eval("\"quick dog\""));
+        assertArrayEquals(new long[0], eval("\"dog brown lazy\""));
+    }
+
+    @Test
+    void aNotWithoutAPositiveClauseFailsWithIllegalArgument() {
+        corpus();
+        QueryEvaluator eval = new QueryEvaluator(this::postings, (t, ids) -> Map.of());
+        // queries built by hand (or by expanding/stripping a parsed one) are still checked
+        assertThrows(IllegalArgumentException.class, () -> eval.evaluate(new Query.Not(new Query.Term("fox"))));
+        assertThrows(IllegalArgumentException.class, () -> eval.evaluate(
+                new Query.Or(List.of(new Query.Term("dog"), new Query.Not(new Query.Term("fox"))))));
+        assertThrows(IllegalStateException.class, () -> eval.evaluate(new Query.Prefix("fo")));
+    }
+
+    @Test
+    void scoresOnlyMatchedDocsByPositiveTerms() {
+        corpus();
+        Query q = Query.parse("brown NOT fox");
+        QueryEvaluator eval = new QueryEvaluator(this::postings, (t, ids) -> Map.of());
+        long[] matched = eval.evaluate(q);
+        Map<Long, Double> scores = eval.score(q, matched, Scoring.FREQ, null);
+        assertEquals(Map.of(2L, 1.0, 3L, 1.0), scores);
+    }
+}
@@ -0,0 +1,85 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryParserTest {
+
+    private static Query.Term t(String term) {
+        return new Query.Term(term);
+    }
+
+    private static void assertRejected(String query, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Query.parse(query), query);
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        assertEquals(new Query.Or(List.of(t("a"), new Query.And(List.of(t("b"), t("c"))))), Query.parse("a OR b AND c"));
+        assertEquals(new Query.Or(List.of(new Query.And(List.of(t("a"), t("b"))), t("c"))), Query.parse("a b OR c"));
+        assertEquals(new Query.And(List.of(new Query.Or(List.of(t("a"), t("b"))), t("c"))), Query.parse("(a OR b) c"));
+    }
+
+    @Test
+    void lowerCaseOperatorsAreTerms() {
+        assertEquals(new Query.And(List.of(t("cats"), t("and"), t("dogs"))), Query.parse("cats and dogs"));
+    }
+
+    @Test
+    void phrasesPatternsAndFuzzyTerms() {
+        assertEquals(new Query.Phrase(List.of("red", "fox")), Query.parse("\"Red Fox\""));
+        assertEquals(new Query.Phrase(List.of("e", "mail")), Query.parse("e-mail"));
+        assertEquals(new Query.Prefix("child"), Query.parse("Child*"));
+        assertEquals(new Query.Wildcard("ch?ld"), Query.parse("ch?ld"));
+        assertEquals(new Query.Fuzzy("child", 1), Query.parse("child~1"));
+        assertEquals(new Query.Fuzzy("child", 2), Query.parse("child~"));
+        assertEquals(t("child"), Query.parse("child~0"));
+        assertRejected("child~3", "fuzzy distance");
+        assertRejected("ch*ld~1", "bad fuzzy term");
+        assertRejected("e-ma*l", "single word");
+    }
+
+    @Test
+    void notNeedsAPositiveClauseInItsAnd() {
+        assertEquals(new Query.And(List.of(t("cat"), new Query.Not(t("dog")))), Query.parse("cat NOT dog"));
+        assertEquals(new Query.And(List.of(new Query.Not(t("dog")), t("cat"))), Query.parse("NOT dog cat"));
+        assertRejected("NOT dog", "NOT needs a positive clause");
+        assertRejected("NOT dog NOT cat", "NOT needs a positive clause");
+        assertRejected("cat OR NOT dog", "NOT needs a positive clause");
+        assertRejected("cat NOT NOT dog", "NOT needs a positive clause");
+        assertRejected("NOT", "expected a term");
+    }
+
+    @Test
+    void unbalancedQuotesAndParenthesesAreRejected() {
+        assertRejected("\"red fox", "unterminated phrase");
+        assertRejected("red \"fox", "unterminated phrase");
+        assertRejected("(a OR b", "missing ')'");
+        assertRejected("a OR b)", "unexpected ')'");
+        assertRejected("()", "unexpected ')'");
+        assertRejected("a AND", "expected a term");
+        assertRejected("a OR", "expected a term");
+    }
+
+    @Test
+    void emptyQueriesAreRejected() {
+        assertRejected(null, "empty query");
+        assertRejected("   ", "empty query");
+        assertRejected("\"\"", "no searchable terms");
+        assertRejected("*", "no searchable terms");
+        assertRejected("!! ,,", "no searchable terms");
+    }
+
+    @Test
+    void deepNestingIsRejectedRatherThanOverflowingTheStack() {
+        String deep = "(".repeat(100_000) + "a" + ")".repeat(100_000);
+        assertRejected(deep, "nests deeper than");
+        assertRejected("a " + "NOT ".repeat(100_000) + "b", "nests deeper than");
+        String ok = "(".repeat(QueryParser.MAX_DEPTH) + "a" + ")".repeat(QueryParser.MAX_DEPTH);
+        assertEquals(t("a"), Query.parse(ok));
+    }
+}
@@ -0,0 +1,76 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermDictionaryTest {
+    private static final TermDictionary WORDS = TermDictionary.of(List.of(
+            "child", "children", "childish", "chile", "chill", "cold", "colder", "could", "child"));
+
+    private static TermDictionary numbered(int n) {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < n; i++) terms.add("term" + i);
+        return TermDictionary.of(terms);
+    }
+
+    @Test
+    void keepsDistinctTermsInOrder() {
+        assertEquals(List.of("child", "childish", "children", "chile", "chill", "cold", "colder", "could"), WORDS.terms());
+        assertTrue(WORDS.contains("chill"));
+        assertFalse(WORDS.contains("chil"));
+        assertFalse(WORDS.contains("zzz"));
+        assertEquals(0, TermDictionary.EMPTY.terms().size());
+    }
+
+    @Test
+    void prefixExpansionAcrossBlocksAndTruncation() {
+        assertEquals(List.of("child", "childish", "children"), WORDS.prefix("child", 10).terms());
+        assertEquals(List.of(), WORDS.prefix("x", 10).terms());
+        assertEquals(WORDS.terms(), WORDS.prefix("", 100).terms());
+
+        // spans many front-coded blocks
+        TermDictionary d = numbered(5_000);
+        TermDictionary.Expansion e = d.prefix("term1", 10_000);
+        assertEquals(1_111, e.terms().size());
+        assertFalse(e.truncated());
+        TermDictionary.Expansion cut = d.prefix("term1", 5);
+        assertEquals(List.of("term1", "term10", "term100", "term1000", "term1001"), cut.terms());
+        assertTrue(cut.truncated());
+    }
+
+    @Test
+    void wildcardExpansion() {
+        assertEquals(List.of("child", "chile", "chill"), WORDS.wildcard("chil?", 10).terms());
+        assertEquals(List.of("colder"), WORDS.wildcard("co*d*r", 10).terms());
+        assertEquals(List.of("child", "cold", "could"), WORDS.wildcard("c*ld", 10).terms());
+        assertEquals(List.of("childish"), WORDS.wildcard("*i*h", 10).terms());
+    }
+
+    @Test
+    void fuzzyExpansionIsNearestFirst() {
+        assertEquals(List.of("child", "chile", "chill", "cold", "could"), WORDS.fuzzy("child", 2, 10).terms());
+        assertEquals(List.of("child", "chile", "chill"), WORDS.fuzzy("child", 1, 10).terms());
+        assertEquals(List.of("cold", "could"), WORDS.fuzzy("coud", 1, 10).terms());
+        TermDictionary.Expansion e = WORDS.fuzzy("child", 2, 2);
+        assertEquals(List.of("child", "chile"), e.terms());
+        assertTrue(e.truncated());
+        assertEquals(List.of(), WORDS.fuzzy("zebra", 2, 10).terms());
+    }
+
+    @Test
+    void mergeAndEncodeRoundTrip() {
+        TermDictionary a = numbered(100), b = TermDictionary.of(List.of("term5", "zeta", "alpha", "日本"));
+        TermDictionary merged = a.merge(b);
+        assertEquals(103, merged.size());
+        assertTrue(merged.contains("日本"));
+        assertSame(a, a.merge(List.of("term1", "term2")));
+        assertEquals(merged.terms(), TermDictionary.decode(merged.encode()).terms());
+        assertEquals(0, TermDictionary.decode(TermDictionary.EMPTY.encode()).size());
+        assertEquals(Set.of("alpha"), Set.copyOf(merged.expand(new Query.Prefix("alp"), 10).terms()));
+    }
+}
@@ -0,0 +1,83 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermFreqsCodecTest {
+
+    /** Front-codes hand-written entries the way encode does, then deflates them. */
+    private static byte[] block(long... varints) {
+        byte[] buf = new byte[10 * varints.length];
+        int pos = 0;
+        for (long v : varints) pos = Varint.write(buf, pos, v);
+        return TermFreqsCodec.deflate(buf, pos);
+    }
+
+    private static byte[] rawBlock(int... bytes) {
+        byte[] buf = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) buf[i] = (byte) bytes[i];
+        return TermFreqsCodec.deflate(buf, buf.length);
+    }
+
+    private static void assertCorrupt(byte[] data) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> TermFreqsCodec.decode(data));
+        assertTrue(e.getMessage().contains("term-freqs block"), e.getMessage());
+    }
+
+    @Test
+    void roundTripsSharedPrefixesUnicodeAndLargeFreqs() {
+        Map<String, Integer> tf = new HashMap<>();
+        for (int i = 0; i < 2_000; i++) tf.put("term" + i, i + 1);
+        tf.put("café", 3);
+        tf.put("caf", Integer.MAX_VALUE);
+        tf.put("日本語", 7);
+        assertEquals(tf, TermFreqsCodec.decode(TermFreqsCodec.encode(tf)));
+        assertEquals(tf, TermFreqsCodec.fromBase64(TermFreqsCodec.toBase64(tf)));
+        assertEquals(Map.of(), TermFreqsCodec.decode(TermFreqsCodec.encode(Map.of())));
+    }
+
+    @Test
+    void countLargerThanTheBlockIsRejectedBeforeAllocating() {
+        // one real entry, but the count claims two billion
+        assertCorrupt(block(2_000_000_000L, 0, 1, 'a', 1));
+        assertCorrupt(block(Long.MAX_VALUE, 0, 1, 'a', 1));
+    }
+
+    @Test
+    void sharedPrefixLongerThanThePreviousTermIsRejected() {
+        assertCorrupt(block(2, 0, 1, 'a', 1, 5, 1, 'b', 1));
+    }
+
+    @Test
+    void suffixPastTheEndIsRejected() {
+        assertCorrupt(block(1, 0, 1_000_000, 'a', 1));
+    }
+
+    @Test
+    void truncatedAndTrailingBytesAreRejected() {
+        byte[] ok = TermFreqsCodec.encode(Map.of("alice", 3, "bob", 1));
+        assertThrows(IllegalArgumentException.class, () -> TermFreqsCodec.decode(Arrays.copyOf(ok, ok.length / 2)));
+        // a varint cut off in the middle
+        assertCorrupt(rawBlock(1, 0, 1, 'a', 0x80));
+        assertCorrupt(block(1, 0, 1, 'a', 1, 9));
+        assertThrows(IllegalArgumentException.class, () -> TermFreqsCodec.decode(new byte[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    void blockInflatingPastTheCapIsRejected() {
+        // zeros deflate to a tiny fraction of their size
+        byte[] zeros = new byte[TermFreqsCodec.MAX_RAW_BYTES + 1];
+        byte[] bomb = TermFreqsCodec.deflate(zeros, zeros.length);
+        assertTrue(bomb.length < 1 << 20);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> TermFreqsCodec.decode(bomb));
+        assertTrue(e.getMessage().contains("inflates past"), e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> TermFreqsCodec.fromBase64(Base64.getEncoder().encodeToString(bomb)));
+    }
+}
@@ -0,0 +1,73 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static core.TextTokenizer.Normalization.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextTokenizerTest {
+
+    @Test
+    void splitsOnEverythingButLettersAndDigits() {
+        assertEquals(List.of("hello", "world", "42", "x"), TextTokenizer.tokens("  Hello,world!!42\tx-", ASCII));
+        assertEquals(List.of(), TextTokenizer.tokens("", ASCII));
+        assertEquals(List.of(), TextTokenizer.tokens(" ,.;- ", ASCII));
+        assertEquals(Map.of(), TextTokenizer.termFreqs(null));
+    }
+
+    @Test
+    void foldsCaseAndCountsRepeats() {
+        assertEquals(Map.of("the", 3, "cat", 1), TextTokenizer.termFreqs("The THE the cat"));
+        TermCounter c = TextTokenizer.count("a b A", ASCII);
+        assertEquals(2, c.get("a"));
+        assertEquals(3, c.tokens());
+    }
+
+    @Test
+    void asciiModeTreatsNonAsciiAsSeparators() {
+        assertEquals(List.of("caf", "na", "ve"), TextTokenizer.tokens("café naïve", ASCII));
+    }
+
+    @Test
+    void unicodeModesKeepLettersAndFoldDiacriticsOnRequest() {
+        assertEquals(List.of("café", "straße", "日本語"), TextTokenizer.tokens("Café STRAßE 日本語", UNICODE));
+        assertEquals(List.of("cafe", "naive", "uber"), TextTokenizer.tokens("CAFÉ naïve Über", UNICODE_FOLD));
+    }
+
+    @Test
+    void supplementaryLettersStayInOneToken() {
+        // U+10400 DESERET CAPITAL LONG I lowercases to U+10428
+        String upper = new String(Character.toChars(0x10400)), lower = new String(Character.toChars(0x10428));
+        assertEquals(List.of("a" + lower + "b"), TextTokenizer.tokens("a" + upper + "b", UNICODE));
+        // emoji are not letters, so they separate
+        assertEquals(List.of("a", "b"), TextTokenizer.tokens("a😀b", UNICODE));
+    }
+
+    @Test
+    void readerAndUtf8InputsMatchTheStringPath() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        // long enough to cross several 8K reader windows
+        for (int i = 0; i < 5_000; i++) sb.append("Größe ").append(i).append(" café𐐀x, ");
+        String text = sb.toString();
+        for (TextTokenizer.Normalization mode : TextTokenizer.Normalization.values()) {
+            Map<String, Integer> expected = TextTokenizer.count(text, mode).toMap();
+            assertEquals(expected, new TextTokenizer(mode).accept(new StringReader(text)).finish().toMap(), mode.name());
+            ByteBuffer utf8 = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            assertEquals(expected, new TextTokenizer(mode).accept(utf8).finish().toMap(), mode.name());
+        }
+    }
+
+    @Test
+    void malformedUtf8ActsAsASeparator() {
+        byte[] bytes = {'a', 'b', (byte) 0xC3, 'c', 'd', (byte) 0xFF, 'e'};
+        Map<String, Integer> tf = new TextTokenizer(UNICODE).accept(ByteBuffer.wrap(bytes)).finish().toMap();
+        assertEquals(Map.of("ab", 1, "cd", 1, "e", 1), tf);
+    }
+}
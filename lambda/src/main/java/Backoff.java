@@ -0,0 +1,31 @@
+package lambda;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Full-jitter exponential backoff shared by the batch read/write retry loops. */
+final class Backoff {
+    static final int MAX_RETRIES = 8;
+    static final long BASE_DELAY_MS = 25;
+    static final long MAX_DELAY_MS = 2_000;
+
+    private Backoff() {}
+
+    /** uniform in [0, min(max, base * 2^attempt)] */
+    static long delay(int attempt, long baseMs, long maxMs) {
+        long cap = Math.min(maxMs, baseMs << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    static void pause(int attempt) {
+        sleep(delay(attempt, BASE_DELAY_MS, MAX_DELAY_MS));
+    }
+
+    static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during backoff", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package lambda;
+
+import core.WriteStats;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes items with BatchWriteItem: 25-item chunks, a few chunks in flight at once,
+ * UnprocessedItems retried with full-jitter exponential backoff.
+ */
+final class BatchWriter {
+    static final int MAX_BATCH = 25;
+
+    private final DynamoDbClient ddb;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    BatchWriter(DynamoDbClient ddb, int maxInFlight, int maxRetries, long baseDelayMs, long maxDelayMs) {
+        this.ddb = ddb;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetries = maxRetries;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    BatchWriter(DynamoDbClient ddb) {
+        this(ddb, Integer.parseInt(System.getenv().getOrDefault("BATCH_PARALLELISM", "4")),
+                Backoff.MAX_RETRIES, Backoff.BASE_DELAY_MS, Backoff.MAX_DELAY_MS);
+    }
+
+    WriteStats write(String table, List<Map<String, AttributeValue>> items) {
+        List<WriteRequest> requests = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            requests.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+        }
+        return send(table, requests);
+    }
+
+    WriteStats delete(String table, List<Map<String, AttributeValue>> keys) {
+        List<WriteRequest> requests = new ArrayList<>(keys.size());
+        for (Map<String, AttributeValue> key : keys) {
+            requests.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build());
+        }
+        return send(table, requests);
+    }
+
+    private WriteStats send(String table, List<WriteRequest> requests) {
+        if (requests.isEmpty()) return WriteStats.NONE;
+
+        List<List<WriteRequest>> chunks = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i += MAX_BATCH) {
+            chunks.add(requests.subList(i, Math.min(i + MAX_BATCH, requests.size())));
+        }
+
+        AtomicInteger retries = new AtomicInteger();
+        if (chunks.size() == 1) {
+            writeChunk(table, chunks.get(0), retries);
+            return new WriteStats(requests.size(), 1, retries.get());
+        }
+
+        // bounded fan-out: at most maxInFlight BatchWriteItem calls outstanding
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        List<Future<?>> pending = new ArrayList<>(chunks.size());
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (List<WriteRequest> chunk : chunks) {
+                inFlight.acquireUninterruptibly();
+                pending.add(pool.submit(() -> {
+                    try {
+                        writeChunk(table, chunk, retries);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (Future<?> f : pending) f.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while writing batches", e);
+        }
+        return new WriteStats(requests.size(), chunks.size(), retries.get());
+    }
+
+    private void writeChunk(String table, List<WriteRequest> chunk, AtomicInteger retries) {
+        List<WriteRequest> todo = chunk;
+        for (int attempt = 0; ; attempt++) {
+            BatchWriteItemResponse resp = ddb.batchWriteItem(BatchWriteItemRequest.builder()
+                    .requestItems(Map.of(table, todo))
+                    .build());
+            todo = resp.hasUnprocessedItems() ? resp.unprocessedItems().getOrDefault(table, List.of()) : List.of();
+            if (todo.isEmpty()) return;
+            if (attempt >= maxRetries) {
+                throw new IllegalStateException(todo.size() + " unprocessed items in " + table
+                        + " after " + maxRetries + " retries");
+            }
+            retries.incrementAndGet();
+            Backoff.sleep(Backoff.delay(attempt, baseDelayMs, maxDelayMs));
+        }
+    }
+}
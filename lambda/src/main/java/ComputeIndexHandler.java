@@ -111,73 +111,419 @@ package lambda;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.*;
+import core.IndexStore;
+import core.PathEntry;
+import core.Stopwords;
+import core.TermFreqsCodec;
+import core.Trace;
+import core.WriteStats;
 
-import java.util.Map;
+import java.util.*;
 
 public class ComputeIndexHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
 
-    private final DynamoDbClient ddb =
-            DynamoDbClient.builder()
-                    .region(Region.of(System.getenv().getOrDefault("AWS_REGION", "us-east-1")))
-                    .credentialsProvider(DefaultCredentialsProvider.create())
-                    .build();
+    static final int DEFAULT_LIST_LIMIT = 5000;
+    // keeps a listPaths response well under the 6 MB invoke limit
+    static final int MAX_LIST_LIMIT = 10_000;
 
-    private final String DOCMAP   = System.getenv("TABLE_DOCMAP");    // FRE_DocumentMap
-    private final String TERMIDX  = System.getenv("TABLE_TERMIDX");   // FRE_TermIndex
-    private final String COUNTERS = System.getenv("TABLE_COUNTERS");  // FRE_Counters
+    // backend chosen by INDEX_STORE (dynamo | memory | file)
+    private final IndexStore store;
+    // STOPWORDS: terms dropped before they reach the index
+    private final Stopwords stopwords;
+
+    public ComputeIndexHandler() {
+        this(IndexStores.fromEnv());
+        Priming.register();
+    }
+
+    ComputeIndexHandler(IndexStore store) {
+        this(store, IndexStores.stopwords());
+    }
+
+    ComputeIndexHandler(IndexStore store, Stopwords stopwords) {
+        this.store = store;
+        this.stopwords = stopwords;
+    }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Map<String, Object> handleRequest(Map<String, Object> input, Context ctx) {
+        Trace trace = Tracing.begin(input, ctx);
+        String operation = operation(input);
+        try {
+            return Tracing.end(trace, ctx, "ComputeIndexHandler", operation, handle(input, trace));
+        } catch (RuntimeException e) {
+            Tracing.fail(trace, ctx, "ComputeIndexHandler", operation, e);
+            throw e;
+        }
+    }
+
+    /** The request's kind, for metrics: compact | indexBatch | delete | listPaths | index. */
+    private static String operation(Map<String, Object> input) {
+        return input.containsKey("compact") ? "compact"
+                : input.containsKey("documents") ? "indexBatch"
+                : input.containsKey("delete") ? "delete"
+                : input.containsKey("listPaths") ? "listPaths"
+                : "index";
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> handle(Map<String, Object> input, Trace trace) {
+        // every request works inside the caller's tenant: its postings, docIds and counters
+        String clientId = IndexStores.clientId(this.store, input.get("clientId"));
+        IndexStore store = this.store.forTenant(clientId);
+
+        if (input.containsKey("compact")) {
+            return compact(store, IndexStores.requireTerms((List<String>) input.get("compact")));
+        }
+        if (input.containsKey("documents")) {
+            return indexBatch(store, clientId, (List<Map<String, Object>>) input.get("documents"));
+        }
+        if (input.containsKey("delete")) {
+            return delete(store, clientId, (List<String>) input.get("delete"));
+        }
+        if (input.containsKey("listPaths")) {
+            return listPaths(store, clientId, (String) input.get("listPaths"), (String) input.get("after"),
+                    input.get("limit") instanceof Number n ? n.intValue() : DEFAULT_LIST_LIMIT);
+        }
         String docPath = (String) input.get("docPath");
-        Map<String, Object> termFreqs = (Map<String, Object>) input.getOrDefault("termFreqs", Map.of());
-
-        // 1) next docId
-        int docId = nextDocId();
-
-        // 2) put doc map
-        ddb.putItem(PutItemRequest.builder()
-                .tableName(DOCMAP)
-                .item(Map.of(
-                        "docId", AttributeValue.builder().n(Integer.toString(docId)).build(),
-                        "path",  AttributeValue.builder().s(docPath).build()
-                ))
-                .build());
-
-        // 3) write postings
-        for (Map.Entry<String, Object> e : termFreqs.entrySet()) {
-            String term = e.getKey();
-            int freq = ((Number) e.getValue()).intValue();
-
-            ddb.putItem(PutItemRequest.builder()
-                    .tableName(TERMIDX)
-                    .item(Map.of(
-                            "term",  AttributeValue.builder().s(term).build(),
-                            "docId", AttributeValue.builder().n(Integer.toString(docId)).build(),
-                            "freq",  AttributeValue.builder().n(Integer.toString(freq)).build()
-                    ))
-                    .build());
-        }
-        return Map.of("status", "OK", "indexed", docPath, "docId", docId);
+        String hash = (String) input.get("hash");
+
+        // 0) a path indexed before keeps its docId; the same content hash means nothing to do
+        long t = System.nanoTime();
+        PathEntry prev = store.findPaths(clientId, List.of(docPath)).get(docPath);
+        t = trace.lap("findPaths", t);
+        if (prev != null && !prev.pending() && hash != null && hash.equals(prev.hash())) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("status", "OK");
+            out.put("action", "unchanged");
+            out.put("indexed", docPath);
+            out.put("docId", prev.docId());
+            return out;
+        }
+        Map<String, int[]> positions = toPositions((Map<String, Object>) input.get("positions"));
+        Map<String, Integer> tf = termFreqsOf(input, positions);
+        t = trace.lap("parse", t);
+
+        // 1) next docId + doc map entry; a pending path entry (an earlier attempt failed) keeps its docId
+        long docId = prev != null ? prev.docId() : store.putDocument(clientId, docPath);
+        t = trace.lap("nextDocId", t);
+        if (prev == null) {
+            // the commit point: from here on a retry finds the docId instead of taking another.
+            // A request that claimed the path since findPaths wins; its docId is the one to finish
+            prev = store.claimPaths(clientId, List.of(new PathEntry(docPath, docId, null, true))).get(docPath);
+            if (prev != null) docId = prev.docId();
+            t = trace.lap("putPaths", t);
+        }
+
+        // 2) write positions (if sent) before postings, so a doc never matches terms it cannot phrase-check
+        WriteStats w = WriteStats.NONE;
+        if (positions != null) {
+            w = store.updatePositions(Map.of(docId, positions));
+            t = trace.lap("positions", t);
+        }
+        w = w.plus(prev == null ? store.updateIndex(docId, tf)
+                : prev.pending() ? store.resumeDocument(docId, tf)
+                : store.updateDocument(docId, tf));
+        t = trace.lap("postings", t);
+
+        // 3) final path entry with the hash, once the postings are in
+        store.putPaths(clientId, List.of(new PathEntry(docPath, docId, hash)));
+        trace.lap("putPaths", t);
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "OK");
+        out.put("action", prev != null && !prev.pending() ? "updated" : "created");
+        out.put("indexed", docPath);
+        out.put("docId", docId);
+        out.put("items", w.items());
+        out.put("batches", w.batches());
+        out.put("retries", w.retries());
+        out.put("generation", w.generation());
+        return out;
     }
 
-    private int nextDocId() {
-        Map<String, AttributeValue> key = Map.of("name", AttributeValue.builder().s("docSeq").build());
-        Map<String, AttributeValueUpdate> upd = Map.of(
-                "value", AttributeValueUpdate.builder()
-                        .value(AttributeValue.builder().n("1").build())
-                        .action(AttributeAction.ADD).build()
-        );
-        UpdateItemResponse resp = ddb.updateItem(UpdateItemRequest.builder()
-                .tableName(COUNTERS)
-                .key(key)
-                .attributeUpdates(upd)
-                .returnValues(ReturnValue.ALL_NEW)
-                .build());
-        return Integer.parseInt(resp.attributes().get("value").n());
+    /**
+     * { "clientId":"...", "documents":[ {"docPath":"...", "termFreqs":{...}}, ... ] }
+     * A document may send "positions" ({term: [offsets]}) instead of or next to termFreqs, or
+     * "termFreqsBin" (base64 TermFreqsCodec) in place of termFreqs.
+     * One docId allocation for the batch, postings merged per term across documents.
+     * Paths indexed before are updated in place (or skipped when their "hash" matches).
+     * A path sent more than once is indexed from its last entry; the earlier ones are "superseded".
+     * New paths get a pending path entry before their postings are written, so a retry of a
+     * failed write reuses the docId ({@link IndexStore#resumeDocument}). A new path that another
+     * request claimed meanwhile is finished under that request's docId ({@link IndexStore#claimPaths}).
+     * Each document gets its own status so the client can retry just the failed ones.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> indexBatch(IndexStore store, String clientId, List<Map<String, Object>> documents) {
+        Trace trace = Trace.current();
+        long t = System.nanoTime();
+        List<Map<String, Object>> statuses = new ArrayList<>(documents.size());
+        List<Map<String, Object>> accepted = new ArrayList<>(documents.size());
+        List<String> paths = new ArrayList<>(documents.size());
+        List<Map<String, Integer>> tfs = new ArrayList<>(documents.size());
+        List<Map<String, int[]>> positions = new ArrayList<>(documents.size());
+        List<String> hashes = new ArrayList<>(documents.size());
+        for (Map<String, Object> doc : documents) {
+            Map<String, Object> st = new LinkedHashMap<>();
+            Object path = doc.get("docPath");
+            st.put("docPath", path);
+            statuses.add(st);
+            try {
+                if (!(path instanceof String p) || p.isBlank()) throw new IllegalArgumentException("missing docPath");
+                Map<String, int[]> pos = toPositions((Map<String, Object>) doc.get("positions"));
+                tfs.add(termFreqsOf(doc, pos));
+                positions.add(pos);
+                hashes.add((String) doc.get("hash"));
+                paths.add(p);
+                accepted.add(st);
+            } catch (RuntimeException e) {
+                st.put("status", "ERROR");
+                st.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+
+        // a path sent twice is indexed once, from its last entry, so it never gets two docIds
+        Map<String, Integer> last = new HashMap<>();
+        for (int i = 0; i < paths.size(); i++) last.put(paths.get(i), i);
+        for (int i = paths.size() - 1; i >= 0 && last.size() < paths.size(); i--) {
+            if (last.get(paths.get(i)) == i) continue;
+            Map<String, Object> st = accepted.remove(i);
+            st.put("status", "OK");
+            st.put("action", "superseded");
+            paths.remove(i);
+            tfs.remove(i);
+            positions.remove(i);
+            hashes.remove(i);
+        }
+        t = trace.lap("parse", t);
+
+        Map<String, PathEntry> known = new HashMap<>(store.findPaths(clientId, paths));
+        t = trace.lap("findPaths", t);
+        List<Integer> fresh = new ArrayList<>(paths.size());
+        List<String> freshPaths = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            if (known.containsKey(paths.get(i))) continue;
+            fresh.add(i);
+            freshPaths.add(paths.get(i));
+        }
+
+        // new paths: one docId allocation, then the pending entries. The claim is the commit point:
+        // from here on a retry finds these docIds instead of taking new ones. A path another request
+        // claimed since findPaths lost the race, and is finished below as a known path under the winner's docId
+        Map<Integer, Long> created = new LinkedHashMap<>();
+        try {
+            long[] ids = store.putDocuments(clientId, freshPaths);
+            t = trace.lap("nextDocId", t);
+            List<PathEntry> pending = new ArrayList<>(ids.length);
+            for (int k = 0; k < ids.length; k++) pending.add(new PathEntry(freshPaths.get(k), ids[k], null, true));
+            Map<String, PathEntry> lost = store.claimPaths(clientId, pending);
+            t = trace.lap("putPaths", t);
+            for (int k = 0; k < ids.length; k++) {
+                PathEntry winner = lost.get(freshPaths.get(k));
+                if (winner != null) known.put(freshPaths.get(k), winner);
+                else created.put(fresh.get(k), ids[k]);
+            }
+        } catch (RuntimeException e) {
+            for (int i : fresh) {
+                accepted.get(i).put("status", "ERROR");
+                accepted.get(i).put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+
+        // known paths: skip or update in place
+        List<PathEntry> written = new ArrayList<>(paths.size());
+        WriteStats w = WriteStats.NONE;
+        for (int i = 0; i < paths.size(); i++) {
+            PathEntry prev = known.get(paths.get(i));
+            if (prev == null) continue;
+            Map<String, Object> st = accepted.get(i);
+            st.put("docId", prev.docId());
+            if (!prev.pending() && hashes.get(i) != null && hashes.get(i).equals(prev.hash())) {
+                st.put("status", "OK");
+                st.put("action", "unchanged");
+                continue;
+            }
+            try {
+                if (positions.get(i) != null) w = w.plus(store.updatePositions(Map.of(prev.docId(), positions.get(i))));
+                w = w.plus(prev.pending() ? store.resumeDocument(prev.docId(), tfs.get(i)) : store.updateDocument(prev.docId(), tfs.get(i)));
+                st.put("status", "OK");
+                st.put("action", prev.pending() ? "created" : "updated");
+                written.add(new PathEntry(paths.get(i), prev.docId(), hashes.get(i)));
+            } catch (RuntimeException e) {
+                st.put("status", "ERROR");
+                st.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        t = trace.lap("update", t);
+
+        // the documents this request claimed, with their postings merged per term
+        try {
+            Map<Long, Map<String, Integer>> docs = new LinkedHashMap<>();
+            Map<Long, Map<String, int[]>> docPositions = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Long> c : created.entrySet()) {
+                int i = c.getKey();
+                docs.put(c.getValue(), tfs.get(i));
+                if (positions.get(i) != null) docPositions.put(c.getValue(), positions.get(i));
+            }
+            if (!docPositions.isEmpty()) {
+                w = w.plus(store.updatePositions(docPositions));
+                t = trace.lap("positions", t);
+            }
+            if (!docs.isEmpty()) w = w.plus(store.updateIndexBatch(docs));
+            t = trace.lap("postings", t);
+            for (Map.Entry<Integer, Long> c : created.entrySet()) {
+                int i = c.getKey();
+                accepted.get(i).put("status", "OK");
+                accepted.get(i).put("action", "created");
+                accepted.get(i).put("docId", c.getValue());
+                written.add(new PathEntry(paths.get(i), c.getValue(), hashes.get(i)));
+            }
+        } catch (RuntimeException e) {
+            for (int i : created.keySet()) {
+                accepted.get(i).put("status", "ERROR");
+                accepted.get(i).put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        store.putPaths(clientId, written);
+        trace.lap("putPaths", t);
+
+        long ok = statuses.stream().filter(st -> "OK".equals(st.get("status"))).count();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", ok == statuses.size() ? "OK" : ok == 0 ? "ERROR" : "PARTIAL");
+        out.put("indexed", ok);
+        out.put("failed", statuses.size() - ok);
+        out.put("items", w.items());
+        out.put("batches", w.batches());
+        out.put("retries", w.retries());
+        out.put("generation", w.generation());
+        out.put("documents", statuses);
+        return out;
+    }
+
+    /** { "clientId":"...", "delete": ["a.txt", ...] } removes each document's postings, positions and rows. */
+    private static Map<String, Object> delete(IndexStore store, String clientId, List<String> paths) {
+        Map<String, PathEntry> known = store.findPaths(clientId, paths);
+        List<Map<String, Object>> statuses = new ArrayList<>(paths.size());
+        WriteStats w = WriteStats.NONE;
+        int deleted = 0, missing = 0;
+        for (String path : paths) {
+            Map<String, Object> st = new LinkedHashMap<>();
+            st.put("docPath", path);
+            statuses.add(st);
+            PathEntry e = known.get(path);
+            if (e == null) {
+                st.put("status", "NOT_FOUND");
+                missing++;
+                continue;
+            }
+            st.put("docId", e.docId());
+            try {
+                w = w.plus(store.deleteDocument(clientId, e));
+                st.put("status", "OK");
+                deleted++;
+            } catch (RuntimeException ex) {
+                st.put("status", "ERROR");
+                st.put("error", ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        int failed = paths.size() - deleted - missing;
+        out.put("status", failed == 0 ? "OK" : failed == paths.size() ? "ERROR" : "PARTIAL");
+        out.put("deleted", deleted);
+        out.put("notFound", missing);
+        out.put("items", w.items());
+        out.put("batches", w.batches());
+        out.put("retries", w.retries());
+        out.put("generation", w.generation());
+        out.put("documents", statuses);
+        return out;
+    }
+
+    /**
+     * { "clientId":"...", "listPaths":"docs/", "after":"docs/m.txt", "limit":1000 } pages through
+     * the indexed paths under a prefix with their content hashes; "next" is set while more remain.
+     */
+    private static Map<String, Object> listPaths(IndexStore store, String clientId, String prefix, String after, int limit) {
+        limit = Math.max(1, Math.min(limit, MAX_LIST_LIMIT));
+        List<PathEntry> entries = store.listPaths(clientId, prefix == null ? "" : prefix, after, limit);
+        List<Map<String, Object>> rows = new ArrayList<>(entries.size());
+        for (PathEntry e : entries) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("path", e.path());
+            row.put("docId", e.docId());
+            if (e.hash() != null) row.put("hash", e.hash());
+            rows.add(row);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "OK");
+        out.put("paths", rows);
+        out.put("count", rows.size());
+        if (rows.size() == limit) out.put("next", entries.get(entries.size() - 1).path());
+        return out;
+    }
+
+    /** { "clientId":"...", "compact": ["the","and"] } repacks the tenant's postings of those terms into full blocks. */
+    private static Map<String, Object> compact(IndexStore store, List<String> terms) {
+        WriteStats w = WriteStats.NONE;
+        for (String term : terms) w = w.plus(store.compact(term));
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "OK");
+        out.put("compacted", terms.size());
+        out.put("items", w.items());
+        out.put("batches", w.batches());
+        out.put("retries", w.retries());
+        return out;
+    }
+
+    /**
+     * {"term": [0, 7, ...]} as sent in JSON, without stopwords; null when the document has no
+     * positions. Offsets are kept as sent, so phrases see a gap where a stopword was.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, int[]> toPositions(Map<String, Object> positions) {
+        if (positions == null) return null;
+        Map<String, int[]> out = new HashMap<>(positions.size() * 2);
+        for (Map.Entry<String, Object> e : stopwords.strip(positions).entrySet()) {
+            int[] p = ((List<Number>) e.getValue()).stream().mapToInt(Number::intValue).toArray();
+            Arrays.sort(p);
+            out.put(e.getKey(), p);
+        }
+        IndexStores.requireTerms(out.keySet());
+        return out;
+    }
+
+    /**
+     * A document's term freqs without stopwords: "termFreqsBin" (base64 {@link TermFreqsCodec})
+     * when sent, else "termFreqs", else the counts of its positions. A term holding a reserved
+     * '#' or '|' fails the document.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Integer> termFreqsOf(Map<String, Object> doc, Map<String, int[]> positions) {
+        Object bin = doc.get("termFreqsBin");
+        if (bin != null) {
+            if (!(bin instanceof String s)) throw new IllegalArgumentException("termFreqsBin must be a base64 string");
+            Map<String, Integer> tf = stopwords.strip(TermFreqsCodec.fromBase64(s));
+            IndexStores.requireTerms(tf.keySet());
+            return tf;
+        }
+        if (positions != null && !doc.containsKey("termFreqs")) return freqsOf(positions);
+        Map<String, Integer> tf = toTermFreqs((Map<String, Object>) doc.getOrDefault("termFreqs", Map.of()));
+        IndexStores.requireTerms(tf.keySet());
+        return tf;
+    }
+
+    private static Map<String, Integer> freqsOf(Map<String, int[]> positions) {
+        Map<String, Integer> tf = new HashMap<>(positions.size() * 2);
+        positions.forEach((t, p) -> tf.put(t, p.length));
+        return tf;
+    }
+
+    private Map<String, Integer> toTermFreqs(Map<String, Object> termFreqs) {
+        Map<String, Integer> tf = new HashMap<>(termFreqs.size() * 2);
+        for (Map.Entry<String, Object> e : stopwords.strip(termFreqs).entrySet()) {
+            tf.put(e.getKey(), ((Number) e.getValue()).intValue());
+        }
+        return tf;
     }
 }
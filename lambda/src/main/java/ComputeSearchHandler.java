@@ -111,93 +111,280 @@ package lambda;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.*;
+import core.CorpusStats;
+import core.IndexStore;
+import core.Query;
+import core.QueryEvaluator;
+import core.Scoring;
+import core.Stopwords;
+import core.TermDictionary;
+import core.TopK;
+import core.Trace;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ComputeSearchHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
 
-    private final DynamoDbClient ddb =
-            DynamoDbClient.builder()
-                    .region(Region.of(System.getenv().getOrDefault("AWS_REGION", "us-east-1")))
-                    .credentialsProvider(DefaultCredentialsProvider.create())
-                    .build();
+    static final int DEFAULT_TOP_K = 10;
+    static final int MAX_TOP_K = 1000;
+    /** terms a prefix, wildcard or fuzzy pattern may expand to ("maxExpansions") */
+    static final int DEFAULT_EXPANSIONS = 50;
+    static final int MAX_EXPANSIONS = 500;
+    /** rows per chunk of a streamed search ("chunkSize"), at most MAX_TOP_K */
+    static final int DEFAULT_CHUNK = 100;
+    /** how long a stream's ranking snapshot is kept for its cursor */
+    static final long STREAM_TTL_MS = 15 * 60_000;
+    /** "status" of a continuation whose snapshot is gone: the stream has to be started again */
+    static final String STALE_CURSOR = "STALE_CURSOR";
+
+    // backend chosen by INDEX_STORE (dynamo | memory | file)
+    private final IndexStore store;
+    // never indexed, so dropped from queries rather than matched against nothing
+    private final Stopwords stopwords;
+
+    public ComputeSearchHandler() {
+        this(IndexStores.fromEnv());
+        Priming.register();
+    }
 
-    private final String DOCMAP = System.getenv("TABLE_DOCMAP");   // FRE_DocumentMap
-    private final String TERMIDX = System.getenv("TABLE_TERMIDX"); // FRE_TermIndex
+    ComputeSearchHandler(IndexStore store) {
+        this(store, IndexStores.stopwords());
+    }
+
+    ComputeSearchHandler(IndexStore store, Stopwords stopwords) {
+        this.store = store;
+        this.stopwords = stopwords;
+    }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Map<String, Object> handleRequest(Map<String, Object> input, Context ctx) {
-        List<String> terms = (List<String>) input.getOrDefault("terms", List.of());
-
-        // 1) accumulate scores per docId
-        Map<Integer, Double> scores = new HashMap<>();
-        for (String term : terms) {
-            QueryRequest q = QueryRequest.builder()
-                    .tableName(TERMIDX)
-                    .keyConditionExpression("term = :t")
-                    .expressionAttributeValues(Map.of(":t", AttributeValue.builder().s(term).build()))
-                    .build();
-
-            QueryResponse qr = ddb.query(q);
-            for (Map<String, AttributeValue> item : qr.items()) {
-                int docId = Integer.parseInt(item.get("docId").n());
-                double freq = item.containsKey("freq")
-                        ? Double.parseDouble(item.get("freq").n())
-                        : 1.0;
-                scores.merge(docId, freq, Double::sum);
-            }
+        Trace trace = Tracing.begin(input, ctx);
+        String operation = Boolean.TRUE.equals(input.get("checkGeneration")) ? "checkGeneration"
+                : input.get("query") != null ? "query" : "search";
+        try {
+            return Tracing.end(trace, ctx, "ComputeSearchHandler", operation, handle(input, trace));
+        } catch (RuntimeException e) {
+            Tracing.fail(trace, ctx, "ComputeSearchHandler", operation, e);
+            throw e;
         }
+    }
 
-        // 2) rank by score
-        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
-        ranked.sort((a,b) -> Double.compare(b.getValue(), a.getValue()));
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> handle(Map<String, Object> input, Trace trace) {
+        // a search only ever reads the caller's own tenant
+        IndexStore store = this.store.forTenant(IndexStores.clientId(this.store, input.get("clientId")));
 
-        if (ranked.isEmpty()) {
-            return Map.of("results", List.of(), "count", 0);
+        // { "checkGeneration": true } -> cheap freshness check for client-side result caches
+        if (Boolean.TRUE.equals(input.get("checkGeneration"))) {
+            return Map.of("generation", store.generation());
         }
 
-        // 3) batch-get paths from DocumentMap (alias 'path' because it's reserved)
-        List<Map<String, AttributeValue>> keys = ranked.stream()
-                .map(e -> Map.of("docId", AttributeValue.builder().n(Integer.toString(e.getKey())).build()))
-                .collect(Collectors.toList());
-
-        BatchGetItemRequest batchReq = BatchGetItemRequest.builder()
-                .requestItems(Map.of(
-                        DOCMAP, KeysAndAttributes.builder()
-                                .keys(keys)
-                                .projectionExpression("#p, docId")
-                                .expressionAttributeNames(Map.of("#p", "path"))
-                                .build()
-                ))
-                .build();
-
-        BatchGetItemResponse batchResp = ddb.batchGetItem(batchReq);
-        List<Map<String, AttributeValue>> docs = batchResp.responses().getOrDefault(DOCMAP, List.of());
-
-        Map<Integer, String> idToPath = new HashMap<>();
-        for (Map<String, AttributeValue> item : docs) {
-            int id = Integer.parseInt(item.get("docId").n());
-            String path = item.containsKey("path") ? item.get("path").s() : ("docId:" + id);
-            idToPath.put(id, path);
+        List<String> terms = IndexStores.requireTerms((List<String>) input.getOrDefault("terms", List.of()));
+        String queryText = (String) input.get("query");
+        int topK = Math.min(MAX_TOP_K, Math.max(1, intParam(input, "topK", DEFAULT_TOP_K)));
+        int offset = Math.max(0, intParam(input, "offset", 0));
+        Scoring scoring = Scoring.parse((String) input.get("scoring"));
+        // { "stream": true } starts a cursor-paged search, { "cursor": "..." } continues it
+        String cursorToken = (String) input.get("cursor");
+        SearchCursor cursor = cursorToken == null || cursorToken.isEmpty() ? null : SearchCursor.parse(cursorToken);
+        boolean stream = cursor != null || Boolean.TRUE.equals(input.get("stream"));
+        int chunkSize = Math.min(MAX_TOP_K, Math.max(1, intParam(input, "chunkSize", DEFAULT_CHUNK)));
+        if (cursor != null) return nextChunk(store, cursor, trace);
+
+        // 1) accumulate scores per docId, all terms fetched concurrently
+        // read before the postings: a concurrent write can only make the tag older, never newer
+        long t = System.nanoTime();
+        CorpusStats stats = store.corpusStats();
+        // a stream is ranked once, so it is tagged with a generation read consistently (unlike
+        // the cached stats); its later chunks page through that ranking whatever is written since
+        long generation = stream ? store.generation() : stats.generation();
+        t = trace.lap("stats", t);
+        Query query = queryText != null ? stopwords.strip(Query.parse(queryText)) : null;
+        List<String> queryTerms = queryText == null ? stopwords.strip(terms) : null;
+        t = trace.lap("parse", t);
+        Map<String, List<String>> expansions = new LinkedHashMap<>();
+        List<String> truncated = new ArrayList<>();
+        if (query != null && query.hasPatterns()) {
+            // "child*", "ch?ld", "child~1" -> the dictionary terms they match, before any postings fetch
+            TermDictionary dictionary = store.termDictionary();
+            int limit = Math.min(MAX_EXPANSIONS, Math.max(1, intParam(input, "maxExpansions", DEFAULT_EXPANSIONS)));
+            query = query.expand(p -> {
+                TermDictionary.Expansion e = dictionary.expand(p, limit);
+                expansions.put(p.text(), e.terms());
+                if (e.truncated()) truncated.add(p.text());
+                return e.terms();
+            });
+            t = trace.lap("expand", t);
+        }
+        Function<String, List<long[]>> lookup = store::lookupIndex;
+        Map<Long, Double> scores = queryText == null ? accumulate(lookup, queryTerms, scoring, stats)
+                : query == null ? Map.of()
+                : evaluate(store, lookup, query, scoring, stats);
+        // postings fetches included; the trace's ddb.* counters say how much of it was DynamoDB
+        t = trace.lap("merge", t);
+
+        // 2) keep only the requested page: bounded heap of offset + topK entries. A stream ranks
+        // every match once and keeps all but its first chunk as pages for the cursor to read
+        List<Map.Entry<Long, Double>> page;
+        SearchCursor next = null;
+        if (stream) {
+            List<Map.Entry<Long, Double>> ranked = TopK.select(scores, scores.size());
+            page = ranked.size() > chunkSize ? ranked.subList(0, chunkSize) : ranked;
+            if (ranked.size() > chunkSize) {
+                List<byte[]> pages = new ArrayList<>((ranked.size() - 1) / chunkSize);
+                for (int from = chunkSize; from < ranked.size(); from += chunkSize) {
+                    pages.add(SearchCursor.encodePage(ranked.subList(from, Math.min(from + chunkSize, ranked.size()))));
+                }
+                String id = UUID.randomUUID().toString().replace("-", "");
+                store.putSnapshot(id, pages, STREAM_TTL_MS);
+                next = new SearchCursor(id, generation, chunkSize, ranked.size(), 1);
+            }
+        } else {
+            List<Map.Entry<Long, Double>> ranked = TopK.select(scores, (int) Math.min((long) offset + topK, scores.size()));
+            page = offset < ranked.size() ? ranked.subList(offset, ranked.size()) : List.of();
+        }
+        t = trace.lap("sort", t);
+
+        // 3) resolve paths for the returned page only, 4) build results (unique, sorted)
+        List<Map<String, Object>> results = rows(store, page);
+        t = trace.lap("batchGet", t);
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("results", results);
+        out.put("count", results.size());
+        out.put("total", scores.size());
+        if (stream) {
+            out.put("emitted", results.size());
+            out.put("chunkSize", chunkSize);
+            // absent on the last chunk
+            if (next != null) out.put("cursor", next.encode());
+        } else {
+            out.put("offset", offset);
+            out.put("topK", topK);
         }
+        out.put("scoring", scoring.name().toLowerCase());
+        if (queryText != null) out.put("query", queryText);
+        if (!expansions.isEmpty()) out.put("expansions", expansions);
+        if (!truncated.isEmpty()) out.put("truncatedExpansions", truncated);
+        out.put("generation", generation);
+        Map<String, Object> cache = store.cacheStats();
+        if (!cache.isEmpty()) out.put("postingsCache", cache);
+        trace.lap("build", t);
+        return out;
+    }
 
-        // 4) build results (unique, sorted)
-        List<Map<String, Object>> results = new ArrayList<>();
-        for (Map.Entry<Integer, Double> e : ranked) {
-            int docId = e.getKey();
-            String path = idToPath.getOrDefault(docId, "docId:" + docId);
+    /**
+     * A later chunk of a stream: one page of the ranking its first chunk kept, with paths
+     * resolved now. A snapshot that has expired, or that a store this container cannot see
+     * kept, gives status STALE_CURSOR: the caller starts the stream again instead of getting
+     * a function error.
+     */
+    private static Map<String, Object> nextChunk(IndexStore store, SearchCursor cursor, Trace trace) {
+        long t = System.nanoTime();
+        byte[] data = store.snapshotPage(cursor.snapshot(), cursor.page());
+        t = trace.lap("snapshot", t);
+        Map<String, Object> out = new LinkedHashMap<>();
+        if (data == null) {
+            out.put("status", STALE_CURSOR);
+            out.put("error", "the stream's snapshot has expired; start the stream again");
+            out.put("emitted", cursor.emitted());
+            out.put("generation", cursor.generation());
+            return out;
+        }
+        List<Map<String, Object>> results = rows(store, SearchCursor.decodePage(data));
+        t = trace.lap("batchGet", t);
+        SearchCursor next = cursor.next();
+        out.put("results", results);
+        out.put("count", results.size());
+        out.put("total", cursor.total());
+        out.put("emitted", cursor.emitted() + results.size());
+        out.put("chunkSize", cursor.chunkSize());
+        // absent on the last chunk
+        if (next != null) out.put("cursor", next.encode());
+        out.put("generation", cursor.generation());
+        trace.lap("build", t);
+        return out;
+    }
+
+    /** Result rows for a ranked page, its paths fetched in one batch; a doc without one shows as "docId:N". */
+    private static List<Map<String, Object>> rows(IndexStore store, List<Map.Entry<Long, Double>> page) {
+        List<Long> ids = new ArrayList<>(page.size());
+        for (Map.Entry<Long, Double> e : page) ids.add(e.getKey());
+        Map<Long, String> idToPath = store.getDocuments(ids);
+        List<Map<String, Object>> results = new ArrayList<>(page.size());
+        for (Map.Entry<Long, Double> e : page) {
+            long docId = e.getKey();
             Map<String, Object> row = new LinkedHashMap<>();
-            row.put("path", path);
+            row.put("path", idToPath.getOrDefault(docId, "docId:" + docId));
             row.put("score", e.getValue());
             results.add(row);
         }
+        return results;
+    }
+
+    /**
+     * Fetches each distinct term's postings on its own virtual thread and merges into one
+     * concurrent map, so latency tracks the slowest term rather than the sum of all terms.
+     * A term repeated in the query still counts once per occurrence.
+     */
+    private static Map<Long, Double> accumulate(Function<String, List<long[]>> lookup, List<String> terms, Scoring scoring, CorpusStats stats) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String t : terms) weights.merge(t, 1, Integer::sum);
+
+        Map<Long, Double> scores = new ConcurrentHashMap<>();
+        forEachConcurrently(weights.keySet(), t -> merge(lookup, scores, t, weights.get(t), scoring, stats));
+        return scores;
+    }
 
-        return Map.of("results", results, "count", results.size());
+    /**
+     * { "query": "cat AND (dog OR \"red fox\") NOT bird" }: every term is fetched concurrently
+     * up front, then the boolean structure is evaluated in memory (core.QueryEvaluator) and only
+     * the matching docs are scored. Patterns are already expanded to ORs of their terms.
+     */
+    private static Map<Long, Double> evaluate(IndexStore store, Function<String, List<long[]>> lookup, Query query, Scoring scoring, CorpusStats stats) {
+        Map<String, List<long[]>> postings = new ConcurrentHashMap<>();
+        forEachConcurrently(query.allTerms().keySet(), t -> postings.put(t, lookup.apply(t)));
+
+        QueryEvaluator eval = new QueryEvaluator(postings::get, store::lookupPositions);
+        return eval.score(query, eval.evaluate(query), scoring, stats);
+    }
+
+    /** Runs task for each term on its own virtual thread; a single term runs inline. */
+    private static void forEachConcurrently(Collection<String> terms, Consumer<String> task) {
+        if (terms.size() <= 1) {
+            terms.forEach(task);
+            return;
+        }
+        List<Future<?>> pending = new ArrayList<>(terms.size());
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String t : terms) pending.add(pool.submit(() -> task.accept(t)));
+            for (Future<?> f : pending) f.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while fetching postings", e);
+        }
+    }
+
+    private static int intParam(Map<String, Object> input, String name, int dflt) {
+        Object v = input.get(name);
+        return v instanceof Number n ? n.intValue() : dflt;
+    }
+
+    /** df is the full postings count, so idf costs no extra round trip. */
+    private static void merge(Function<String, List<long[]>> lookup, Map<Long, Double> scores, String term, int weight, Scoring scoring, CorpusStats stats) {
+        List<long[]> postings = lookup.apply(term);
+        long df = postings.size();
+        for (long[] posting : postings) {
+            scores.merge(posting[0], scoring.score(posting[1], posting[2], df, stats) * weight, Double::sum);
+        }
     }
 }
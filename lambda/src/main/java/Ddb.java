@@ -0,0 +1,37 @@
+package lambda;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+/**
+ * One DynamoDbClient per container, built on first use and shared by every handler.
+ * Tuned for Lambda: the URL-connection HTTP client (no Apache/Netty pools to start), region
+ * taken straight from AWS_REGION, and credentials from the env vars Lambda injects, so the SDK
+ * skips its region and credential provider chains.
+ */
+final class Ddb {
+    private Ddb() {}
+
+    private static final class Holder {
+        static final DynamoDbClient CLIENT = DynamoDbClient.builder()
+                .region(Region.of(System.getenv().getOrDefault("AWS_REGION", "us-east-1")))
+                .credentialsProvider(credentials())
+                .httpClient(UrlConnectionHttpClient.builder().build())
+                .build();
+    }
+
+    static DynamoDbClient client() {
+        return Holder.CLIENT;
+    }
+
+    private static AwsCredentialsProvider credentials() {
+        // inside Lambda the role's keys are always in the environment; elsewhere use the full chain
+        return System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null
+                ? EnvironmentVariableCredentialsProvider.create()
+                : DefaultCredentialsProvider.create();
+    }
+}
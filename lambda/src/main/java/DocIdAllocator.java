@@ -0,0 +1,72 @@
+package lambda;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out document IDs from a block leased with one {@code UpdateItem ADD blockSize}
+ * on the counter row, so a warm container pays one round trip per block instead of per document.
+ * IDs are unique across containers; unused IDs of a block are simply skipped (gaps are fine).
+ */
+final class DocIdAllocator {
+    private final DynamoDbClient ddb;
+    private final String table;
+    private final String counter;
+    private final long blockSize;
+
+    /** [cursor, end] of the current lease; cursor runs past end once the block is used up */
+    private record Block(AtomicLong cursor, long end) {}
+
+    private volatile Block block = new Block(new AtomicLong(1), 0);
+
+    DocIdAllocator(DynamoDbClient ddb, String table, String counter, long blockSize) {
+        this.ddb = ddb;
+        this.table = table;
+        this.counter = counter;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    long next() {
+        return nextRange(1);
+    }
+
+    /** Reserves n consecutive IDs and returns the first; a batch larger than a block gets its own lease. */
+    long nextRange(int n) {
+        while (true) {
+            Block b = block;
+            long first = b.cursor().getAndAdd(n);
+            if (first + n - 1 <= b.end()) return first;
+            synchronized (this) {
+                if (block == b) block = lease(Math.max(blockSize, n));
+            }
+        }
+    }
+
+    /** Abandons the rest of the current lease; the next call leases a fresh block. */
+    void discard() {
+        synchronized (this) {
+            block = new Block(new AtomicLong(1), 0);
+        }
+    }
+
+    private Block lease(long n) {
+        Map<String, AttributeValue> key = Map.of("name", AttributeValue.builder().s(counter).build());
+        Map<String, AttributeValueUpdate> upd = Map.of(
+                "value", AttributeValueUpdate.builder()
+                        .value(AttributeValue.builder().n(Long.toString(n)).build())
+                        .action(AttributeAction.ADD).build()
+        );
+        UpdateItemResponse resp = ddb.updateItem(UpdateItemRequest.builder()
+                .tableName(table)
+                .key(key)
+                .attributeUpdates(upd)
+                .returnValues(ReturnValue.UPDATED_NEW)
+                .build());
+        // counter holds the last ID handed out by anyone, so our range is (value - n, value]
+        long end = Long.parseLong(resp.attributes().get("value").n());
+        return new Block(new AtomicLong(end - n + 1), end);
+    }
+}
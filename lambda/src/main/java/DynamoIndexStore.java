@@ -0,0 +1,1304 @@
+package lambda;
+
+import core.CorpusStats;
+import core.IndexStore;
+import core.PathEntry;
+import core.PostingsCodec;
+import core.TermDictionary;
+import core.TermFreqDiff;
+import core.TermFreqsCodec;
+import core.WriteStats;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * IndexStore over FRE_DocumentMap / FRE_TermIndex / FRE_Counters. With tenant isolation each
+ * clientId is a namespace of its own: TermIndex partition keys are "clientId|term", DocumentMap
+ * is keyed (clientId, docId), and docIds and corpus statistics come from per-tenant counter
+ * rows ("docSeq#clientId", "corpus#clientId"), so no single counter row is shared by all writers.
+ * Terms whose document frequency passes HOT_TERM_DF are sharded: their new postings go to
+ * "term#shardN" partitions picked by docId, and reads query the term and all its shards at once.
+ * The term dictionary behind prefix, wildcard and fuzzy queries lives in TermIndex too: every
+ * index write adds a delta row of its new terms, which containers merge into base snapshots.
+ */
+public class DynamoIndexStore implements IndexStore {
+    static final int MAX_BATCH_GET = 100;
+    static final long CORPUS_STATS_TTL_MS = 10_000;
+    static final String POSITIONS_SUFFIX = "#pos";
+    /** forward-index rows (docId -> TermFreqsCodec bytes) share TermIndex under "#fwd0" .. "#fwd15", see forwardRow */
+    static final String FORWARD_TERM = "#fwd";
+    static final int FORWARD_SHARDS = 16;
+    static final int FORWARD_CHUNK_BYTES = 350_000;
+    /** items read per page while looking for the block that holds a docId */
+    static final int LOCATE_PAGE = 8;
+    static final int LOCATE_PARALLELISM = 8;
+    /** version of a posting block, bumped by every read-modify-write; blocks written in one go have none */
+    static final String BLOCK_VERSION = "v";
+    /** items one compaction transaction replaces; with the blocks they become, within TransactWriteItems' 100 */
+    static final int COMPACT_WINDOW = 48;
+    /** between clientId and term in TermIndex keys; neither tokens nor clientIds contain it */
+    static final char TENANT_SEPARATOR = '|';
+    /** the DocumentMap partition key of documents that belong to no tenant */
+    static final String NO_TENANT = "-";
+    /** FRE_PathIndex attributes read back ('path' is a reserved word) */
+    private static final Map<String, String> PATH_NAMES = Map.of("#p", "path", "#h", "hash", "#pe", "pending");
+    /** a hot term's postings are spread over "term#shard0" .. "term#shard{N-1}" by docId */
+    static final String SHARD_SUFFIX = "#shard";
+    /** a batch needs this many documents before the share of them holding a term says anything about its df */
+    static final int HOT_SAMPLE_DOCS = 16;
+    /** term dictionary deltas, keyed generation * DICT_PARTS + part, and base snapshots (chunked like forward rows) */
+    static final String DICT_TERM = "#dict";
+    static final String DICT_BASE_TERM = "#dictbase";
+    static final int DICT_PARTS = 64;
+    /** a container that has merged this many deltas past its base writes a new base */
+    static final int DICT_MERGE_DELTAS = 64;
+    /** a delta may land after those of later generations; reads look back this far for it */
+    static final long DICT_LOOKBACK = 32L * DICT_PARTS;
+    /** terms this container wrote deltas for, so a warm indexer only writes terms new to it */
+    static final int DICT_RECENT_MAX = 100_000;
+    /**
+     * a streamed search's ranking pages, "#snap.{id}" keyed by page number; "expiresAt" (epoch
+     * seconds) is the table's TTL attribute, and checked on read since TTL deletes lag
+     */
+    static final String SNAPSHOT_TERM = "#snap.";
+
+    // N and total tokens change slowly; a warm container re-reads them at most every CORPUS_STATS_TTL_MS
+    private volatile CorpusStats corpusCache;
+    private volatile long corpusLoadedAt;
+
+    private final DynamoDbClient ddb;
+    private final String docMap;
+    private final String termIdx;
+    private final String counters;
+    // FRE_PathIndex (clientId, path) -> docId, hash; null disables path dedup
+    private final String pathIdx;
+    private final BatchWriter writer;
+    private final DocIdAllocator docIds;
+    // POSTINGS_FORMAT=blocks: new postings go out as PostingsCodec blocks in a binary "B" attribute
+    private final boolean blockPostings;
+    // false keeps the single-tenant layout: DocumentMap keyed by docId alone, one global term space
+    private final boolean isolateTenants;
+    private final long docIdBlock;
+    // null on the store that owns the tenant views
+    private final String tenant;
+    private final String termPrefix;
+    private final String corpusRow;
+    // TERM_SHARDS partitions per hot term; HOT_TERM_DF is the df that makes a term hot (0 = never)
+    private final int termShards;
+    private final long hotTermDf;
+    // Counters row whose "terms" string set lists the hot terms; re-read at most every CORPUS_STATS_TTL_MS
+    private final String hotRow;
+    private volatile Set<String> hotTerms = Set.of();
+    private volatile long hotLoadedAt;
+    private final DynamoIndexStore root;
+    private final Map<String, DynamoIndexStore> tenants;
+    // the tenant's term dictionary: loaded by the first expanding search, then topped up with new deltas
+    private final Object dictLock = new Object();
+    private volatile TermDictionary dict;
+    private volatile long dictLoadedAt;
+    private long dictBase;
+    private long dictKey;
+    private int dictDeltas;
+    private long dictSeenGeneration;
+    private boolean dictSettled;
+    private final Set<String> dictRecent = ConcurrentHashMap.newKeySet();
+
+    public DynamoIndexStore(DynamoDbClient ddb, String docMap, String termIdx, String counters, String pathIdx,
+                            long docIdBlock, boolean blockPostings, boolean isolateTenants,
+                            int termShards, long hotTermDf) {
+        this.ddb = ddb;
+        this.blockPostings = blockPostings;
+        this.isolateTenants = isolateTenants;
+        this.docMap = docMap;
+        this.termIdx = termIdx;
+        this.counters = counters;
+        this.pathIdx = pathIdx;
+        this.docIdBlock = docIdBlock;
+        this.writer = new BatchWriter(ddb);
+        this.docIds = new DocIdAllocator(ddb, counters, "docSeq", docIdBlock);
+        this.tenant = null;
+        this.termPrefix = "";
+        this.corpusRow = "corpus";
+        this.termShards = termShards;
+        this.hotTermDf = hotTermDf;
+        this.hotRow = "hotTerms";
+        this.root = this;
+        this.tenants = new ConcurrentHashMap<>();
+    }
+
+    private DynamoIndexStore(DynamoIndexStore root, String tenant) {
+        this.ddb = root.ddb;
+        this.blockPostings = root.blockPostings;
+        this.isolateTenants = true;
+        this.docMap = root.docMap;
+        this.termIdx = root.termIdx;
+        this.counters = root.counters;
+        this.pathIdx = root.pathIdx;
+        this.docIdBlock = root.docIdBlock;
+        this.writer = root.writer;
+        this.docIds = new DocIdAllocator(ddb, counters, "docSeq#" + tenant, docIdBlock);
+        this.tenant = tenant;
+        this.termPrefix = tenant + TENANT_SEPARATOR;
+        this.corpusRow = "corpus#" + tenant;
+        this.termShards = root.termShards;
+        this.hotTermDf = root.hotTermDf;
+        this.hotRow = "hotTerms#" + tenant;
+        this.root = root;
+        this.tenants = null;
+    }
+
+    @Override
+    public IndexStore forTenant(String clientId) {
+        if (!root.isolateTenants || clientId == null) return root;
+        return root.tenants.computeIfAbsent(clientId, c -> new DynamoIndexStore(root, c));
+    }
+
+    /** The isolated key schema has no room for the shared index (DocumentMap is keyed by clientId too). */
+    @Override
+    public boolean requiresTenant() {
+        return isolateTenants;
+    }
+
+    private AttributeValue termAttr(String term) {
+        return AttributeValue.builder().s(termPrefix + term).build();
+    }
+
+    private Map<String, AttributeValue> docKey(long docId) {
+        AttributeValue id = AttributeValue.builder().n(Long.toString(docId)).build();
+        if (!isolateTenants) return Map.of("docId", id);
+        return Map.of(
+                "clientId", AttributeValue.builder().s(tenant == null ? NO_TENANT : tenant).build(),
+                "docId", id);
+    }
+
+    @Override
+    public long putDocument(String clientId, String relativePath) {
+        long docId = docIds.next();
+        Map<String, AttributeValue> item = new HashMap<>(docKey(docId));
+        item.put("path", AttributeValue.builder().s(relativePath).build());
+        if (!isolateTenants && clientId != null) item.put("clientId", AttributeValue.builder().s(clientId).build());
+        ddb.putItem(PutItemRequest.builder().tableName(docMap).item(item).build());
+        return docId;
+    }
+
+    @Override
+    public long[] putDocuments(String clientId, List<String> relativePaths) {
+        int n = relativePaths.size();
+        if (n == 0) return new long[0];
+        long first = docIds.nextRange(n);
+        long[] ids = new long[n];
+        List<Map<String, AttributeValue>> items = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids[i] = first + i;
+            Map<String, AttributeValue> item = new HashMap<>(docKey(ids[i]));
+            item.put("path", AttributeValue.builder().s(relativePaths.get(i)).build());
+            if (!isolateTenants && clientId != null) item.put("clientId", AttributeValue.builder().s(clientId).build());
+            items.add(item);
+        }
+        writer.write(docMap, items);
+        return ids;
+    }
+
+    @Override
+    public String getDocument(long docId) {
+        // alias 'path' because it's reserved
+        Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                .tableName(docMap)
+                .key(docKey(docId))
+                .projectionExpression("#p")
+                .expressionAttributeNames(Map.of("#p", "path"))
+                .build()).item();
+        return (item != null && item.containsKey("path")) ? item.get("path").s() : null;
+    }
+
+    @Override
+    public Map<Long, String> getDocuments(Collection<Long> ids) {
+        if (ids.isEmpty()) return Map.of();
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(ids.size());
+        for (long id : ids) keys.add(docKey(id));
+
+        Map<Long, String> out = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(docMap, keys, "#p, docId", Map.of("#p", "path"))) {
+            if (item.containsKey("path")) out.put(Long.parseLong(item.get("docId").n()), item.get("path").s());
+        }
+        return out;
+    }
+
+    /** BatchGetItem takes at most 100 keys; UnprocessedKeys are retried with backoff. */
+    private List<Map<String, AttributeValue>> batchGet(String table, List<Map<String, AttributeValue>> keys,
+                                                       String projection, Map<String, String> names) {
+        List<Map<String, AttributeValue>> out = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i += MAX_BATCH_GET) {
+            List<Map<String, AttributeValue>> todo = keys.subList(i, Math.min(i + MAX_BATCH_GET, keys.size()));
+            for (int attempt = 0; !todo.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    if (attempt > Backoff.MAX_RETRIES) {
+                        throw new IllegalStateException(todo.size() + " unprocessed keys in " + table
+                                + " after " + Backoff.MAX_RETRIES + " retries");
+                    }
+                    Backoff.pause(attempt - 1);
+                }
+                KeysAndAttributes.Builder ka = KeysAndAttributes.builder().keys(todo).projectionExpression(projection);
+                if (!names.isEmpty()) ka.expressionAttributeNames(names);
+                BatchGetItemResponse resp = ddb.batchGetItem(BatchGetItemRequest.builder()
+                        .requestItems(Map.of(table, ka.build()))
+                        .build());
+                out.addAll(resp.responses().getOrDefault(table, List.of()));
+                KeysAndAttributes left = resp.hasUnprocessedKeys() ? resp.unprocessedKeys().get(table) : null;
+                todo = left != null && left.hasKeys() ? left.keys() : List.of();
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public WriteStats updateIndex(long docId, Map<String, Integer> termFreqs) {
+        long len = 0;
+        for (int f : termFreqs.values()) len += f;
+
+        // doc length rides on every posting so BM25 needs no per-document read at search time
+        Map<String, List<long[]>> byTerm = new HashMap<>(termFreqs.size() * 2);
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            byTerm.put(e.getKey(), List.of(new long[]{docId, e.getValue(), len}));
+        }
+        WriteStats w = writePostings(byTerm, Map.of(docId, termFreqs));
+        long generation = addCorpusStats(1, len);
+        return w.plus(recordTerms(termFreqs.keySet(), generation)).withGeneration(generation);
+    }
+
+    /** Postings of all documents are grouped per term, so in block mode a batch yields multi-posting blocks. */
+    @Override
+    public WriteStats updateIndexBatch(Map<Long, Map<String, Integer>> docs) {
+        Map<String, List<long[]>> byTerm = new HashMap<>();
+        long tokens = 0;
+        for (Map.Entry<Long, Map<String, Integer>> d : new TreeMap<>(docs).entrySet()) {
+            long len = 0;
+            for (int f : d.getValue().values()) len += f;
+            tokens += len;
+            for (Map.Entry<String, Integer> e : d.getValue().entrySet()) {
+                byTerm.computeIfAbsent(e.getKey(), t -> new ArrayList<>()).add(new long[]{d.getKey(), e.getValue(), len});
+            }
+        }
+        WriteStats w = writePostings(byTerm, docs);
+        if (docs.isEmpty()) return w;
+        long generation = addCorpusStats(docs.size(), tokens);
+        return w.plus(recordTerms(byTerm.keySet(), generation)).withGeneration(generation);
+    }
+
+    /**
+     * Positions live in TermIndex under "term#pos" (tokens never contain '#'), one item per
+     * (term, docId) with the varint-coded offsets in P, so phrase checks fetch exactly the
+     * candidate docs with BatchGetItem in either posting layout.
+     */
+    @Override
+    public WriteStats updatePositions(Map<Long, Map<String, int[]>> docs) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (Map.Entry<Long, Map<String, int[]>> d : docs.entrySet()) {
+            AttributeValue docId = AttributeValue.builder().n(Long.toString(d.getKey())).build();
+            for (Map.Entry<String, int[]> e : d.getValue().entrySet()) {
+                items.add(Map.of(
+                        "term", termAttr(e.getKey() + POSITIONS_SUFFIX),
+                        "docId", docId,
+                        "P", AttributeValue.builder().b(SdkBytes.fromByteArray(PostingsCodec.encodePositions(e.getValue()))).build()));
+            }
+        }
+        return writer.write(termIdx, items);
+    }
+
+    @Override
+    public Map<Long, int[]> lookupPositions(String term, Collection<Long> docIds) {
+        if (docIds.isEmpty()) return Map.of();
+        AttributeValue key = termAttr(term + POSITIONS_SUFFIX);
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(docIds.size());
+        for (long id : docIds) keys.add(Map.of("term", key, "docId", AttributeValue.builder().n(Long.toString(id)).build()));
+
+        Map<Long, int[]> out = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(termIdx, keys, "docId, P", Map.of())) {
+            if (item.containsKey("P")) {
+                out.put(Long.parseLong(item.get("docId").n()), PostingsCodec.decodePositions(item.get("P").b().asByteArray()));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Writes [docId, freq, docLen] postings (sorted by docId per term) as items or as blocks,
+     * then each document's forward row. A large batch also promotes the
+     * terms it shows to be hot before writing, so a bulk load shards "the" from early on.
+     */
+    private WriteStats writePostings(Map<String, List<long[]>> byTerm, Map<Long, Map<String, Integer>> docs) {
+        Set<String> hot = hotTerms(false);
+        if (sharded() && docs.size() >= HOT_SAMPLE_DOCS) {
+            // a term in most of a large batch is in most of the corpus too
+            double corpusDocs = Math.max(corpusStats().docs(), docs.size());
+            List<String> rising = new ArrayList<>();
+            for (Map.Entry<String, List<long[]>> e : byTerm.entrySet()) {
+                if (!hot.contains(e.getKey()) && corpusDocs * e.getValue().size() / docs.size() >= hotTermDf) rising.add(e.getKey());
+            }
+            if (!rising.isEmpty()) hot = promote(rising);
+        }
+
+        List<Map<String, AttributeValue>> items = new ArrayList<>(byTerm.size() + docs.size());
+        for (Map.Entry<String, List<long[]>> e : byTerm.entrySet()) {
+            for (Map.Entry<String, List<long[]>> part : byPartition(e.getKey(), e.getValue(), hot).entrySet()) {
+                AttributeValue term = termAttr(part.getKey());
+                if (blockPostings) {
+                    for (List<long[]> block : PostingsCodec.split(part.getValue())) items.add(blockItem(term, block));
+                } else {
+                    for (long[] p : part.getValue()) items.add(postingItem(term, p));
+                }
+            }
+        }
+        WriteStats w = writer.write(termIdx, items);
+        // forward rows only once every posting is in: resumeDocument relies on it
+        List<Map<String, AttributeValue>> fwd = new ArrayList<>();
+        for (Map.Entry<Long, Map<String, Integer>> d : docs.entrySet()) fwd.addAll(forwardItems(d.getKey(), d.getValue()));
+        return w.plus(writer.write(termIdx, fwd));
+    }
+
+    private boolean sharded() {
+        return termShards > 1 && hotTermDf > 0;
+    }
+
+    /** Partition that holds term's posting for docId from now on: the term itself, or its shard once hot. */
+    private String home(String term, long docId, Set<String> hot) {
+        return hot.contains(term) ? term + SHARD_SUFFIX + Math.floorMod(docId, termShards) : term;
+    }
+
+    /** Every partition that may hold term's postings; a hot term keeps the ones written before it turned hot. */
+    private List<String> partitions(String term, Set<String> hot) {
+        if (!hot.contains(term)) return List.of(term);
+        List<String> out = new ArrayList<>(termShards + 1);
+        out.add(term);
+        for (int k = 0; k < termShards; k++) out.add(term + SHARD_SUFFIX + k);
+        return out;
+    }
+
+    /** A term's postings grouped by home partition, each group still sorted by docId. */
+    private Map<String, List<long[]>> byPartition(String term, List<long[]> postings, Set<String> hot) {
+        if (!hot.contains(term)) return Map.of(term, postings);
+        Map<String, List<long[]>> out = new HashMap<>();
+        for (long[] p : postings) out.computeIfAbsent(home(term, p[0], hot), k -> new ArrayList<>()).add(p);
+        return out;
+    }
+
+    /**
+     * The tenant's hot terms. Reads go through a short-lived copy; updates and deletes ask for a
+     * consistent read, so they agree with every other writer on where a posting lives.
+     */
+    private Set<String> hotTerms(boolean consistent) {
+        if (!sharded()) return Set.of();
+        if (!consistent && System.currentTimeMillis() - hotLoadedAt < CORPUS_STATS_TTL_MS) return hotTerms;
+        Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                .tableName(counters)
+                .key(Map.of("name", AttributeValue.builder().s(hotRow).build()))
+                .consistentRead(consistent)
+                .build()).item();
+        Set<String> hot = item == null || !item.containsKey("terms") ? Set.of() : Set.copyOf(item.get("terms").ss());
+        hotTerms = hot;
+        hotLoadedAt = System.currentTimeMillis();
+        return hot;
+    }
+
+    /** Adds terms to the hot set (UpdateItem ADD on a string set, so concurrent promotions merge). */
+    private Set<String> promote(Collection<String> terms) {
+        ddb.updateItem(UpdateItemRequest.builder()
+                .tableName(counters)
+                .key(Map.of("name", AttributeValue.builder().s(hotRow).build()))
+                .attributeUpdates(Map.of("terms", AttributeValueUpdate.builder()
+                        .value(AttributeValue.builder().ss(terms).build())
+                        .action(AttributeAction.ADD).build()))
+                .build());
+        Set<String> hot = new HashSet<>(hotTerms);
+        hot.addAll(terms);
+        hotTerms = Set.copyOf(hot);
+        return hotTerms;
+    }
+
+    private static Map<String, AttributeValue> postingItem(AttributeValue term, long[] p) {
+        return Map.of(
+                "term",  term,
+                "docId", AttributeValue.builder().n(Long.toString(p[0])).build(),
+                "freq",  AttributeValue.builder().n(Long.toString(p[1])).build(),
+                "len",   AttributeValue.builder().n(Long.toString(p[2])).build()
+        );
+    }
+
+    private Map<String, AttributeValue> termKey(String term, long docId) {
+        return Map.of(
+                "term",  termAttr(term),
+                "docId", AttributeValue.builder().n(Long.toString(docId)).build());
+    }
+
+    /** A document's term freqs, front-coded and deflated, split into chunks under DynamoDB's 400 KB item limit. */
+    private List<Map<String, AttributeValue>> forwardItems(long docId, Map<String, Integer> termFreqs) {
+        return chunkItems(TermFreqsCodec.encode(termFreqs), "F", k -> forwardRow(docId, k), docId);
+    }
+
+    /** data in FORWARD_CHUNK_BYTES pieces: chunk k in row(k) under docId, the first also holding the count "n". */
+    private List<Map<String, AttributeValue>> chunkItems(byte[] data, String attr, IntFunction<String> row, long docId) {
+        int chunks = Math.max(1, (data.length + FORWARD_CHUNK_BYTES - 1) / FORWARD_CHUNK_BYTES);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(chunks);
+        for (int k = 0; k < chunks; k++) {
+            Map<String, AttributeValue> item = new HashMap<>(termKey(row.apply(k), docId));
+            int from = k * FORWARD_CHUNK_BYTES, to = Math.min(data.length, from + FORWARD_CHUNK_BYTES);
+            item.put(attr, AttributeValue.builder().b(SdkBytes.fromByteArray(Arrays.copyOfRange(data, from, to))).build());
+            if (k == 0) item.put("n", AttributeValue.builder().n(Integer.toString(chunks)).build());
+            items.add(item);
+        }
+        return items;
+    }
+
+    /** Inverse of chunkItems given its first item: the other chunks come in one BatchGetItem. */
+    private byte[] joinChunks(Map<String, AttributeValue> first, String attr, IntFunction<String> row, long docId, String what) {
+        int chunks = (int) number(first, "n");
+        byte[] data = first.get(attr).b().asByteArray();
+        if (chunks <= 1) return data;
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (int k = 1; k < chunks; k++) keys.add(termKey(row.apply(k), docId));
+        Map<String, byte[]> parts = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(termIdx, keys, "term, " + attr, Map.of())) {
+            parts.put(item.get("term").s().substring(termPrefix.length()), item.get(attr).b().asByteArray());
+        }
+        ByteArrayOutputStream all = new ByteArrayOutputStream(chunks * FORWARD_CHUNK_BYTES);
+        all.writeBytes(data);
+        for (int k = 1; k < chunks; k++) {
+            byte[] part = parts.get(row.apply(k));
+            if (part == null) throw new IllegalStateException(what + " is missing chunk " + k);
+            all.writeBytes(part);
+        }
+        return all.toByteArray();
+    }
+
+    /**
+     * Partition of chunk k of docId's forward row: "#fwd3", "#fwd3.1", ... Spread over
+     * FORWARD_SHARDS partitions by docId, since every indexed document writes one.
+     */
+    private static String forwardRow(long docId, int k) {
+        return FORWARD_TERM + Math.floorMod(docId, FORWARD_SHARDS) + (k == 0 ? "" : "." + k);
+    }
+
+    /** Forward index of a document and how many chunk rows hold it; null for docs indexed before forward rows existed. */
+    private record Forward(Map<String, Integer> termFreqs, int chunks) {}
+
+    private Forward readForward(long docId) {
+        Map<String, AttributeValue> first = ddb.getItem(GetItemRequest.builder()
+                .tableName(termIdx)
+                .key(termKey(forwardRow(docId, 0), docId))
+                .consistentRead(true)
+                .build()).item();
+        if (first == null || !first.containsKey("F")) return null;
+        byte[] data = joinChunks(first, "F", k -> forwardRow(docId, k), docId, "forward index of docId " + docId);
+        return new Forward(TermFreqsCodec.decode(data), Math.max(1, (int) number(first, "n")));
+    }
+
+    /**
+     * Writes only the postings that change ({@link TermFreqDiff}). In item layout each posting is
+     * its own key, so this is pure batched puts and deletes; in block layout the block holding
+     * the doc is located per term and rewritten. Documents indexed before forward rows existed
+     * have unknown old terms: their new postings are written, dropped terms cannot be found.
+     */
+    @Override
+    public WriteStats updateDocument(long docId, Map<String, Integer> termFreqs) {
+        return updateDocument(docId, termFreqs, readForward(docId));
+    }
+
+    private WriteStats updateDocument(long docId, Map<String, Integer> termFreqs, Forward fwd) {
+        Map<String, Integer> old = fwd == null ? Map.of() : fwd.termFreqs();
+        TermFreqDiff diff = TermFreqDiff.of(old, termFreqs);
+
+        List<Map<String, AttributeValue>> puts = new ArrayList<>();
+        List<Map<String, AttributeValue>> deletes = new ArrayList<>();
+        WriteStats rewritten = rewritePostings(docId, diff, fwd == null ? null : old.keySet(), puts, deletes);
+        List<Map<String, AttributeValue>> fwdItems = forwardItems(docId, termFreqs);
+        puts.addAll(fwdItems);
+        if (fwd != null) {
+            for (int k = fwdItems.size(); k < fwd.chunks(); k++) deletes.add(termKey(forwardRow(docId, k), docId));
+        }
+        WriteStats w = rewritten.plus(writer.write(termIdx, puts)).plus(writer.delete(termIdx, deletes));
+        long generation = addCorpusStats(0, diff.newLen() - diff.oldLen());
+        return w.plus(recordTerms(diff.upserts().keySet(), generation)).withGeneration(generation);
+    }
+
+    /**
+     * A new document's forward row is written after all its postings and before the corpus
+     * counters, so with it present only an update is left to do. Without it any subset of the
+     * postings may be in: every term is located and set in place, as an update of a doc with
+     * unknown old terms does, and the doc is counted. A failure between the forward row and
+     * the counter update leaves the doc uncounted.
+     */
+    @Override
+    public WriteStats resumeDocument(long docId, Map<String, Integer> termFreqs) {
+        Forward fwd = readForward(docId);
+        if (fwd != null) return updateDocument(docId, termFreqs, fwd);
+        TermFreqDiff diff = TermFreqDiff.of(Map.of(), termFreqs);
+        List<Map<String, AttributeValue>> puts = new ArrayList<>();
+        List<Map<String, AttributeValue>> deletes = new ArrayList<>();
+        WriteStats w = rewritePostings(docId, diff, null, puts, deletes);
+        w = w.plus(writer.write(termIdx, puts)).plus(writer.delete(termIdx, deletes));
+        w = w.plus(writer.write(termIdx, forwardItems(docId, termFreqs)));
+        long generation = addCorpusStats(1, diff.newLen());
+        return w.plus(recordTerms(termFreqs.keySet(), generation)).withGeneration(generation);
+    }
+
+    @Override
+    public WriteStats deleteDocument(String clientId, PathEntry entry) {
+        long docId = entry.docId();
+        Forward fwd = readForward(docId);
+        if (fwd == null) {
+            throw new IllegalStateException("docId " + docId + " has no forward index; re-index " + entry.path() + " before deleting it");
+        }
+        TermFreqDiff diff = TermFreqDiff.of(fwd.termFreqs(), Map.of());
+        List<Map<String, AttributeValue>> puts = new ArrayList<>();
+        List<Map<String, AttributeValue>> deletes = new ArrayList<>();
+        WriteStats rewritten = rewritePostings(docId, diff, fwd.termFreqs().keySet(), puts, deletes);
+        for (int k = 0; k < fwd.chunks(); k++) deletes.add(termKey(forwardRow(docId, k), docId));
+
+        WriteStats w = rewritten.plus(writer.write(termIdx, puts)).plus(writer.delete(termIdx, deletes));
+        ddb.deleteItem(DeleteItemRequest.builder()
+                .tableName(docMap)
+                .key(docKey(docId))
+                .build());
+        if (pathIdx != null) {
+            ddb.deleteItem(DeleteItemRequest.builder().tableName(pathIdx).key(pathKey(clientId, entry.path())).build());
+        }
+        return w.plus(new WriteStats(1, 1, 0)).withGeneration(addCorpusStats(-1, -diff.oldLen()));
+    }
+
+    /**
+     * Collects the puts / deletes that apply diff to docId's postings. knownTerms are the terms
+     * the doc is known to have (null = unknown): in block layout only those need locating, a
+     * term new to the doc just gets its own single-posting block. Blocks shared with other docs
+     * are rewritten here and now, each under a condition on its version; returns those writes.
+     */
+    private WriteStats rewritePostings(long docId, TermFreqDiff diff, Set<String> knownTerms,
+                                       List<Map<String, AttributeValue>> puts, List<Map<String, AttributeValue>> deletes) {
+        long len = diff.newLen();
+        Set<String> hot = hotTerms(true);
+        for (String t : diff.removed()) deletes.add(termKey(t + POSITIONS_SUFFIX, docId));
+        if (!blockPostings) {
+            diff.upserts().forEach((t, f) -> {
+                String home = home(t, docId, hot);
+                puts.add(postingItem(termAttr(home), new long[]{docId, f, len}));
+                // the copy written before the term turned hot
+                if (!home.equals(t)) deletes.add(termKey(t, docId));
+            });
+            for (String t : diff.removed()) {
+                deletes.add(termKey(t, docId));
+                String home = home(t, docId, hot);
+                if (!home.equals(t)) deletes.add(termKey(home, docId));
+            }
+            return WriteStats.NONE;
+        }
+
+        Map<String, Integer> located = new HashMap<>();
+        diff.upserts().forEach((t, f) -> {
+            if (knownTerms == null || knownTerms.contains(t)) located.put(t, f);
+            else puts.add(blockItem(termAttr(home(t, docId, hot)), List.of(new long[]{docId, f, len})));
+        });
+        for (String t : diff.removed()) located.put(t, 0);
+
+        // one small descending Query per term, a few terms in flight at once
+        List<Map<String, AttributeValue>> syncPuts = Collections.synchronizedList(puts);
+        List<Map<String, AttributeValue>> syncDeletes = Collections.synchronizedList(deletes);
+        List<WriteStats> written = Collections.synchronizedList(new ArrayList<>());
+        inParallel(located.keySet(), t -> written.add(rewriteBlock(t, docId, located.get(t), len, hot, syncPuts, syncDeletes)));
+        return written.stream().reduce(WriteStats.NONE, WriteStats::plus);
+    }
+
+    /** Runs task for each key on virtual threads, at most LOCATE_PARALLELISM at a time. */
+    private static void inParallel(Collection<String> keys, Consumer<String> task) {
+        Semaphore inFlight = new Semaphore(LOCATE_PARALLELISM);
+        List<Future<?>> pending = new ArrayList<>(keys.size());
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String k : keys) {
+                inFlight.acquireUninterruptibly();
+                pending.add(pool.submit(() -> {
+                    try {
+                        task.accept(k);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (Future<?> f : pending) f.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for DynamoDB", e);
+        }
+    }
+
+    /**
+     * Sets (freq > 0) or removes (freq == 0) docId's posting in the block or item that holds it.
+     * A posting found outside its home partition (written before the term turned hot) moves there.
+     * A block holds other docs' postings too, so another container may rewrite it between our
+     * read and our write: the write is conditional on the version read, and a lost race reads
+     * the block again and retries with backoff. Items of docId alone go to puts / deletes.
+     */
+    private WriteStats rewriteBlock(String term, long docId, int freq, long len, Set<String> hot,
+                                    List<Map<String, AttributeValue>> puts, List<Map<String, AttributeValue>> deletes) {
+        for (int attempt = 0; ; attempt++) {
+            List<Map<String, AttributeValue>> created = new ArrayList<>();
+            try {
+                WriteStats w = tryRewriteBlock(term, docId, freq, len, hot, created);
+                puts.addAll(created);
+                return w.plus(new WriteStats(0, 0, attempt));
+            } catch (ConditionalCheckFailedException | TransactionCanceledException e) {
+                if (attempt >= Backoff.MAX_RETRIES) {
+                    throw new IllegalStateException("posting block of " + term + " holding docId " + docId
+                            + " kept changing; gave up after " + Backoff.MAX_RETRIES + " retries", e);
+                }
+                Backoff.pause(attempt);
+            }
+        }
+    }
+
+    /** created gets the single-posting block of a posting new to its partition: that key belongs to docId alone. */
+    private WriteStats tryRewriteBlock(String term, long docId, int freq, long len, Set<String> hot,
+                                       List<Map<String, AttributeValue>> created) {
+        String home = home(term, docId, hot);
+        AttributeValue homeAttr = termAttr(home);
+        Map<String, AttributeValue> item = locate(home, docId);
+        if (item == null && !home.equals(term)) item = locate(term, docId);
+        if (item == null) {
+            if (freq > 0) created.add(blockItem(homeAttr, List.of(new long[]{docId, freq, len})));
+            return WriteStats.NONE;
+        }
+        Map<String, AttributeValue> key = Map.of("term", item.get("term"), "docId", item.get("docId"));
+        boolean moved = !item.get("term").s().equals(homeAttr.s());
+        // a plain posting item is rewritten as a one-posting block, so it gets a version as well
+        List<long[]> block = new ArrayList<>();
+        decodeInto(item, block);
+        block.removeIf(p -> p[0] == docId);
+        if (freq > 0 && moved) {
+            created.add(blockItem(homeAttr, List.of(new long[]{docId, freq, len})));
+        } else if (freq > 0) {
+            block.add(new long[]{docId, freq, len});
+            block.sort(Comparator.comparingLong(p -> p[0]));
+        }
+        long version = number(item, BLOCK_VERSION);
+        if (block.isEmpty()) {
+            ddb.deleteItem(DeleteItemRequest.builder()
+                    .tableName(termIdx)
+                    .key(key)
+                    .conditionExpression(unchanged(version))
+                    .expressionAttributeValues(versionValue(version))
+                    .build());
+            return new WriteStats(1, 1, 0);
+        }
+        Map<String, AttributeValue> rewritten = versionedBlock(item.get("term"), block, version + 1);
+        if (rewritten.get("docId").n().equals(key.get("docId").n())) {
+            ddb.putItem(PutItemRequest.builder()
+                    .tableName(termIdx)
+                    .item(rewritten)
+                    .conditionExpression(unchanged(version))
+                    .expressionAttributeValues(versionValue(version))
+                    .build());
+            return new WriteStats(1, 1, 0);
+        }
+        // dropping the first posting re-keys the block: new key written and old one deleted at once
+        ddb.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(
+                putIfAbsent(rewritten), deleteIfUnchanged(key, version)).build());
+        return new WriteStats(2, 1, 0);
+    }
+
+    private TransactWriteItem putIfAbsent(Map<String, AttributeValue> item) {
+        return TransactWriteItem.builder().put(Put.builder()
+                .tableName(termIdx)
+                .item(item)
+                .conditionExpression("attribute_not_exists(docId)")
+                .build()).build();
+    }
+
+    private TransactWriteItem putIfUnchanged(Map<String, AttributeValue> item, long version) {
+        return TransactWriteItem.builder().put(Put.builder()
+                .tableName(termIdx)
+                .item(item)
+                .conditionExpression(unchanged(version))
+                .expressionAttributeValues(versionValue(version))
+                .build()).build();
+    }
+
+    private TransactWriteItem deleteIfUnchanged(Map<String, AttributeValue> key, long version) {
+        return TransactWriteItem.builder().delete(Delete.builder()
+                .tableName(termIdx)
+                .key(key)
+                .conditionExpression(unchanged(version))
+                .expressionAttributeValues(versionValue(version))
+                .build()).build();
+    }
+
+    /** Holds while the block is still at the version read; 0 = written before versions, so just still there. */
+    private static String unchanged(long version) {
+        return version > 0 ? BLOCK_VERSION + " = :v" : "attribute_exists(docId) AND attribute_not_exists(" + BLOCK_VERSION + ")";
+    }
+
+    private static Map<String, AttributeValue> versionValue(long version) {
+        return version > 0 ? Map.of(":v", AttributeValue.builder().n(Long.toString(version)).build()) : null;
+    }
+
+    /**
+     * The item holding term's posting for docId: its own item, or the nearest block keyed at or
+     * below docId that contains it. Blocks rarely interleave, so this usually reads one page.
+     */
+    private Map<String, AttributeValue> locate(String term, long docId) {
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse qr = ddb.query(QueryRequest.builder()
+                    .tableName(termIdx)
+                    .keyConditionExpression("term = :t AND docId <= :d")
+                    .expressionAttributeValues(Map.of(
+                            ":t", termAttr(term),
+                            ":d", AttributeValue.builder().n(Long.toString(docId)).build()))
+                    .scanIndexForward(false)
+                    .limit(LOCATE_PAGE)
+                    .consistentRead(true)
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : qr.items()) {
+                if (!item.containsKey("B")) {
+                    if (Long.parseLong(item.get("docId").n()) == docId) return item;
+                    continue;
+                }
+                for (long[] p : PostingsCodec.decode(item.get("B").b().asByteArrayUnsafe())) {
+                    if (p[0] == docId) return item;
+                }
+            }
+            startKey = qr.hasLastEvaluatedKey() && !qr.lastEvaluatedKey().isEmpty() ? qr.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return null;
+    }
+
+    private static Map<String, AttributeValue> pathKey(String clientId, String path) {
+        return Map.of(
+                "clientId", AttributeValue.builder().s(clientId == null ? "-" : clientId).build(),
+                "path",     AttributeValue.builder().s(path).build());
+    }
+
+    @Override
+    public Map<String, PathEntry> findPaths(String clientId, Collection<String> paths) {
+        if (pathIdx == null || paths.isEmpty()) return Map.of();
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(paths.size());
+        for (String p : new LinkedHashSet<>(paths)) keys.add(pathKey(clientId, p));
+        Map<String, PathEntry> out = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(pathIdx, keys, "#p, docId, #h, #pe", PATH_NAMES)) {
+            PathEntry e = pathEntry(item);
+            out.put(e.path(), e);
+        }
+        return out;
+    }
+
+    @Override
+    public List<PathEntry> listPaths(String clientId, String prefix, String after, int limit) {
+        if (pathIdx == null || limit <= 0) return List.of();
+        List<PathEntry> out = new ArrayList<>();
+        Map<String, AttributeValue> startKey = after != null && after.compareTo(prefix) >= 0 ? pathKey(clientId, after) : null;
+        // DynamoDB rejects an empty string in a key condition, so "everything" drops begins_with
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":c", AttributeValue.builder().s(clientId == null ? "-" : clientId).build());
+        if (!prefix.isEmpty()) values.put(":p", AttributeValue.builder().s(prefix).build());
+        do {
+            QueryResponse qr = ddb.query(QueryRequest.builder()
+                    .tableName(pathIdx)
+                    .keyConditionExpression(prefix.isEmpty() ? "clientId = :c" : "clientId = :c AND begins_with(#p, :p)")
+                    .expressionAttributeNames(PATH_NAMES)
+                    .expressionAttributeValues(values)
+                    .projectionExpression("#p, docId, #h, #pe")
+                    .limit(limit - out.size())
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : qr.items()) out.add(pathEntry(item));
+            startKey = qr.hasLastEvaluatedKey() && !qr.lastEvaluatedKey().isEmpty() ? qr.lastEvaluatedKey() : null;
+        } while (startKey != null && out.size() < limit);
+        return out;
+    }
+
+    @Override
+    public void putPaths(String clientId, List<PathEntry> entries) {
+        if (pathIdx == null || entries.isEmpty()) return;
+        List<Map<String, AttributeValue>> items = new ArrayList<>(entries.size());
+        for (PathEntry e : entries) items.add(pathItem(clientId, e));
+        writer.write(pathIdx, items);
+    }
+
+    /**
+     * BatchWriteItem takes no conditions, so each entry is its own PutItem on attribute_not_exists,
+     * a few in flight at once. A put that loses reads the winner's row back consistently; one
+     * deleted again before that read is claimed anew.
+     */
+    @Override
+    public Map<String, PathEntry> claimPaths(String clientId, List<PathEntry> pending) {
+        if (pathIdx == null || pending.isEmpty()) return Map.of();
+        Map<String, PathEntry> byPath = new HashMap<>();
+        for (PathEntry e : pending) byPath.put(e.path(), e);
+        Map<String, PathEntry> lost = new ConcurrentHashMap<>();
+        inParallel(byPath.keySet(), path -> {
+            PathEntry there = claimPath(clientId, byPath.get(path));
+            if (there != null) lost.put(path, there);
+        });
+        return lost;
+    }
+
+    /** null when entry was written, else the entry that was already there. */
+    private PathEntry claimPath(String clientId, PathEntry entry) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                ddb.putItem(PutItemRequest.builder()
+                        .tableName(pathIdx)
+                        .item(pathItem(clientId, entry))
+                        .conditionExpression("attribute_not_exists(#p)")
+                        .expressionAttributeNames(Map.of("#p", "path"))
+                        .build());
+                return null;
+            } catch (ConditionalCheckFailedException e) {
+                Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                        .tableName(pathIdx)
+                        .key(pathKey(clientId, entry.path()))
+                        .consistentRead(true)
+                        .build()).item();
+                if (item != null && !item.isEmpty()) return pathEntry(item);
+                if (attempt >= Backoff.MAX_RETRIES) {
+                    throw new IllegalStateException("path entry of " + entry.path() + " kept changing; gave up after "
+                            + Backoff.MAX_RETRIES + " retries", e);
+                }
+                Backoff.pause(attempt);
+            }
+        }
+    }
+
+    private static Map<String, AttributeValue> pathItem(String clientId, PathEntry e) {
+        Map<String, AttributeValue> item = new HashMap<>(pathKey(clientId, e.path()));
+        item.put("docId", AttributeValue.builder().n(Long.toString(e.docId())).build());
+        if (e.hash() != null) item.put("hash", AttributeValue.builder().s(e.hash()).build());
+        if (e.pending()) item.put("pending", AttributeValue.builder().bool(true).build());
+        return item;
+    }
+
+    private static PathEntry pathEntry(Map<String, AttributeValue> item) {
+        return new PathEntry(item.get("path").s(), Long.parseLong(item.get("docId").n()),
+                item.containsKey("hash") ? item.get("hash").s() : null,
+                item.containsKey("pending") && Boolean.TRUE.equals(item.get("pending").bool()));
+    }
+
+    private static Map<String, AttributeValue> versionedBlock(AttributeValue term, List<long[]> block, long version) {
+        Map<String, AttributeValue> item = new HashMap<>(blockItem(term, block));
+        item.put(BLOCK_VERSION, AttributeValue.builder().n(Long.toString(version)).build());
+        return item;
+    }
+
+    /** Appends the postings of a block or of a plain posting item. */
+    private static void decodeInto(Map<String, AttributeValue> item, List<long[]> out) {
+        if (item.containsKey("B")) {
+            PostingsCodec.decodeInto(item.get("B").b().asByteArrayUnsafe(), out);
+            return;
+        }
+        long docId = Long.parseLong(item.get("docId").n());
+        long freq = item.containsKey("freq") ? Long.parseLong(item.get("freq").n()) : 1;
+        long len = item.containsKey("len") ? Long.parseLong(item.get("len").n()) : 0;
+        out.add(new long[]{docId, freq, len});
+    }
+
+    /** A block is keyed by its first docId, so blocks and single-posting items share the table. */
+    private static Map<String, AttributeValue> blockItem(AttributeValue term, List<long[]> block) {
+        return Map.of(
+                "term",  term,
+                "docId", AttributeValue.builder().n(Long.toString(block.get(0)[0])).build(),
+                "n",     AttributeValue.builder().n(Integer.toString(block.size())).build(),
+                "B",     AttributeValue.builder().b(SdkBytes.fromByteArray(PostingsCodec.encode(block))).build()
+        );
+    }
+
+    /**
+     * Writes the terms of an index write that the dictionary may lack as delta rows keyed by the
+     * write's generation. They go after the postings, so an expansion never names a term that
+     * cannot be found yet; a write that fails in between leaves its new terms unexpandable.
+     */
+    private WriteStats recordTerms(Collection<String> terms, long generation) {
+        TermDictionary known = dict;
+        List<String> fresh = new ArrayList<>();
+        for (String t : terms) {
+            if (!dictRecent.contains(t) && (known == null || !known.contains(t))) fresh.add(t);
+        }
+        if (fresh.isEmpty()) return WriteStats.NONE;
+        Collections.sort(fresh);
+
+        AttributeValue row = termAttr(DICT_TERM);
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int from = 0, to; from < fresh.size(); from = to) {
+            long bytes = 0;
+            for (to = from; to < fresh.size() && bytes < FORWARD_CHUNK_BYTES; to++) {
+                bytes += fresh.get(to).getBytes(StandardCharsets.UTF_8).length + 2;
+            }
+            if (items.size() == DICT_PARTS) throw new IllegalStateException("too many new terms in one index write: " + fresh.size());
+            items.add(Map.of(
+                    "term", row,
+                    "docId", AttributeValue.builder().n(Long.toString(generation * DICT_PARTS + items.size())).build(),
+                    "D", AttributeValue.builder().b(SdkBytes.fromByteArray(TermDictionary.of(fresh.subList(from, to)).encode())).build()));
+        }
+        WriteStats w = writer.write(termIdx, items);
+        if (dictRecent.size() + fresh.size() > DICT_RECENT_MAX) dictRecent.clear();
+        dictRecent.addAll(fresh);
+        return w;
+    }
+
+    @Override
+    public void putSnapshot(String id, List<byte[]> pages, long ttlMillis) {
+        AttributeValue expiresAt = AttributeValue.builder()
+                .n(Long.toString((System.currentTimeMillis() + ttlMillis) / 1000 + 1)).build();
+        List<Map<String, AttributeValue>> items = new ArrayList<>(pages.size());
+        for (int k = 0; k < pages.size(); k++) {
+            Map<String, AttributeValue> item = new HashMap<>(termKey(SNAPSHOT_TERM + id, k + 1));
+            item.put("S", AttributeValue.builder().b(SdkBytes.fromByteArray(pages.get(k))).build());
+            item.put("expiresAt", expiresAt);
+            items.add(item);
+        }
+        writer.write(termIdx, items);
+    }
+
+    /** A consistent read: the next chunk may be asked for right after the pages were written. */
+    @Override
+    public byte[] snapshotPage(String id, int page) {
+        Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                .tableName(termIdx)
+                .key(termKey(SNAPSHOT_TERM + id, page))
+                .consistentRead(true)
+                .build()).item();
+        if (item == null || !item.containsKey("S")) return null;
+        if (number(item, "expiresAt") * 1000 <= System.currentTimeMillis()) return null;
+        return item.get("S").b().asByteArray();
+    }
+
+    private record DictBase(TermDictionary terms, long key) {}
+
+    /**
+     * The latest base snapshot plus the deltas written since, loaded on first use. Every
+     * CORPUS_STATS_TTL_MS, while the index keeps changing (and once more after it stops), only
+     * newer deltas are read and merged. A container that has merged DICT_MERGE_DELTAS deltas past
+     * its base writes the whole dictionary as a new base, so cold starts read one snapshot and a
+     * few deltas.
+     */
+    @Override
+    public TermDictionary termDictionary() {
+        TermDictionary d = dict;
+        if (d != null && System.currentTimeMillis() - dictLoadedAt < CORPUS_STATS_TTL_MS) return d;
+        synchronized (dictLock) {
+            d = dict;
+            long now = System.currentTimeMillis();
+            if (d != null && now - dictLoadedAt < CORPUS_STATS_TTL_MS) return d;
+            long generation = corpusStats().generation();
+            boolean unchanged = generation == dictSeenGeneration;
+            dictSeenGeneration = generation;
+            if (d != null && unchanged && dictSettled) {
+                dictLoadedAt = now;
+                return d;
+            }
+            // a delta that lands just after this read is picked up by the next refresh
+            dictSettled = unchanged;
+            if (d == null) {
+                DictBase base = readDictBase();
+                d = base.terms();
+                dictBase = dictKey = base.key();
+                dictDeltas = 0;
+            }
+            long seen = dictKey;
+            TermDictionary added = TermDictionary.EMPTY;
+            for (Map<String, AttributeValue> item : rows(DICT_TERM, "docId > :k", Math.max(0, seen - DICT_LOOKBACK), null)) {
+                long key = Long.parseLong(item.get("docId").n());
+                added = added.merge(TermDictionary.decode(item.get("D").b().asByteArray()));
+                if (key > seen) dictDeltas++;
+                dictKey = Math.max(dictKey, key);
+            }
+            d = d.merge(added);
+            if (dictDeltas >= DICT_MERGE_DELTAS) writeDictBase(d);
+            dict = d;
+            dictLoadedAt = now;
+            return d;
+        }
+    }
+
+    private static String dictBaseRow(int k) {
+        return DICT_BASE_TERM + (k == 0 ? "" : "." + k);
+    }
+
+    private DictBase readDictBase() {
+        QueryResponse qr = ddb.query(QueryRequest.builder()
+                .tableName(termIdx)
+                .keyConditionExpression("term = :t")
+                .expressionAttributeValues(Map.of(":t", termAttr(DICT_BASE_TERM)))
+                .scanIndexForward(false)
+                .limit(1)
+                .build());
+        if (qr.items().isEmpty()) return new DictBase(TermDictionary.EMPTY, 0);
+        Map<String, AttributeValue> first = qr.items().get(0);
+        long key = Long.parseLong(first.get("docId").n());
+        byte[] data = joinChunks(first, "D", DynamoIndexStore::dictBaseRow, key, "term dictionary base " + key);
+        return new DictBase(TermDictionary.decode(data), key);
+    }
+
+    /**
+     * Writes d as the base at dictKey, then drops what the previous base made redundant: deltas
+     * older than its look-back and older bases. Rows of the base being replaced stay, so a
+     * container still loading from it finds every delta it needs.
+     */
+    private void writeDictBase(TermDictionary d) {
+        long key = dictKey;
+        writer.write(termIdx, chunkItems(d.encode(), "D", DynamoIndexStore::dictBaseRow, key));
+        long previous = dictBase;
+        List<Map<String, AttributeValue>> stale = new ArrayList<>();
+        if (previous - DICT_LOOKBACK > 0) {
+            for (Map<String, AttributeValue> item : rows(DICT_TERM, "docId <= :k", previous - DICT_LOOKBACK, "term, docId")) {
+                stale.add(item);
+            }
+        }
+        for (Map<String, AttributeValue> item : rows(DICT_BASE_TERM, "docId < :k", previous, "term, docId, n")) {
+            long old = Long.parseLong(item.get("docId").n());
+            for (int k = 0; k < Math.max(1, number(item, "n")); k++) stale.add(termKey(dictBaseRow(k), old));
+        }
+        writer.delete(termIdx, stale);
+        dictBase = key;
+        dictDeltas = 0;
+    }
+
+    /** Every item of a TermIndex row whose docId key meets condition (on ":k"), all pages; projection null = all attributes. */
+    private List<Map<String, AttributeValue>> rows(String row, String condition, long key, String projection) {
+        List<Map<String, AttributeValue>> out = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse qr = ddb.query(QueryRequest.builder()
+                    .tableName(termIdx)
+                    .keyConditionExpression("term = :t AND " + condition)
+                    .expressionAttributeValues(Map.of(
+                            ":t", termAttr(row),
+                            ":k", AttributeValue.builder().n(Long.toString(key)).build()))
+                    .projectionExpression(projection)
+                    .exclusiveStartKey(startKey)
+                    .build());
+            out.addAll(qr.items());
+            startKey = qr.hasLastEvaluatedKey() && !qr.lastEvaluatedKey().isEmpty() ? qr.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return out;
+    }
+
+    /**
+     * Rewrites a term's postings, single items and small blocks alike, into full BLOCK_SIZE blocks,
+     * each partition of a hot term on its own. COMPACT_WINDOW items at a time are replaced in one
+     * transaction, conditional on none of them having changed since they were read, so a
+     * concurrent update is never overwritten: the partition is read again and compaction retried.
+     * A cold term found holding HOT_TERM_DF postings or more is promoted, so its later writes shard.
+     */
+    @Override
+    public WriteStats compact(String term) {
+        Set<String> hot = hotTerms(true);
+        WriteStats w = WriteStats.NONE;
+        long[] postings = new long[1];
+        for (String part : partitions(term, hot)) w = w.plus(compactPartition(part, postings));
+        if (sharded() && !hot.contains(term) && postings[0] >= hotTermDf) promote(List.of(term));
+        return w;
+    }
+
+    /** Compacts one partition, adding the number of postings it holds to postingsOut[0]. */
+    private WriteStats compactPartition(String term, long[] postingsOut) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return tryCompactPartition(term, postingsOut).plus(new WriteStats(0, 0, attempt));
+            } catch (TransactionCanceledException e) {
+                if (attempt >= Backoff.MAX_RETRIES) {
+                    throw new IllegalStateException("postings of " + term + " kept changing during compaction; gave up after "
+                            + Backoff.MAX_RETRIES + " retries", e);
+                }
+                Backoff.pause(attempt);
+            }
+        }
+    }
+
+    private WriteStats tryCompactPartition(String term, long[] postingsOut) {
+        List<Map<String, AttributeValue>> items = rows(term, "docId >= :k", 0, null);
+        AttributeValue termAttr = termAttr(term);
+        WriteStats w = WriteStats.NONE;
+        long count = 0;
+        for (int i = 0; i < items.size(); i += COMPACT_WINDOW) {
+            List<Map<String, AttributeValue>> window = items.subList(i, Math.min(i + COMPACT_WINDOW, items.size()));
+            Map<String, Long> versions = new HashMap<>();
+            List<long[]> postings = new ArrayList<>();
+            for (Map<String, AttributeValue> item : window) {
+                versions.put(item.get("docId").n(), number(item, BLOCK_VERSION));
+                decodeInto(item, postings);
+            }
+            count += postings.size();
+            if (window.size() <= 1) continue;
+            postings.sort(Comparator.comparingLong(p -> p[0]));
+
+            // an old key that a new block takes over is overwritten, every other one deleted
+            List<TransactWriteItem> writes = new ArrayList<>();
+            Set<String> kept = new HashSet<>();
+            for (List<long[]> block : PostingsCodec.split(postings)) {
+                String first = Long.toString(block.get(0)[0]);
+                Long old = versions.get(first);
+                Map<String, AttributeValue> item = versionedBlock(termAttr, block, old == null ? 1 : old + 1);
+                writes.add(old == null ? putIfAbsent(item) : putIfUnchanged(item, old));
+                kept.add(first);
+            }
+            for (Map<String, AttributeValue> item : window) {
+                String docId = item.get("docId").n();
+                if (!kept.contains(docId)) writes.add(deleteIfUnchanged(Map.of("term", termAttr, "docId", item.get("docId")), versions.get(docId)));
+            }
+            ddb.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(writes).build());
+            w = w.plus(new WriteStats(writes.size(), 1, 0));
+        }
+        // only an attempt that went through counts
+        postingsOut[0] += count;
+        return w;
+    }
+
+    /**
+     * Lets the next read of the corpus stats, hot terms and dictionary go to the table as if
+     * CORPUS_STATS_TTL_MS had passed, keeping what is cached (a warm container's refresh).
+     */
+    void expireCaches() {
+        corpusLoadedAt = 0;
+        hotLoadedAt = 0;
+        dictLoadedAt = 0;
+    }
+
+    /** A restored snapshot must not reuse a docId lease or corpus stats taken before the checkpoint. */
+    @Override
+    public void dropCaches() {
+        docIds.discard();
+        corpusCache = null;
+        hotLoadedAt = 0;
+        synchronized (dictLock) {
+            dict = null;
+            dictSeenGeneration = 0;
+        }
+        dictRecent.clear();
+        if (tenants != null) tenants.values().forEach(DynamoIndexStore::dropCaches);
+    }
+
+    @Override
+    public CorpusStats corpusStats() {
+        CorpusStats s = corpusCache;
+        if (s != null && System.currentTimeMillis() - corpusLoadedAt < CORPUS_STATS_TTL_MS) return s;
+        Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                .tableName(counters)
+                .key(Map.of("name", AttributeValue.builder().s(corpusRow).build()))
+                .build()).item();
+        s = (item == null || item.isEmpty()) ? CorpusStats.EMPTY : new CorpusStats(
+                number(item, "docs"), number(item, "tokens"), number(item, "generation"));
+        corpusCache = s;
+        corpusLoadedAt = System.currentTimeMillis();
+        return s;
+    }
+
+    @Override
+    public long generation() {
+        Map<String, AttributeValue> item = ddb.getItem(GetItemRequest.builder()
+                .tableName(counters)
+                .key(Map.of("name", AttributeValue.builder().s(corpusRow).build()))
+                .projectionExpression("generation")
+                .consistentRead(true)
+                .build()).item();
+        return item == null ? 0 : number(item, "generation");
+    }
+
+    private static long number(Map<String, AttributeValue> item, String name) {
+        return item.containsKey(name) ? Long.parseLong(item.get(name).n()) : 0;
+    }
+
+    /**
+     * One UpdateItem ADD on the "corpus" counter row per index write; the same update bumps the
+     * index generation, which is returned.
+     */
+    private long addCorpusStats(long docs, long tokens) {
+        UpdateItemResponse resp = ddb.updateItem(UpdateItemRequest.builder()
+                .tableName(counters)
+                .key(Map.of("name", AttributeValue.builder().s(corpusRow).build()))
+                .attributeUpdates(Map.of(
+                        "docs", AttributeValueUpdate.builder()
+                                .value(AttributeValue.builder().n(Long.toString(docs)).build())
+                                .action(AttributeAction.ADD).build(),
+                        "tokens", AttributeValueUpdate.builder()
+                                .value(AttributeValue.builder().n(Long.toString(tokens)).build())
+                                .action(AttributeAction.ADD).build(),
+                        "generation", AttributeValueUpdate.builder()
+                                .value(AttributeValue.builder().n("1").build())
+                                .action(AttributeAction.ADD).build()))
+                .returnValues(ReturnValue.UPDATED_NEW)
+                .build());
+        return number(resp.attributes(), "generation");
+    }
+
+    /**
+     * A hot term's partitions are read in parallel and merged. Reads never promote a term: a
+     * search stays read-only, and compaction or a large batch is where a term turns hot.
+     */
+    @Override
+    public List<long[]> lookupIndex(String term) {
+        Set<String> hot = hotTerms(false);
+        if (!hot.contains(term)) return query(term);
+        List<String> parts = partitions(term, hot);
+        Map<String, List<long[]>> byPart = new ConcurrentHashMap<>();
+        inParallel(parts, p -> byPart.put(p, query(p)));
+
+        // stable sort: for a docId in two partitions the later (shard) copy is the current one
+        List<long[]> out = new ArrayList<>();
+        for (String p : parts) out.addAll(byPart.get(p));
+        out.sort(Comparator.comparingLong(p -> p[0]));
+        int w = 0;
+        for (int r = 0; r < out.size(); r++) {
+            if (w > 0 && out.get(w - 1)[0] == out.get(r)[0]) out.set(w - 1, out.get(r));
+            else out.set(w++, out.get(r));
+        }
+        out.subList(w, out.size()).clear();
+        return out;
+    }
+
+    /**
+     * Reads every posting of a term, decoding blocks and single items alike, sorted by docId
+     * with duplicates dropped: a query racing a re-key or compaction transaction may see both copies.
+     */
+    private List<long[]> query(String term) {
+        // follow LastEvaluatedKey: a common term's postings span many 1 MB pages
+        List<long[]> out = new ArrayList<>();
+        boolean blocks = false;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse qr = ddb.query(QueryRequest.builder()
+                    .tableName(termIdx)
+                    .keyConditionExpression("term = :t")
+                    .expressionAttributeValues(Map.of(":t", termAttr(term)))
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : qr.items()) {
+                blocks |= item.containsKey("B");
+                decodeInto(item, out);
+            }
+            startKey = qr.hasLastEvaluatedKey() && !qr.lastEvaluatedKey().isEmpty() ? qr.lastEvaluatedKey() : null;
+        } while (startKey != null);
+
+        // blocks are keyed by their first docId, so their ranges may interleave with other items
+        if (blocks) {
+            out.sort(Comparator.comparingLong(p -> p[0]));
+            int w = 0;
+            for (int r = 0; r < out.size(); r++) {
+                if (w == 0 || out.get(w - 1)[0] != out.get(r)[0]) out.set(w++, out.get(r));
+            }
+            out.subList(w, out.size()).clear();
+        }
+        return out;
+    }
+}
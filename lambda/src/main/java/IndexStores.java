@@ -0,0 +1,137 @@
+package lambda;
+
+import core.CachingIndexStore;
+import core.FileIndexStore;
+import core.InMemoryIndexStore;
+import core.IndexStore;
+import core.Stopwords;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the IndexStore backend from INDEX_STORE: "dynamo" (default), "memory", "file"
+ * (journal at INDEX_STORE_PATH) or "local" (the DynamoDB layout over {@link LocalDynamoDb}).
+ * One store per JVM, shared by every handler in the container. "file" and "local" are for runs
+ * outside Lambda: the shaded jar leaves out Jackson and the emulator.
+ */
+public final class IndexStores {
+    static final String LOCAL_DOCMAP = "FRE_DocumentMap";
+    static final String LOCAL_TERMIDX = "FRE_TermIndex";
+    static final String LOCAL_PATHIDX = "FRE_PathIndex";
+    static final String LOCAL_COUNTERS = "FRE_Counters";
+
+    private static final Pattern CLIENT_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static volatile IndexStore shared;
+
+    private IndexStores() {}
+
+    public static IndexStore fromEnv() {
+        IndexStore s = shared;
+        if (s == null) {
+            synchronized (IndexStores.class) {
+                s = shared;
+                if (s == null) shared = s = create(System.getenv().getOrDefault("INDEX_STORE", "dynamo"));
+            }
+        }
+        return s;
+    }
+
+    /** Drops per-process caches of the shared store, if one was created; see {@link IndexStore#dropCaches()}. */
+    static void dropCaches() {
+        IndexStore s = shared;
+        if (s != null) s.dropCaches();
+    }
+
+    /**
+     * The clientId a request is scoped to, or null for the shared index. A store that isolates
+     * tenants needs one on every request; otherwise it may be left out, as before tenancy. A
+     * clientId that is sent becomes part of its path keys (and, isolated, of every key), so only
+     * RegisterHandler-style ids (letters, digits, dashes) are accepted: anything else could alias
+     * another tenant's keys.
+     */
+    static String clientId(IndexStore store, Object clientId) {
+        if (clientId == null && !store.requiresTenant()) return null;
+        if (!(clientId instanceof String id) || !CLIENT_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException(clientId == null
+                    ? "clientId is required; call RegisterHandler first"
+                    : "invalid clientId: " + clientId);
+        }
+        return id;
+    }
+
+    /**
+     * Terms a request sends as is (termFreqs, positions, "terms", "compact"). They become TermIndex
+     * partition keys, where '#' starts shard, position and dictionary rows and '|' ends the tenant
+     * prefix, so a term holding either could read or overwrite rows that are not its postings.
+     * The tokenizers never produce them.
+     */
+    static <T extends Collection<String>> T requireTerms(T terms) {
+        for (String t : terms) {
+            if (t.indexOf('#') >= 0 || t.indexOf(DynamoIndexStore.TENANT_SEPARATOR) >= 0) {
+                throw new IllegalArgumentException("invalid term (reserved '#' or '|'): " + t);
+            }
+        }
+        return terms;
+    }
+
+    /** STOPWORDS: "none" (default), "english", or a comma-separated list; see {@link Stopwords#parse}. */
+    static Stopwords stopwords() {
+        return Stopwords.parse(System.getenv("STOPWORDS"));
+    }
+
+    static IndexStore create(String kind) {
+        return switch (kind.toLowerCase()) {
+            case "memory" -> new InMemoryIndexStore();
+            case "file" -> {
+                requireClass("com.fasterxml.jackson.databind.ObjectMapper", kind);
+                yield new FileIndexStore(Path.of(System.getenv().getOrDefault("INDEX_STORE_PATH", "/tmp/fre-index.jsonl")));
+            }
+            case "dynamo" -> dynamo(
+                    Ddb.client(),
+                    System.getenv("TABLE_DOCMAP"),    // FRE_DocumentMap
+                    System.getenv("TABLE_TERMIDX"),   // FRE_TermIndex
+                    System.getenv("TABLE_COUNTERS"),  // FRE_Counters
+                    System.getenv("TABLE_PATHIDX"),   // FRE_PathIndex (optional: path dedup, delete)
+                    // opt-in: the isolated layout needs DocumentMap keyed (clientId, docId), and keys
+                    // written in the shared layout are not found under it
+                    "true".equalsIgnoreCase(System.getenv("TENANT_ISOLATION")));
+            case "local" -> {
+                requireClass("lambda.LocalDynamoDb", kind);
+                yield LocalDynamoDb.shared().store();
+            }
+            default -> throw new IllegalArgumentException("unknown INDEX_STORE: " + kind);
+        };
+    }
+
+    /** Fails with why INDEX_STORE=kind cannot work here unless className is on the classpath. */
+    private static void requireClass(String className, String kind) {
+        try {
+            Class.forName(className, false, IndexStores.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("INDEX_STORE=" + kind + " is not available in the Lambda jar (no "
+                    + className + "); use dynamo or memory there", e);
+        }
+    }
+
+    static IndexStore dynamo(DynamoDbClient ddb, String docMap, String termIdx, String counters,
+                                     String pathIdx, boolean isolateTenants) {
+        // every call's latency and consumed capacity lands in the request's trace
+        return cached(new DynamoIndexStore(new MeteredDynamoDb(ddb), docMap, termIdx, counters, pathIdx,
+                Long.parseLong(System.getenv().getOrDefault("DOCID_BLOCK", "1000")),
+                "blocks".equalsIgnoreCase(System.getenv("POSTINGS_FORMAT")),
+                isolateTenants,
+                Integer.parseInt(System.getenv().getOrDefault("TERM_SHARDS", "8")),
+                Long.parseLong(System.getenv().getOrDefault("HOT_TERM_DF", "5000"))));
+    }
+
+    /** Warm-container postings cache: POSTINGS_CACHE_MB (default 64, 0 disables), POSTINGS_CACHE_TTL_MS (default 5000). */
+    private static IndexStore cached(IndexStore store) {
+        long mb = Long.parseLong(System.getenv().getOrDefault("POSTINGS_CACHE_MB", "64"));
+        if (mb <= 0) return store;
+        long ttl = Long.parseLong(System.getenv().getOrDefault("POSTINGS_CACHE_TTL_MS", "5000"));
+        return new CachingIndexStore(store, mb << 20, ttl);
+    }
+}
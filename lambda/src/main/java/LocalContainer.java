@@ -0,0 +1,45 @@
+package lambda;
+
+import core.IndexStore;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One emulated Lambda execution environment: the three handlers over their own store on a
+ * shared {@link LocalDynamoDb}, so like a real container it has its own docId lease and
+ * postings cache while the data is shared. Handles one request at a time; the client's local
+ * mode keeps one per concurrent execution.
+ */
+public final class LocalContainer {
+    public static final Set<String> FUNCTIONS = Set.of("RegisterHandler", "ComputeIndexHandler", "ComputeSearchHandler");
+
+    private final RegisterHandler register = new RegisterHandler();
+    private final ComputeIndexHandler index;
+    private final ComputeSearchHandler search;
+
+    public LocalContainer(LocalDynamoDb db) {
+        this(db.store());
+    }
+
+    /** Over any store, e.g. a core.InMemoryIndexStore when DynamoDB's request path is not of interest. */
+    public LocalContainer(IndexStore store) {
+        this.index = new ComputeIndexHandler(store);
+        this.search = new ComputeSearchHandler(store);
+    }
+
+    /** The handlers' per-operation and per-phase latencies and DynamoDB totals in this JVM (all containers). */
+    public static Map<String, Object> metrics() {
+        return Tracing.metrics().snapshot();
+    }
+
+    /** Runs the named function's handler; IllegalArgumentException when there is no such function. */
+    public Map<String, Object> invoke(String functionName, Map<String, Object> input) {
+        return switch (functionName) {
+            case "RegisterHandler" -> register.handleRequest(input, null);
+            case "ComputeIndexHandler" -> index.handleRequest(input, null);
+            case "ComputeSearchHandler" -> search.handleRequest(input, null);
+            default -> throw new IllegalArgumentException("Function not found: " + functionName);
+        };
+    }
+}
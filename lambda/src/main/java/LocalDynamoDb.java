@@ -0,0 +1,843 @@
+package lambda;
+
+import core.IndexStore;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the DynamoDB tables the handlers use, for running the engine on one
+ * machine (INDEX_STORE=local, or the client's local mode). It covers exactly the calls
+ * DynamoIndexStore makes: Get/Put/Delete, UpdateItem with attributeUpdates, BatchWrite,
+ * BatchGet and Query on the key (=, comparisons, BETWEEN, begins_with), with projections.
+ * Put and Delete take a ConditionExpression of attribute_exists / attribute_not_exists /
+ * "attr = :v" terms joined by AND, and TransactWriteItems takes conditional Puts and Deletes
+ * within one partition; a failed condition throws as the service does.
+ * DynamoDB's limits are enforced the way the service enforces them, so code that passes here
+ * does not trip them in AWS: 400 KB items, 25 writes / 100 keys per batch, no duplicate keys
+ * in a batch, 16 MB batch responses (the rest come back as UnprocessedKeys) and 1 MB query
+ * pages. Consumed capacity is reported when asked for, in DynamoDB's units (4 KB reads, half
+ * for eventually consistent ones; 1 KB writes, sized by the larger of old and new item).
+ * Anything else (other conditions, filter or update expressions, scans) is rejected rather
+ * than half-emulated. Data lives on the heap and is gone when the JVM exits.
+ */
+public final class LocalDynamoDb implements DynamoDbClient {
+    public static final int MAX_ITEM_BYTES = 400 * 1024;
+    public static final int MAX_BATCH_WRITE = 25;
+    public static final int MAX_BATCH_GET = 100;
+    public static final int MAX_BATCH_BYTES = 16 << 20;
+    public static final int MAX_PAGE_BYTES = 1 << 20;
+    private static final int MAX_HASH_KEY_BYTES = 2048;
+    private static final int MAX_RANGE_KEY_BYTES = 1024;
+
+    private static final Pattern COMPARISON = Pattern.compile("(#?\\w+)\\s*(=|<=|<|>=|>)\\s*(:\\w+)");
+    private static final Pattern BEGINS_WITH = Pattern.compile("(?i)begins_with\\s*\\(\\s*(#?\\w+)\\s*,\\s*(:\\w+)\\s*\\)");
+    private static final Pattern BETWEEN = Pattern.compile("(?i)(#?\\w+)\\s+BETWEEN\\s+(:\\w+)\\s+AND\\s+(:\\w+)");
+    private static final Pattern EXISTS = Pattern.compile("(?i)(attribute_exists|attribute_not_exists)\\s*\\(\\s*(#?\\w+)\\s*\\)");
+    private static final Pattern EQUALS = Pattern.compile("(#?\\w+)\\s*=\\s*(:\\w+)");
+    private static final int MAX_TRANSACT_ITEMS = 100;
+
+    private static volatile LocalDynamoDb shared;
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final long latencyMs;
+
+    /** @param latencyMs added to every call, to stand in for the network round trip (0 = none) */
+    public LocalDynamoDb(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /** The four FRE tables under their default names, with the key schemas from the README. */
+    public static LocalDynamoDb withFreTables(long latencyMs) {
+        return new LocalDynamoDb(latencyMs)
+                .table(IndexStores.LOCAL_DOCMAP, "clientId", ScalarAttributeType.S, "docId", ScalarAttributeType.N)
+                .table(IndexStores.LOCAL_TERMIDX, "term", ScalarAttributeType.S, "docId", ScalarAttributeType.N)
+                .table(IndexStores.LOCAL_PATHIDX, "clientId", ScalarAttributeType.S, "path", ScalarAttributeType.S)
+                .table(IndexStores.LOCAL_COUNTERS, "name", ScalarAttributeType.S, null, null);
+    }
+
+    /** One emulated database per JVM for INDEX_STORE=local; LOCAL_DDB_LATENCY_MS adds per-call latency. */
+    static LocalDynamoDb shared() {
+        LocalDynamoDb db = shared;
+        if (db == null) {
+            synchronized (LocalDynamoDb.class) {
+                db = shared;
+                if (db == null) {
+                    shared = db = withFreTables(Long.parseLong(System.getenv().getOrDefault("LOCAL_DDB_LATENCY_MS", "0")));
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * The DynamoDB store over this database, as one container would see it: each call gets its
+     * own docId lease and postings cache, and every store over the same db shares data. Lives
+     * here rather than in IndexStores so that nothing in the Lambda jar names this class in a
+     * signature: the shaded jar leaves the emulator out.
+     */
+    IndexStore store() {
+        // the emulated tables always have the tenant-isolated key schema
+        return IndexStores.dynamo(this, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX,
+                IndexStores.LOCAL_COUNTERS, IndexStores.LOCAL_PATHIDX, true);
+    }
+
+    /** Creates a table; rangeKey may be null for a hash-only key. */
+    public LocalDynamoDb table(String name, String hashKey, ScalarAttributeType hashType,
+                               String rangeKey, ScalarAttributeType rangeType) {
+        tables.put(name, new Table(name, hashKey, hashType, rangeKey, rangeType, new ConcurrentHashMap<>()));
+        return this;
+    }
+
+    /** Calls per operation, and items per table. */
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        Map<String, Long> c = new TreeMap<>();
+        calls.forEach((op, n) -> c.put(op, n.sum()));
+        s.put("calls", c);
+        Map<String, Long> items = new TreeMap<>();
+        tables.forEach((name, t) -> items.put(name, t.partitions().values().stream().mapToLong(Map::size).sum()));
+        s.put("items", items);
+        return s;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest r) {
+        call("GetItem");
+        Table t = table(r.tableName());
+        Map<String, AttributeValue> item = t.get(t.key(r.key()));
+        return GetItemResponse.builder()
+                .item(item == null ? null : project(item, r.projectionExpression(), r.expressionAttributeNames()))
+                .consumedCapacity(consumed(r.returnConsumedCapacity(), t, readUnits(item == null ? 0 : itemSize(item), r.consistentRead())))
+                .build();
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest r) {
+        call("PutItem");
+        if (r.hasExpected()) throw unsupported("legacy Expected conditions");
+        Table t = table(r.tableName());
+        Key k = t.key(r.item());
+        long size = checkItem(r.item());
+        Condition c = Condition.of(r.conditionExpression(), r.expressionAttributeNames(), r.expressionAttributeValues());
+        Map<String, AttributeValue> old = t.put(k, Map.copyOf(r.item()), c);
+        return PutItemResponse.builder()
+                .attributes(r.returnValues() == ReturnValue.ALL_OLD ? old : null)
+                .consumedCapacity(consumed(r.returnConsumedCapacity(), t, writeUnits(Math.max(size, old == null ? 0 : itemSize(old)))))
+                .build();
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest r) {
+        call("DeleteItem");
+        if (r.hasExpected()) throw unsupported("legacy Expected conditions");
+        Table t = table(r.tableName());
+        Condition c = Condition.of(r.conditionExpression(), r.expressionAttributeNames(), r.expressionAttributeValues());
+        Map<String, AttributeValue> old = t.remove(t.key(r.key()), c);
+        return DeleteItemResponse.builder()
+                .attributes(r.returnValues() == ReturnValue.ALL_OLD ? old : null)
+                .consumedCapacity(consumed(r.returnConsumedCapacity(), t, writeUnits(old == null ? 0 : itemSize(old))))
+                .build();
+    }
+
+    /** attributeUpdates only: PUT, DELETE (attribute or set elements) and ADD (numbers and sets). */
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest r) {
+        call("UpdateItem");
+        if (r.updateExpression() != null) throw unsupported("UpdateExpression");
+        if (r.conditionExpression() != null || r.hasExpected()) throw unsupported("conditional updates");
+        Table t = table(r.tableName());
+        Key k = t.key(r.key());
+        Map<String, AttributeValueUpdate> updates = r.hasAttributeUpdates() ? r.attributeUpdates() : Map.of();
+        for (String name : updates.keySet()) {
+            if (name.equals(t.hashKey()) || name.equals(t.rangeKey())) {
+                throw invalid("Cannot update attribute " + name + ". This attribute is part of the key");
+            }
+        }
+        AtomicReference<Map<String, AttributeValue>> before = new AtomicReference<>();
+        Map<String, AttributeValue> after = t.update(k, old -> {
+            before.set(old);
+            Map<String, AttributeValue> item = new HashMap<>(old != null ? old : r.key());
+            updates.forEach((name, u) -> apply(item, name, u));
+            checkItem(item);
+            return Map.copyOf(item);
+        });
+
+        Map<String, AttributeValue> out = switch (r.returnValues() == null ? ReturnValue.NONE : r.returnValues()) {
+            case ALL_NEW -> after;
+            case ALL_OLD -> before.get();
+            case UPDATED_NEW -> pick(after, updates.keySet());
+            case UPDATED_OLD -> before.get() == null ? null : pick(before.get(), updates.keySet());
+            default -> null;
+        };
+        long size = Math.max(itemSize(after), before.get() == null ? 0 : itemSize(before.get()));
+        return UpdateItemResponse.builder()
+                .attributes(out)
+                .consumedCapacity(consumed(r.returnConsumedCapacity(), t, writeUnits(size)))
+                .build();
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest r) {
+        call("BatchWriteItem");
+        int n = 0;
+        long bytes = 0;
+        // identity: a Table record hashes every item it holds
+        Map<Table, List<WriteRequest>> byTable = new IdentityHashMap<>();
+        for (Map.Entry<String, List<WriteRequest>> e : r.requestItems().entrySet()) {
+            Table t = table(e.getKey());
+            Set<Key> seen = new HashSet<>();
+            for (WriteRequest w : e.getValue()) {
+                if ((w.putRequest() == null) == (w.deleteRequest() == null)) {
+                    throw invalid("Supplied AttributeValue has more than one datatypes set, must contain exactly one of the supported datatypes");
+                }
+                Map<String, AttributeValue> item = w.putRequest() != null ? w.putRequest().item() : w.deleteRequest().key();
+                if (w.putRequest() != null) bytes += checkItem(item);
+                if (!seen.add(t.key(item))) throw invalid("Provided list of item keys contains duplicates");
+                n++;
+            }
+            byTable.put(t, e.getValue());
+        }
+        if (n == 0) throw invalid("The batch write request list for a table cannot be null or empty");
+        if (n > MAX_BATCH_WRITE) {
+            throw invalid("Too many items requested for the BatchWriteItem call (" + n + " > " + MAX_BATCH_WRITE + ")");
+        }
+        if (bytes > MAX_BATCH_BYTES) throw invalid("Item collection size of the batch exceeds 16 MB");
+
+        List<ConsumedCapacity> capacity = new ArrayList<>();
+        byTable.forEach((t, writes) -> {
+            double units = 0;
+            for (WriteRequest w : writes) {
+                Map<String, AttributeValue> old;
+                long size = 0;
+                if (w.putRequest() != null) {
+                    old = t.put(t.key(w.putRequest().item()), Map.copyOf(w.putRequest().item()));
+                    size = itemSize(w.putRequest().item());
+                } else {
+                    old = t.remove(t.key(w.deleteRequest().key()));
+                }
+                units += writeUnits(Math.max(size, old == null ? 0 : itemSize(old)));
+            }
+            ConsumedCapacity c = consumed(r.returnConsumedCapacity(), t, units);
+            if (c != null) capacity.add(c);
+        });
+        return BatchWriteItemResponse.builder()
+                .unprocessedItems(Map.of())
+                .consumedCapacity(capacity.isEmpty() ? null : capacity)
+                .build();
+    }
+
+    /**
+     * Conditional Puts and Deletes applied all or nothing. Only writes to one partition of one
+     * table are taken: that partition is locked for the whole transaction, so no other write
+     * interleaves. Puts are applied before deletes, so a concurrent query never misses both the
+     * old and the new copy of a re-keyed item.
+     */
+    @Override
+    public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest r) {
+        call("TransactWriteItems");
+        List<TransactWriteItem> writes = r.transactItems();
+        if (writes.isEmpty() || writes.size() > MAX_TRANSACT_ITEMS) {
+            throw invalid("Member must have length less than or equal to " + MAX_TRANSACT_ITEMS + " and greater than or equal to 1");
+        }
+        Table t = null;
+        Object hash = null;
+        List<Key> keys = new ArrayList<>();
+        List<Condition> conditions = new ArrayList<>();
+        for (TransactWriteItem w : writes) {
+            if (w.conditionCheck() != null || w.update() != null) throw unsupported("TransactWriteItems ConditionCheck and Update");
+            String table = w.put() != null ? w.put().tableName() : w.delete().tableName();
+            if (t != null && !t.name().equals(table)) throw unsupported("TransactWriteItems across tables");
+            t = table(table);
+            Key k = t.key(w.put() != null ? w.put().item() : w.delete().key());
+            if (hash != null && !hash.equals(k.hash())) throw unsupported("TransactWriteItems across partitions");
+            hash = k.hash();
+            if (keys.contains(k)) throw invalid("Transaction request cannot include multiple operations on one item");
+            keys.add(k);
+            if (w.put() != null) {
+                checkItem(w.put().item());
+                conditions.add(Condition.of(w.put().conditionExpression(), w.put().expressionAttributeNames(), w.put().expressionAttributeValues()));
+            } else {
+                conditions.add(Condition.of(w.delete().conditionExpression(), w.delete().expressionAttributeNames(), w.delete().expressionAttributeValues()));
+            }
+        }
+
+        Table table = t;
+        double[] units = {0};
+        table.partitions().compute(hash, (h, p) -> {
+            if (p == null) p = new ConcurrentSkipListMap<>(RANGE_ORDER);
+            List<String> reasons = new ArrayList<>();
+            boolean failed = false;
+            for (int i = 0; i < writes.size(); i++) {
+                boolean ok = conditions.get(i).holds(p.get(keys.get(i).range()));
+                reasons.add(ok ? "None" : "ConditionalCheckFailed");
+                failed |= !ok;
+            }
+            if (failed) throw cancelled(reasons);
+            for (int i = 0; i < writes.size(); i++) {
+                Map<String, AttributeValue> old = p.get(keys.get(i).range());
+                long size = writes.get(i).put() != null ? itemSize(writes.get(i).put().item()) : 0;
+                // a transactional write costs two units per KB
+                units[0] += 2 * writeUnits(Math.max(size, old == null ? 0 : itemSize(old)));
+                if (writes.get(i).put() != null) p.put(keys.get(i).range(), Map.copyOf(writes.get(i).put().item()));
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                if (writes.get(i).delete() != null) p.remove(keys.get(i).range());
+            }
+            return p.isEmpty() ? null : p;
+        });
+        ConsumedCapacity c = consumed(r.returnConsumedCapacity(), table, units[0]);
+        return TransactWriteItemsResponse.builder().consumedCapacity(c == null ? null : List.of(c)).build();
+    }
+
+    /** Items past 16 MB of response are handed back as UnprocessedKeys, as the service does. */
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest r) {
+        call("BatchGetItem");
+        int n = 0;
+        for (Map.Entry<String, KeysAndAttributes> e : r.requestItems().entrySet()) {
+            Table t = table(e.getKey());
+            Set<Key> seen = new HashSet<>();
+            for (Map<String, AttributeValue> key : e.getValue().keys()) {
+                if (!seen.add(t.key(key))) throw invalid("Provided list of item keys contains duplicates");
+                n++;
+            }
+        }
+        if (n > MAX_BATCH_GET) {
+            throw invalid("Too many items requested for the BatchGetItem call (" + n + " > " + MAX_BATCH_GET + ")");
+        }
+
+        long bytes = 0;
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        Map<String, KeysAndAttributes> unprocessed = new HashMap<>();
+        List<ConsumedCapacity> capacity = new ArrayList<>();
+        for (Map.Entry<String, KeysAndAttributes> e : r.requestItems().entrySet()) {
+            Table t = table(e.getKey());
+            KeysAndAttributes ka = e.getValue();
+            List<Map<String, AttributeValue>> found = new ArrayList<>();
+            List<Map<String, AttributeValue>> left = new ArrayList<>();
+            double units = 0;
+            for (Map<String, AttributeValue> key : ka.keys()) {
+                if (bytes >= MAX_BATCH_BYTES) {
+                    left.add(key);
+                    continue;
+                }
+                Map<String, AttributeValue> item = t.get(t.key(key));
+                units += readUnits(item == null ? 0 : itemSize(item), ka.consistentRead());
+                if (item == null) continue;
+                bytes += itemSize(item);
+                found.add(project(item, ka.projectionExpression(), ka.expressionAttributeNames()));
+            }
+            responses.put(t.name(), found);
+            if (!left.isEmpty()) unprocessed.put(t.name(), ka.toBuilder().keys(left).build());
+            ConsumedCapacity c = consumed(r.returnConsumedCapacity(), t, units);
+            if (c != null) capacity.add(c);
+        }
+        return BatchGetItemResponse.builder()
+                .responses(responses)
+                .unprocessedKeys(unprocessed)
+                .consumedCapacity(capacity.isEmpty() ? null : capacity)
+                .build();
+    }
+
+    /**
+     * Key-condition queries with Limit, ExclusiveStartKey and ScanIndexForward. A page ends at
+     * Limit items or once 1 MB has been read; either way LastEvaluatedKey is set, even when no
+     * items are left, as DynamoDB does.
+     */
+    @Override
+    public QueryResponse query(QueryRequest r) {
+        call("Query");
+        if (r.filterExpression() != null || r.hasQueryFilter() || r.hasKeyConditions()) throw unsupported("filters and legacy KeyConditions");
+        if (r.indexName() != null) throw unsupported("secondary indexes");
+        Table t = table(r.tableName());
+        Map<String, String> names = r.hasExpressionAttributeNames() ? r.expressionAttributeNames() : Map.of();
+        Map<String, AttributeValue> values = r.hasExpressionAttributeValues() ? r.expressionAttributeValues() : Map.of();
+
+        Object hash = null;
+        RangeCondition range = null;
+        for (String part : conjuncts(r.keyConditionExpression())) {
+            Matcher m;
+            if ((m = BETWEEN.matcher(part)).matches()) {
+                range = new RangeCondition(t.requireRange(resolve(m.group(1), names)), "BETWEEN",
+                        t.rangeValue(value(m.group(2), values)), t.rangeValue(value(m.group(3), values)));
+            } else if ((m = BEGINS_WITH.matcher(part)).matches()) {
+                range = new RangeCondition(t.requireRange(resolve(m.group(1), names)), "begins_with",
+                        t.rangeValue(value(m.group(2), values)), null);
+            } else if ((m = COMPARISON.matcher(part)).matches()) {
+                String attr = resolve(m.group(1), names);
+                if (attr.equals(t.hashKey())) {
+                    if (!m.group(2).equals("=")) throw invalid("Query key condition not supported");
+                    hash = t.hashValue(value(m.group(3), values));
+                } else {
+                    range = new RangeCondition(t.requireRange(attr), m.group(2), t.rangeValue(value(m.group(3), values)), null);
+                }
+            } else {
+                throw invalid("Invalid KeyConditionExpression: " + r.keyConditionExpression());
+            }
+        }
+        if (hash == null) throw invalid("Query condition missed key schema element: " + t.hashKey());
+
+        NavigableMap<Object, Map<String, AttributeValue>> part = t.partitions().get(hash);
+        if (part == null) part = Collections.emptyNavigableMap();
+        if (range != null) part = range.apply(part);
+        if (Boolean.FALSE.equals(r.scanIndexForward())) part = part.descendingMap();
+        if (r.hasExclusiveStartKey()) part = part.tailMap(t.key(r.exclusiveStartKey()).range(), false);
+
+        int limit = r.limit() == null ? Integer.MAX_VALUE : r.limit();
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        long bytes = 0;
+        Map<String, AttributeValue> last = null;
+        boolean stopped = false;
+        for (Map.Entry<Object, Map<String, AttributeValue>> e : part.entrySet()) {
+            if (range != null && !range.matches(e.getKey())) continue;
+            if (items.size() >= limit || bytes >= MAX_PAGE_BYTES) {
+                stopped = true;
+                break;
+            }
+            bytes += itemSize(e.getValue());
+            last = e.getValue();
+            items.add(project(last, r.projectionExpression(), names));
+        }
+        if (items.size() >= limit) stopped = true;
+        return QueryResponse.builder()
+                .items(items)
+                .count(items.size())
+                .scannedCount(items.size())
+                .lastEvaluatedKey(stopped && last != null ? t.keyOf(last) : null)
+                .consumedCapacity(consumed(r.returnConsumedCapacity(), t, readUnits(bytes, r.consistentRead())))
+                .build();
+    }
+
+    // ---- tables ----
+
+    /** hash is the normalized hash key value; range is a String, a BigDecimal, or "" for hash-only tables */
+    private record Key(Object hash, Object range) {}
+
+    private record Table(String name, String hashKey, ScalarAttributeType hashType, String rangeKey,
+                         ScalarAttributeType rangeType,
+                         ConcurrentHashMap<Object, ConcurrentSkipListMap<Object, Map<String, AttributeValue>>> partitions) {
+
+        /** Exactly the key attributes, of the declared types, as DynamoDB requires of a key. */
+        Key key(Map<String, AttributeValue> attrs) {
+            AttributeValue h = attrs.get(hashKey);
+            if (h == null) throw invalid("The provided key element does not match the schema");
+            Object hash = scalar(h, hashType, MAX_HASH_KEY_BYTES);
+            if (rangeKey == null) return new Key(hash, "");
+            AttributeValue r = attrs.get(rangeKey);
+            if (r == null) throw invalid("The provided key element does not match the schema");
+            return new Key(hash, scalar(r, rangeType, MAX_RANGE_KEY_BYTES));
+        }
+
+        Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> k = new HashMap<>();
+            k.put(hashKey, item.get(hashKey));
+            if (rangeKey != null) k.put(rangeKey, item.get(rangeKey));
+            return k;
+        }
+
+        Object hashValue(AttributeValue v) {
+            return scalar(v, hashType, MAX_HASH_KEY_BYTES);
+        }
+
+        Object rangeValue(AttributeValue v) {
+            return scalar(v, rangeType, MAX_RANGE_KEY_BYTES);
+        }
+
+        String requireRange(String attr) {
+            if (!attr.equals(rangeKey)) throw invalid("Query condition on non-key attribute " + attr);
+            return attr;
+        }
+
+        Map<String, AttributeValue> get(Key k) {
+            Map<Object, Map<String, AttributeValue>> p = partitions.get(k.hash());
+            return p == null ? null : p.get(k.range());
+        }
+
+        Map<String, AttributeValue> put(Key k, Map<String, AttributeValue> item) {
+            return put(k, item, Condition.NONE);
+        }
+
+        /** Stores item if c holds for the item it replaces; the check and the write are one atomic step. */
+        Map<String, AttributeValue> put(Key k, Map<String, AttributeValue> item, Condition c) {
+            AtomicReference<Map<String, AttributeValue>> old = new AtomicReference<>();
+            partitions.compute(k.hash(), (h, p) -> {
+                if (p == null) p = new ConcurrentSkipListMap<>(RANGE_ORDER);
+                if (!c.holds(p.get(k.range()))) throw conditionFailed();
+                old.set(p.put(k.range(), item));
+                return p;
+            });
+            return old.get();
+        }
+
+        Map<String, AttributeValue> remove(Key k) {
+            return remove(k, Condition.NONE);
+        }
+
+        Map<String, AttributeValue> remove(Key k, Condition c) {
+            AtomicReference<Map<String, AttributeValue>> old = new AtomicReference<>();
+            partitions.compute(k.hash(), (h, p) -> {
+                if (!c.holds(p == null ? null : p.get(k.range()))) throw conditionFailed();
+                if (p == null) return null;
+                old.set(p.remove(k.range()));
+                return p.isEmpty() ? null : p;
+            });
+            return old.get();
+        }
+
+        /** Atomic read-modify-write of one item: writes to a partition are serialized. */
+        Map<String, AttributeValue> update(Key k, UnaryOperator<Map<String, AttributeValue>> fn) {
+            AtomicReference<Map<String, AttributeValue>> out = new AtomicReference<>();
+            partitions.compute(k.hash(), (h, p) -> {
+                if (p == null) p = new ConcurrentSkipListMap<>(RANGE_ORDER);
+                Map<String, AttributeValue> next = fn.apply(p.get(k.range()));
+                p.put(k.range(), next);
+                out.set(next);
+                return p;
+            });
+            return out.get();
+        }
+    }
+
+    /** A parsed ConditionExpression: every term must hold for the item as it is before the write (null = absent). */
+    private record Condition(List<Predicate<Map<String, AttributeValue>>> terms) {
+        static final Condition NONE = new Condition(List.of());
+
+        static Condition of(String expr, Map<String, String> names, Map<String, AttributeValue> values) {
+            if (expr == null) return NONE;
+            List<Predicate<Map<String, AttributeValue>>> terms = new ArrayList<>();
+            for (String part : expr.trim().split("(?i)\\s+AND\\s+")) {
+                Matcher m;
+                if ((m = EXISTS.matcher(part.trim())).matches()) {
+                    String attr = resolve(m.group(2), names);
+                    boolean exists = m.group(1).equalsIgnoreCase("attribute_exists");
+                    terms.add(item -> (item != null && item.containsKey(attr)) == exists);
+                } else if ((m = EQUALS.matcher(part.trim())).matches()) {
+                    String attr = resolve(m.group(1), names);
+                    AttributeValue v = value(m.group(2), values);
+                    terms.add(item -> item != null && sameValue(v, item.get(attr)));
+                } else {
+                    throw unsupported("ConditionExpression " + expr);
+                }
+            }
+            return new Condition(List.copyOf(terms));
+        }
+
+        boolean holds(Map<String, AttributeValue> item) {
+            for (Predicate<Map<String, AttributeValue>> t : terms) {
+                if (!t.test(item)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Numbers compare by value, as DynamoDB compares them; everything else by equality. */
+    private static boolean sameValue(AttributeValue a, AttributeValue b) {
+        if (b == null) return false;
+        if (a.n() != null && b.n() != null) return new BigDecimal(a.n()).compareTo(new BigDecimal(b.n())) == 0;
+        return a.equals(b);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Comparator<Object> RANGE_ORDER = (a, b) -> ((Comparable) a).compareTo(b);
+
+    private record RangeCondition(String attr, String op, Object a, Object b) {
+        NavigableMap<Object, Map<String, AttributeValue>> apply(NavigableMap<Object, Map<String, AttributeValue>> p) {
+            return switch (op) {
+                case "=" -> p.subMap(a, true, a, true);
+                case "<" -> p.headMap(a, false);
+                case "<=" -> p.headMap(a, true);
+                case ">" -> p.tailMap(a, false);
+                case ">=" -> p.tailMap(a, true);
+                case "BETWEEN" -> p.subMap(a, true, b, true);
+                case "begins_with" -> {
+                    String prefix = (String) a;
+                    char last = prefix.charAt(prefix.length() - 1);
+                    // every string with the prefix sorts below the prefix with its last char bumped
+                    yield last == Character.MAX_VALUE ? p.tailMap(a, true)
+                            : p.subMap(a, true, prefix.substring(0, prefix.length() - 1) + (char) (last + 1), false);
+                }
+                default -> throw invalid("Unsupported key condition operator " + op);
+            };
+        }
+
+        boolean matches(Object range) {
+            return !op.equals("begins_with") || ((String) range).startsWith((String) a);
+        }
+    }
+
+    private Table table(String name) {
+        Table t = tables.get(name);
+        if (t == null) {
+            throw ResourceNotFoundException.builder()
+                    .message("Requested resource not found: Table: " + name + " not found")
+                    .statusCode(400)
+                    .build();
+        }
+        return t;
+    }
+
+    private void call(String op) {
+        calls.computeIfAbsent(op, k -> new LongAdder()).increment();
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ---- attribute values ----
+
+    private static Object scalar(AttributeValue v, ScalarAttributeType type, int maxBytes) {
+        Object out = switch (type) {
+            case S -> v.s();
+            case N -> v.n() == null ? null : new BigDecimal(v.n()).stripTrailingZeros();
+            default -> throw unsupported("binary keys");
+        };
+        if (out == null) throw invalid("The provided key element does not match the schema");
+        if (out instanceof String s && (s.isEmpty() || utf8(s) > maxBytes)) {
+            throw invalid("One or more parameter values are not valid. The AttributeValue for a key attribute cannot contain an empty string value or exceed " + maxBytes + " bytes");
+        }
+        return out;
+    }
+
+    private static void apply(Map<String, AttributeValue> item, String name, AttributeValueUpdate u) {
+        AttributeValue v = u.value();
+        AttributeAction action = u.action() == null ? AttributeAction.PUT : u.action();
+        switch (action) {
+            case PUT -> {
+                if (v == null) throw invalid("Attribute value for PUT cannot be null");
+                item.put(name, v);
+            }
+            case DELETE -> {
+                if (v == null) {
+                    item.remove(name);
+                } else if (item.get(name) != null) {
+                    AttributeValue cur = item.get(name);
+                    if (v.hasSs() && cur.hasSs()) setOrRemove(item, name, minus(cur.ss(), v.ss()), true);
+                    else if (v.hasNs() && cur.hasNs()) setOrRemove(item, name, minus(cur.ns(), v.ns()), false);
+                    else throw invalid("Type mismatch for attribute to update");
+                }
+            }
+            case ADD -> {
+                if (v == null) throw invalid("Attribute value for ADD cannot be null");
+                AttributeValue cur = item.get(name);
+                if (v.n() != null) {
+                    if (cur != null && cur.n() == null) throw invalid("Type mismatch for attribute to update");
+                    BigDecimal sum = new BigDecimal(v.n()).add(cur == null ? BigDecimal.ZERO : new BigDecimal(cur.n()));
+                    item.put(name, AttributeValue.builder().n(sum.toPlainString()).build());
+                } else if (v.hasSs()) {
+                    if (cur != null && !cur.hasSs()) throw invalid("Type mismatch for attribute to update");
+                    Set<String> s = new LinkedHashSet<>(cur == null ? List.of() : cur.ss());
+                    s.addAll(v.ss());
+                    item.put(name, AttributeValue.builder().ss(s).build());
+                } else if (v.hasNs()) {
+                    if (cur != null && !cur.hasNs()) throw invalid("Type mismatch for attribute to update");
+                    Set<String> s = new LinkedHashSet<>(cur == null ? List.of() : cur.ns());
+                    s.addAll(v.ns());
+                    item.put(name, AttributeValue.builder().ns(s).build());
+                } else {
+                    throw invalid("ADD action is only supported for numbers and sets");
+                }
+            }
+            default -> throw unsupported("attribute action " + action);
+        }
+    }
+
+    private static List<String> minus(List<String> a, List<String> b) {
+        List<String> out = new ArrayList<>(a);
+        out.removeAll(b);
+        return out;
+    }
+
+    private static void setOrRemove(Map<String, AttributeValue> item, String name, List<String> set, boolean strings) {
+        if (set.isEmpty()) item.remove(name);
+        else item.put(name, strings ? AttributeValue.builder().ss(set).build() : AttributeValue.builder().ns(set).build());
+    }
+
+    private static Map<String, AttributeValue> pick(Map<String, AttributeValue> item, Set<String> names) {
+        Map<String, AttributeValue> out = new HashMap<>();
+        for (String n : names) {
+            if (item.containsKey(n)) out.put(n, item.get(n));
+        }
+        return out;
+    }
+
+    /** Top-level attribute names only: the store never projects into maps or lists. */
+    private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projection,
+                                                       Map<String, String> names) {
+        if (projection == null) return item;
+        Map<String, AttributeValue> out = new HashMap<>();
+        for (String p : projection.split(",")) {
+            String attr = resolve(p.trim(), names);
+            if (attr.contains(".") || attr.contains("[")) throw unsupported("nested projections");
+            if (item.containsKey(attr)) out.put(attr, item.get(attr));
+        }
+        return out;
+    }
+
+    private static String resolve(String token, Map<String, String> names) {
+        if (!token.startsWith("#")) return token;
+        String name = names == null ? null : names.get(token);
+        if (name == null) throw invalid("An expression attribute name used in the document path is not defined; attribute name: " + token);
+        return name;
+    }
+
+    private static AttributeValue value(String token, Map<String, AttributeValue> values) {
+        AttributeValue v = values.get(token);
+        if (v == null) throw invalid("An expression attribute value used in expression is not defined; attribute value: " + token);
+        return v;
+    }
+
+    /** Splits on AND, keeping "x BETWEEN :a AND :b" together. */
+    private static List<String> conjuncts(String expr) {
+        if (expr == null || expr.isBlank()) throw invalid("KeyConditionExpression must be specified");
+        List<String> out = new ArrayList<>();
+        String[] parts = expr.trim().split("(?i)\\s+AND\\s+");
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].matches("(?i).*\\sBETWEEN\\s+:\\w+") && i + 1 < parts.length) out.add(parts[i] + " AND " + parts[++i]);
+            else out.add(parts[i]);
+        }
+        return out;
+    }
+
+    // ---- sizes ----
+
+    /** Read units for bytes read by one item read or one query page: 4 KB steps, halved unless consistent. */
+    static double readUnits(long bytes, Boolean consistentRead) {
+        double units = Math.max(1, Math.ceil(bytes / 4096.0));
+        return Boolean.TRUE.equals(consistentRead) ? units : units / 2;
+    }
+
+    /** Write units for one item write: 1 KB steps, at least one. */
+    public static double writeUnits(long bytes) {
+        return Math.max(1, Math.ceil(bytes / 1024.0));
+    }
+
+    /** The table's consumed capacity when the request asked for it, else null. */
+    private static ConsumedCapacity consumed(ReturnConsumedCapacity mode, Table t, double units) {
+        if (mode != ReturnConsumedCapacity.TOTAL && mode != ReturnConsumedCapacity.INDEXES) return null;
+        return ConsumedCapacity.builder().tableName(t.name()).capacityUnits(units).build();
+    }
+
+    /** Validates an item to be stored and returns its size. */
+    private static long checkItem(Map<String, AttributeValue> item) {
+        long size = itemSize(item);
+        if (size > MAX_ITEM_BYTES) throw invalid("Item size has exceeded the maximum allowed size");
+        for (Map.Entry<String, AttributeValue> e : item.entrySet()) {
+            AttributeValue v = e.getValue();
+            if ((v.hasSs() && v.ss().isEmpty()) || (v.hasNs() && v.ns().isEmpty()) || (v.hasBs() && v.bs().isEmpty())) {
+                throw invalid("One or more parameter values were invalid: An empty set is not allowed");
+            }
+        }
+        return size;
+    }
+
+    /** DynamoDB's item size: attribute name bytes plus value bytes. */
+    public static long itemSize(Map<String, AttributeValue> item) {
+        long n = 0;
+        for (Map.Entry<String, AttributeValue> e : item.entrySet()) n += utf8(e.getKey()) + valueSize(e.getValue());
+        return n;
+    }
+
+    private static long valueSize(AttributeValue v) {
+        if (v.s() != null) return utf8(v.s());
+        if (v.n() != null) return numberSize(v.n());
+        if (v.b() != null) return v.b().asByteArrayUnsafe().length;
+        if (v.bool() != null || v.nul() != null) return 1;
+        long n = 0;
+        if (v.hasSs()) for (String s : v.ss()) n += utf8(s);
+        else if (v.hasNs()) for (String s : v.ns()) n += numberSize(s);
+        else if (v.hasBs()) for (var b : v.bs()) n += b.asByteArrayUnsafe().length;
+        else if (v.hasM()) {
+            n = 3;
+            for (Map.Entry<String, AttributeValue> e : v.m().entrySet()) n += 1 + utf8(e.getKey()) + valueSize(e.getValue());
+        } else if (v.hasL()) {
+            n = 3;
+            for (AttributeValue e : v.l()) n += 1 + valueSize(e);
+        }
+        return n;
+    }
+
+    /** Numbers are stored as up to 38 significant digits, two per byte, plus one byte. */
+    private static long numberSize(String n) {
+        BigDecimal d = new BigDecimal(n).stripTrailingZeros();
+        return 1 + (d.precision() + 1) / 2;
+    }
+
+    private static long utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static DynamoDbException invalid(String message) {
+        return (DynamoDbException) DynamoDbException.builder()
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ValidationException")
+                        .errorMessage(message)
+                        .serviceName(SERVICE_NAME)
+                        .build())
+                .build();
+    }
+
+    private static ConditionalCheckFailedException conditionFailed() {
+        String message = "The conditional request failed";
+        return ConditionalCheckFailedException.builder()
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ConditionalCheckFailedException")
+                        .errorMessage(message)
+                        .serviceName(SERVICE_NAME)
+                        .build())
+                .build();
+    }
+
+    private static TransactionCanceledException cancelled(List<String> reasons) {
+        String message = "Transaction cancelled, please refer cancellation reasons for specific reasons " + reasons;
+        List<CancellationReason> out = new ArrayList<>();
+        for (String code : reasons) {
+            CancellationReason.Builder b = CancellationReason.builder().code(code);
+            if (!code.equals("None")) b.message("The conditional request failed");
+            out.add(b.build());
+        }
+        return TransactionCanceledException.builder()
+                .message(message)
+                .cancellationReasons(out)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("TransactionCanceledException")
+                        .errorMessage(message)
+                        .serviceName(SERVICE_NAME)
+                        .build())
+                .build();
+    }
+
+    private static DynamoDbException unsupported(String what) {
+        return invalid(what + " is not supported by LocalDynamoDb");
+    }
+}
@@ -0,0 +1,131 @@
+package lambda;
+
+import core.Trace;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.util.function.Supplier;
+
+/**
+ * The DynamoDbClient the index stores talk to: asks every request for its consumed capacity
+ * and records, per operation, the call's latency in {@link Tracing#metrics()} ("ddb.Query", ...)
+ * and the calls, milliseconds and read/write capacity units on the request's {@link Trace}
+ * ("ddb.calls", "ddb.ms", "ddb.rcu", "ddb.wcu"). Only the operations the stores use.
+ */
+final class MeteredDynamoDb implements DynamoDbClient {
+    private final DynamoDbClient ddb;
+
+    MeteredDynamoDb(DynamoDbClient ddb) {
+        this.ddb = ddb;
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest r) {
+        GetItemResponse resp = call("GetItem", () -> ddb.getItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        read(resp.consumedCapacity());
+        return resp;
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest r) {
+        PutItemResponse resp = call("PutItem", () -> ddb.putItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        write(resp.consumedCapacity());
+        return resp;
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest r) {
+        DeleteItemResponse resp = call("DeleteItem", () -> ddb.deleteItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        write(resp.consumedCapacity());
+        return resp;
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest r) {
+        UpdateItemResponse resp = call("UpdateItem", () -> ddb.updateItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        write(resp.consumedCapacity());
+        return resp;
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest r) {
+        BatchWriteItemResponse resp = call("BatchWriteItem", () -> ddb.batchWriteItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        if (resp.hasConsumedCapacity()) resp.consumedCapacity().forEach(this::write);
+        return resp;
+    }
+
+    @Override
+    public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest r) {
+        TransactWriteItemsResponse resp = call("TransactWriteItems", () -> ddb.transactWriteItems(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        if (resp.hasConsumedCapacity()) resp.consumedCapacity().forEach(this::write);
+        return resp;
+    }
+
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest r) {
+        BatchGetItemResponse resp = call("BatchGetItem", () -> ddb.batchGetItem(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        if (resp.hasConsumedCapacity()) resp.consumedCapacity().forEach(this::read);
+        return resp;
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest r) {
+        QueryResponse resp = call("Query", () -> ddb.query(r.toBuilder().returnConsumedCapacity(ReturnConsumedCapacity.TOTAL).build()));
+        read(resp.consumedCapacity());
+        return resp;
+    }
+
+    @Override
+    public String serviceName() {
+        return ddb.serviceName();
+    }
+
+    @Override
+    public void close() {
+        ddb.close();
+    }
+
+    private <T> T call(String op, Supplier<T> request) {
+        Trace trace = Trace.current();
+        long t0 = System.nanoTime();
+        try {
+            return request.get();
+        } finally {
+            long nanos = System.nanoTime() - t0;
+            Tracing.metrics().record("ddb." + op, nanos);
+            trace.add("ddb.calls", 1);
+            trace.add("ddb.ms", nanos / 1e6);
+        }
+    }
+
+    private void read(ConsumedCapacity c) {
+        capacity("ddb.rcu", c);
+    }
+
+    private void write(ConsumedCapacity c) {
+        capacity("ddb.wcu", c);
+    }
+
+    private void capacity(String name, ConsumedCapacity c) {
+        if (c == null || c.capacityUnits() == null) return;
+        Trace.current().add(name, c.capacityUnits());
+        Tracing.metrics().add(name, c.capacityUnits());
+    }
+}
@@ -2,6 +2,7 @@ package lambda;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import core.Trace;
 
 import java.util.Map;
 import java.util.UUID;
@@ -9,6 +10,7 @@ import java.util.UUID;
 public class RegisterHandler implements RequestHandler<Map<String, Object>, Map<String, Object>> {
     @Override
     public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
-        return Map.of("clientId", UUID.randomUUID().toString());
+        Trace trace = Tracing.begin(input, context);
+        return Tracing.end(trace, context, "RegisterHandler", "register", Map.of("clientId", UUID.randomUUID().toString()));
     }
 }
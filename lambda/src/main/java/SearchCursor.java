@@ -0,0 +1,80 @@
+package lambda;
+
+import core.Varint;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Continuation token of a streamed search. The first chunk ranks every match once and keeps
+ * the rest of the ranking as pages of chunkSize rows in the store ({@link core.IndexStore#putSnapshot});
+ * the cursor names that snapshot, the page to send next, the total and the index generation the
+ * ranking was made at. Later chunks only read their page, so a stream sees one version of the
+ * index however many writes land meanwhile, and fails with STALE_CURSOR only once the snapshot
+ * has expired. Opaque to clients; it only reads its own tenant's snapshots.
+ */
+record SearchCursor(String snapshot, long generation, int chunkSize, long total, int page) {
+
+    /** Rows sent before this cursor's page. */
+    long emitted() {
+        return (long) page * chunkSize;
+    }
+
+    /** The cursor for the page after this one, or null when this is the last. */
+    SearchCursor next() {
+        return emitted() + chunkSize < total ? new SearchCursor(snapshot, generation, chunkSize, total, page + 1) : null;
+    }
+
+    String encode() {
+        String s = snapshot + "." + generation + "." + chunkSize + "." + total + "." + page;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static SearchCursor parse(String token) {
+        try {
+            String[] f = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split("\\.");
+            if (f.length != 5 || !f[0].matches("[0-9a-f]{32}")) throw new IllegalArgumentException("malformed cursor");
+            SearchCursor c = new SearchCursor(f[0], Long.parseLong(f[1]), Integer.parseInt(f[2]),
+                    Long.parseLong(f[3]), Integer.parseInt(f[4]));
+            if (c.chunkSize() < 1 || c.page() < 1) throw new IllegalArgumentException("malformed cursor");
+            return c;
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            throw new IllegalArgumentException("malformed cursor: " + token, e);
+        }
+    }
+
+    /** A page of ranked rows: varint count, then per row a varint docId and the score's 8 bytes. */
+    static byte[] encodePage(List<Map.Entry<Long, Double>> rows) {
+        byte[] buf = new byte[10 + rows.size() * 18];
+        int pos = Varint.write(buf, 0, rows.size());
+        for (Map.Entry<Long, Double> e : rows) {
+            pos = Varint.write(buf, pos, e.getKey());
+            ByteBuffer.wrap(buf, pos, 8).putDouble(e.getValue());
+            pos += 8;
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    static List<Map.Entry<Long, Double>> decodePage(byte[] data) {
+        try {
+            int[] pos = {0};
+            long n = Varint.read(data, pos);
+            if (n > (data.length - pos[0]) / 9) throw new IllegalArgumentException("corrupt stream page");
+            List<Map.Entry<Long, Double>> rows = new ArrayList<>((int) n);
+            for (long i = 0; i < n; i++) {
+                long docId = Varint.read(data, pos);
+                rows.add(Map.entry(docId, ByteBuffer.wrap(data, pos[0], 8).getDouble()));
+                pos[0] += 8;
+            }
+            return rows;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt stream page", e);
+        }
+    }
+}
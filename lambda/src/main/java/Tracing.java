@@ -0,0 +1,82 @@
+package lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import core.Metrics;
+import core.Trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Request tracing for the handlers. Each request runs under a {@link Trace} whose id is the
+ * client's "requestId" (else Lambda's, else a new one); the response carries the id and the
+ * trace summary back. Timings also accumulate in per-process {@link Metrics}, and each request
+ * is logged as a CloudWatch EMF line under METRICS_NAMESPACE (default "FileRetrievalEngine"),
+ * dimensions Function and Operation. METRICS_EMF=true|false, on by default inside Lambda only.
+ */
+final class Tracing {
+    static final String REQUEST_ID = "requestId";
+    private static final String NAMESPACE = System.getenv().getOrDefault("METRICS_NAMESPACE", "FileRetrievalEngine");
+    private static final boolean EMF = System.getenv("METRICS_EMF") != null
+            ? Boolean.parseBoolean(System.getenv("METRICS_EMF"))
+            : System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null;
+
+    private static volatile Metrics metrics = new Metrics();
+    private static volatile boolean quiet;
+
+    private Tracing() {}
+
+    /** Latencies per operation and phase, plus DynamoDB's per call, since start (or priming). */
+    static Metrics metrics() {
+        return metrics;
+    }
+
+    static Trace begin(Map<String, Object> input, Context ctx) {
+        Object id = input.get(REQUEST_ID);
+        return Trace.begin(id instanceof String s && !s.isBlank() ? s
+                : ctx != null ? ctx.getAwsRequestId()
+                : UUID.randomUUID().toString());
+    }
+
+    /** Ends the trace and returns out with "requestId" and "trace" added. */
+    static Map<String, Object> end(Trace trace, Context ctx, String function, String operation, Map<String, Object> out) {
+        Map<String, Object> summary = finish(trace, ctx, function, operation, null);
+        Map<String, Object> resp = out instanceof LinkedHashMap<String, Object> m ? m : new LinkedHashMap<>(out);
+        resp.put(REQUEST_ID, trace.requestId());
+        resp.put("trace", summary);
+        return resp;
+    }
+
+    /** Ends the trace of a request that failed with e; the caller rethrows. */
+    static void fail(Trace trace, Context ctx, String function, String operation, RuntimeException e) {
+        finish(trace, ctx, function, operation, e);
+        metrics.add(operation + ".errors", 1);
+    }
+
+    /** Runs work (priming) with tracing live but silent, then starts the metrics afresh. */
+    static void quietly(Runnable work) {
+        quiet = true;
+        try {
+            work.run();
+        } finally {
+            metrics = new Metrics();
+            quiet = false;
+        }
+    }
+
+    private static Map<String, Object> finish(Trace trace, Context ctx, String function, String operation, RuntimeException e) {
+        Map<String, Object> summary = trace.end(metrics, operation);
+        summary.remove(REQUEST_ID);
+        if (EMF && !quiet) {
+            Map<String, String> dimensions = new LinkedHashMap<>();
+            dimensions.put("Function", ctx != null ? ctx.getFunctionName() : function);
+            dimensions.put("Operation", operation);
+            Map<String, Object> properties = new LinkedHashMap<>();
+            if (ctx != null && !ctx.getAwsRequestId().equals(trace.requestId())) properties.put("awsRequestId", ctx.getAwsRequestId());
+            if (e != null) properties.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            System.out.println(trace.toEmf(NAMESPACE, dimensions, properties));
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,106 @@
+package lambda;
+
+import core.WriteStats;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchWriterTest {
+    private static final String TABLE = "FRE_TermIndex";
+
+    /** Takes only the first {@code accept} writes of each call and hands the rest back as UnprocessedItems. */
+    private static final class Throttling implements DynamoDbClient {
+        final int accept;
+        final Set<String> written = ConcurrentHashMap.newKeySet();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final AtomicInteger duplicates = new AtomicInteger();
+
+        Throttling(int accept) {
+            this.accept = accept;
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest r) {
+            List<WriteRequest> writes = r.requestItems().get(TABLE);
+            batchSizes.add(writes.size());
+            int n = Math.min(accept, writes.size());
+            for (WriteRequest w : writes.subList(0, n)) {
+                if (!written.add(w.putRequest().item().get("term").s())) duplicates.incrementAndGet();
+            }
+            List<WriteRequest> rest = writes.subList(n, writes.size());
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(rest.isEmpty() ? Map.of() : Map.of(TABLE, List.copyOf(rest)))
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static List<Map<String, AttributeValue>> items(int n) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            items.add(Map.of("term", AttributeValue.builder().s("t" + i).build(),
+                    "docId", AttributeValue.builder().n("1").build()));
+        }
+        return items;
+    }
+
+    @Test
+    void unprocessedItemsAreRetriedUntilEveryItemIsWritten() {
+        Throttling ddb = new Throttling(7);
+        WriteStats stats = new BatchWriter(ddb, 4, 8, 1, 4).write(TABLE, items(1003));
+
+        assertEquals(1003, ddb.written.size());
+        assertEquals(0, ddb.duplicates.get());
+        assertEquals(1003, stats.items());
+        assertEquals(41, stats.batches());
+        // 40 full chunks need 3 retries each (25 -> 18 -> 11 -> 4), the last 3 items none
+        assertEquals(120, stats.retries());
+    }
+
+    @Test
+    void everyBatchStaysWithinTwentyFiveItems() {
+        Throttling ddb = new Throttling(Integer.MAX_VALUE);
+        WriteStats stats = new BatchWriter(ddb, 4, 8, 1, 4).write(TABLE, items(260));
+
+        assertEquals(260, ddb.written.size());
+        assertEquals(11, ddb.batchSizes.size());
+        assertTrue(ddb.batchSizes.stream().allMatch(n -> n > 0 && n <= BatchWriter.MAX_BATCH), ddb.batchSizes::toString);
+        assertEquals(0, stats.retries());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        Throttling ddb = new Throttling(0);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new BatchWriter(ddb, 1, 3, 1, 4).write(TABLE, items(10)));
+        assertTrue(e.getMessage().startsWith("10 unprocessed items"), e.getMessage());
+        assertEquals(4, ddb.batchSizes.size());
+    }
+
+    @Test
+    void nothingToWriteMakesNoCalls() {
+        Throttling ddb = new Throttling(1);
+        assertSame(WriteStats.NONE, new BatchWriter(ddb).write(TABLE, List.of()));
+        assertTrue(ddb.batchSizes.isEmpty());
+    }
+}
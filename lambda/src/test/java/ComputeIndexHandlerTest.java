@@ -0,0 +1,203 @@
+package lambda;
+
+import core.IndexStore;
+import core.PathEntry;
+import core.Stopwords;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputeIndexHandlerTest {
+    private static final String CLIENT = "client-1";
+    private static final int TERMS = 80;
+
+    /** The emulated tables, with the nth BatchWriteItem to TermIndex failing once (0 = none). */
+    private static final class FailingBatch implements DynamoDbClient {
+        final LocalDynamoDb db;
+        final AtomicInteger termIdxBatches = new AtomicInteger();
+        volatile int failAt;
+
+        FailingBatch(LocalDynamoDb db) {
+            this.db = db;
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest r) {
+            if (r.requestItems().containsKey(IndexStores.LOCAL_TERMIDX) && termIdxBatches.incrementAndGet() == failAt) {
+                throw DynamoDbException.builder().message("injected failure").statusCode(500).build();
+            }
+            return db.batchWriteItem(r);
+        }
+
+        @Override public GetItemResponse getItem(GetItemRequest r) { return db.getItem(r); }
+        @Override public PutItemResponse putItem(PutItemRequest r) { return db.putItem(r); }
+        @Override public DeleteItemResponse deleteItem(DeleteItemRequest r) { return db.deleteItem(r); }
+        @Override public UpdateItemResponse updateItem(UpdateItemRequest r) { return db.updateItem(r); }
+        @Override public BatchGetItemResponse batchGetItem(BatchGetItemRequest r) { return db.batchGetItem(r); }
+        @Override public QueryResponse query(QueryRequest r) { return db.query(r); }
+        @Override public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest r) { return db.transactWriteItems(r); }
+        @Override public String serviceName() { return SERVICE_NAME; }
+        @Override public void close() {}
+    }
+
+    /** The emulated tables, where each PathIndex read waits for the other request's before returning. */
+    private static final class LockstepPathReads implements DynamoDbClient {
+        final LocalDynamoDb db;
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+
+        LockstepPathReads(LocalDynamoDb db) {
+            this.db = db;
+        }
+
+        @Override
+        public BatchGetItemResponse batchGetItem(BatchGetItemRequest r) {
+            BatchGetItemResponse resp = db.batchGetItem(r);
+            if (r.requestItems().containsKey(IndexStores.LOCAL_PATHIDX)) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return resp;
+        }
+
+        @Override public GetItemResponse getItem(GetItemRequest r) { return db.getItem(r); }
+        @Override public PutItemResponse putItem(PutItemRequest r) { return db.putItem(r); }
+        @Override public DeleteItemResponse deleteItem(DeleteItemRequest r) { return db.deleteItem(r); }
+        @Override public UpdateItemResponse updateItem(UpdateItemRequest r) { return db.updateItem(r); }
+        @Override public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest r) { return db.batchWriteItem(r); }
+        @Override public QueryResponse query(QueryRequest r) { return db.query(r); }
+        @Override public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest r) { return db.transactWriteItems(r); }
+        @Override public String serviceName() { return SERVICE_NAME; }
+        @Override public void close() {}
+    }
+
+    private static IndexStore store(DynamoDbClient ddb) {
+        return new DynamoIndexStore(ddb, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX, IndexStores.LOCAL_COUNTERS,
+                IndexStores.LOCAL_PATHIDX, 1000, true, true, 1, 0).forTenant(CLIENT);
+    }
+
+    private static Map<String, Object> doc(String path, Map<String, Object> termFreqs) {
+        return Map.of("docPath", path, "hash", "h-" + termFreqs.hashCode(), "termFreqs", termFreqs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> statuses(Map<String, Object> out) {
+        return (List<Map<String, Object>>) out.get("documents");
+    }
+
+    @Test
+    void pathSentTwiceInABatchIsIndexedOnceFromItsLastEntry() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        ComputeIndexHandler handler = new ComputeIndexHandler(store(db), Stopwords.NONE);
+        Map<String, Object> out = handler.handleRequest(Map.of("clientId", CLIENT, "documents", List.of(
+                doc("a.txt", Map.of("old", 1)),
+                doc("b.txt", Map.of("other", 1)),
+                doc("a.txt", Map.of("new", 2)))), null);
+
+        assertEquals("OK", out.get("status"));
+        assertEquals("superseded", statuses(out).get(0).get("action"));
+        assertEquals("created", statuses(out).get(2).get("action"));
+        IndexStore store = store(db);
+        assertTrue(store.lookupIndex("old").isEmpty());
+        assertEquals(1, store.lookupIndex("new").size());
+        assertEquals(statuses(out).get(2).get("docId"), store.lookupIndex("new").get(0)[0]);
+        assertEquals(2, store.corpusStats().docs());
+    }
+
+    @Test
+    void termsWithReservedCharactersAreRejected() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        ComputeIndexHandler handler = new ComputeIndexHandler(store(db), Stopwords.NONE);
+        Map<String, Object> out = handler.handleRequest(Map.of("clientId", CLIENT, "documents", List.of(
+                doc("a.txt", Map.of("alice", 1)),
+                doc("b.txt", Map.of("alice#pos", 1)),
+                doc("c.txt", Map.of("other-client|alice", 1)))), null);
+
+        assertEquals("PARTIAL", out.get("status"));
+        assertEquals("OK", statuses(out).get(0).get("status"));
+        assertEquals("ERROR", statuses(out).get(1).get("status"));
+        assertEquals("ERROR", statuses(out).get(2).get("status"));
+        assertEquals(1, store(db).corpusStats().docs());
+    }
+
+    @Test
+    void retryAfterAFailedPostingsWriteReusesTheDocId() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        FailingBatch ddb = new FailingBatch(db);
+        Map<String, Object> tf = new HashMap<>();
+        for (int i = 0; i < TERMS; i++) tf.put("t" + i, i + 1);
+        Map<String, Object> request = Map.of("clientId", CLIENT, "documents", List.of(doc("big.txt", tf)));
+
+        // postings go out in several batches: the second one fails, after the first is in
+        ddb.failAt = 2;
+        Map<String, Object> failed = new ComputeIndexHandler(store(ddb), Stopwords.NONE).handleRequest(request, null);
+        assertEquals("ERROR", failed.get("status"));
+        PathEntry pending = store(db).findPaths(CLIENT, List.of("big.txt")).get("big.txt");
+        assertTrue(pending.pending());
+
+        Map<String, Object> retried = new ComputeIndexHandler(store(db), Stopwords.NONE).handleRequest(request, null);
+        assertEquals("OK", retried.get("status"));
+        assertEquals("created", statuses(retried).get(0).get("action"));
+        assertEquals(pending.docId(), statuses(retried).get(0).get("docId"));
+
+        IndexStore store = store(db);
+        for (int i = 0; i < TERMS; i++) {
+            List<long[]> postings = store.lookupIndex("t" + i);
+            assertEquals(1, postings.size(), "t" + i);
+            assertEquals(pending.docId(), postings.get(0)[0]);
+            assertEquals(i + 1, postings.get(0)[1]);
+        }
+        assertEquals(1, store.corpusStats().docs());
+        PathEntry done = store.findPaths(CLIENT, List.of("big.txt")).get("big.txt");
+        assertFalse(done.pending());
+        assertEquals(pending.docId(), done.docId());
+    }
+
+    @Test
+    void concurrentRequestsForTheSameNewPathAgreeOnOneDocId() throws Exception {
+        Map<String, Object> tf = Map.of("alice", 2, "bob", 1);
+        Map<String, Object> single = new HashMap<>(doc("same.txt", tf));
+        single.put("clientId", CLIENT);
+        Map<String, Object> batch = Map.of("clientId", CLIENT, "documents", List.of(doc("batch.txt", tf), doc("other.txt", tf)));
+
+        for (Map<String, Object> request : List.of(single, batch)) {
+            // both requests find no entry for the path before either writes one
+            LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+            LockstepPathReads ddb = new LockstepPathReads(db);
+            List<CompletableFuture<Map<String, Object>>> runs = List.of(
+                    CompletableFuture.supplyAsync(() -> new ComputeIndexHandler(store(ddb), Stopwords.NONE).handleRequest(request, null)),
+                    CompletableFuture.supplyAsync(() -> new ComputeIndexHandler(store(ddb), Stopwords.NONE).handleRequest(request, null)));
+
+            String path = request == single ? "same.txt" : "batch.txt";
+            List<Object> docIds = new ArrayList<>();
+            for (CompletableFuture<Map<String, Object>> run : runs) {
+                Map<String, Object> out = run.get(30, TimeUnit.SECONDS);
+                assertEquals("OK", out.get("status"), out.toString());
+                docIds.add(request == single ? out.get("docId") : statuses(out).get(0).get("docId"));
+            }
+            assertEquals(docIds.get(0), docIds.get(1), request.toString());
+
+            IndexStore store = store(db);
+            PathEntry entry = store.findPaths(CLIENT, List.of(path)).get(path);
+            assertFalse(entry.pending());
+            assertEquals(docIds.get(0), entry.docId());
+            List<long[]> alice = store.lookupIndex("alice");
+            assertEquals(request == single ? 1 : 2, alice.size());
+            assertTrue(alice.stream().anyMatch(p -> p[0] == entry.docId() && p[1] == 2));
+            assertEquals(alice.size(), store.lookupIndex("bob").size());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package lambda;
+
+import core.CachingIndexStore;
+import core.IndexStore;
+import core.Stopwords;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputeSearchHandlerTest {
+    private static final String CLIENT = "client-1";
+    private static final int DOCS = 7;
+
+    private static IndexStore store(LocalDynamoDb db) {
+        return new DynamoIndexStore(db, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX, IndexStores.LOCAL_COUNTERS,
+                IndexStores.LOCAL_PATHIDX, 1000, true, true, 1, 0).forTenant(CLIENT);
+    }
+
+    private static void index(LocalDynamoDb db, String path, int freq) {
+        Map<String, Object> out = new ComputeIndexHandler(store(db), Stopwords.NONE).handleRequest(Map.of(
+                "clientId", CLIENT, "docPath", path, "termFreqs", Map.of("alice", freq)), null);
+        assertEquals("OK", out.get("status"));
+    }
+
+    private static Map<String, Object> chunk(LocalDynamoDb db, String cursor) {
+        Map<String, Object> input = new HashMap<>(Map.of("clientId", CLIENT, "terms", List.of("alice"), "stream", true, "chunkSize", 3));
+        if (cursor != null) input.put("cursor", cursor);
+        return new ComputeSearchHandler(store(db), Stopwords.NONE).handleRequest(input, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> paths(Map<String, Object> out) {
+        List<String> paths = new ArrayList<>();
+        for (Map<String, Object> row : (List<Map<String, Object>>) out.get("results")) paths.add((String) row.get("path"));
+        return paths;
+    }
+
+    @Test
+    void clientIdIsOptionalUnlessTenantsAreIsolated() {
+        // the shared layout: DocumentMap keyed by docId alone
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0)
+                .table(IndexStores.LOCAL_DOCMAP, "docId", ScalarAttributeType.N, null, null);
+        IndexStore shared = new DynamoIndexStore(db, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX,
+                IndexStores.LOCAL_COUNTERS, IndexStores.LOCAL_PATHIDX, 1000, true, false, 1, 0);
+        Map<String, Object> indexed = new ComputeIndexHandler(shared, Stopwords.NONE).handleRequest(Map.of(
+                "docPath", "a.txt", "termFreqs", Map.of("alice", 1)), null);
+        assertEquals("OK", indexed.get("status"));
+        Map<String, Object> found = new ComputeSearchHandler(shared, Stopwords.NONE).handleRequest(Map.of(
+                "terms", List.of("alice")), null);
+        assertEquals(List.of("a.txt"), paths(found));
+
+        IndexStore isolated = store(LocalDynamoDb.withFreTables(0));
+        assertThrows(IllegalArgumentException.class, () -> new ComputeSearchHandler(isolated, Stopwords.NONE)
+                .handleRequest(Map.of("terms", List.of("alice")), null));
+        assertThrows(IllegalArgumentException.class, () -> new ComputeSearchHandler(shared, Stopwords.NONE)
+                .handleRequest(Map.of("clientId", "not/an-id", "terms", List.of("alice")), null));
+    }
+
+    @Test
+    void cachedPostingsAreNeverPairedWithANewerGeneration() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        index(db, "a.txt", 1);
+        // container B: a postings cache whose TTL never runs out during the test
+        DynamoIndexStore backend = new DynamoIndexStore(db, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX,
+                IndexStores.LOCAL_COUNTERS, IndexStores.LOCAL_PATHIDX, 1000, true, true, 1, 0);
+        ComputeSearchHandler b = new ComputeSearchHandler(new CachingIndexStore(backend, 1 << 20, 3_600_000), Stopwords.NONE);
+        Map<String, Object> search = Map.of("clientId", CLIENT, "terms", List.of("alice"));
+        Map<String, Object> before = b.handleRequest(search, null);
+        assertEquals(List.of("a.txt"), paths(before));
+
+        // container A writes; B learns of the new generation once its stats refresh
+        index(db, "b.txt", 2);
+        ((DynamoIndexStore) backend.forTenant(CLIENT)).expireCaches();
+        Map<String, Object> after = b.handleRequest(search, null);
+        assertTrue(((Number) after.get("generation")).longValue() > ((Number) before.get("generation")).longValue());
+        assertEquals(Set.of("a.txt", "b.txt"), Set.copyOf(paths(after)));
+
+        // a generation check (what a client cache validates with) also retires the cached lists
+        index(db, "c.txt", 3);
+        long now = ((Number) b.handleRequest(Map.of("clientId", CLIENT, "checkGeneration", true), null).get("generation")).longValue();
+        Map<String, Object> checked = b.handleRequest(search, null);
+        assertEquals(3, paths(checked).size());
+        assertTrue(((Number) checked.get("generation")).longValue() >= now);
+    }
+
+    @Test
+    void streamPagesThroughOneRankingInSearchOrder() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        for (int i = 0; i < DOCS; i++) index(db, "d" + i + ".txt", i + 1);
+        List<String> ranked = paths(new ComputeSearchHandler(store(db), Stopwords.NONE).handleRequest(Map.of(
+                "clientId", CLIENT, "terms", List.of("alice"), "topK", 100), null));
+
+        List<String> streamed = new ArrayList<>();
+        int chunks = 0;
+        String cursor = null;
+        do {
+            Map<String, Object> out = chunk(db, cursor);
+            streamed.addAll(paths(out));
+            assertEquals((long) DOCS, ((Number) out.get("total")).longValue());
+            assertEquals(streamed.size(), ((Number) out.get("emitted")).intValue());
+            cursor = (String) out.get("cursor");
+            chunks++;
+        } while (cursor != null);
+        assertEquals(ranked, streamed);
+        assertEquals(3, chunks);
+    }
+
+    @Test
+    void writesDuringAStreamNeitherFailNorChangeIt() throws Exception {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        for (int i = 0; i < DOCS; i++) index(db, "d" + i + ".txt", i + 1);
+
+        Map<String, Object> first = chunk(db, null);
+        List<String> streamed = new ArrayList<>(paths(first));
+        // another client keeps writing (new docs outranking every streamed one) while the stream is read
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < 5; i++) index(db, "late" + i + ".txt", 100 + i);
+        });
+        index(db, "late.txt", 100);
+        String cursor = (String) first.get("cursor");
+        while (cursor != null) {
+            Map<String, Object> out = chunk(db, cursor);
+            assertNull(out.get("status"));
+            assertEquals(first.get("generation"), out.get("generation"));
+            streamed.addAll(paths(out));
+            cursor = (String) out.get("cursor");
+        }
+        writer.join();
+        assertEquals(DOCS, streamed.size());
+        assertEquals(DOCS, new HashSet<>(streamed).size());
+        assertTrue(streamed.stream().noneMatch(p -> p.startsWith("late")), streamed.toString());
+    }
+
+    @Test
+    void aCursorWithoutItsSnapshotIsStaleNotAnError() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        for (int i = 0; i < DOCS; i++) index(db, "d" + i + ".txt", i + 1);
+        String cursor = (String) chunk(db, null).get("cursor");
+
+        // another tenant cannot read it
+        Map<String, Object> other = new ComputeSearchHandler(store(db), Stopwords.NONE).handleRequest(Map.of(
+                "clientId", "client-2", "terms", List.of("alice"), "cursor", cursor), null);
+        assertEquals(ComputeSearchHandler.STALE_CURSOR, other.get("status"));
+
+        // nor can anyone once it has expired
+        String expired = new SearchCursor("0".repeat(32), 1, 3, DOCS, 1).encode();
+        Map<String, Object> out = chunk(db, expired);
+        assertEquals(ComputeSearchHandler.STALE_CURSOR, out.get("status"));
+        assertEquals(3L, ((Number) out.get("emitted")).longValue());
+        IndexStore tenant = store(db);
+        tenant.putSnapshot("1".repeat(32), List.of(new byte[]{0}), -1_000);
+        assertNull(tenant.snapshotPage("1".repeat(32), 1));
+
+        assertThrows(IllegalArgumentException.class, () -> chunk(db, "not-a-cursor"));
+    }
+}
@@ -0,0 +1,92 @@
+package lambda;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocIdAllocatorTest {
+    private static final int CONTAINERS = 4;
+    private static final int THREADS_PER_CONTAINER = 8;
+    private static final int ALLOCATIONS = 2_000;
+
+    /** CONTAINERS allocators share one counter row, the way warm Lambda containers do. */
+    private static List<DocIdAllocator> containers(LocalDynamoDb db, long blockSize) {
+        List<DocIdAllocator> out = new ArrayList<>();
+        for (int i = 0; i < CONTAINERS; i++) {
+            out.add(new DocIdAllocator(db, IndexStores.LOCAL_COUNTERS, "docSeq", blockSize));
+        }
+        return out;
+    }
+
+    /** Runs THREADS_PER_CONTAINER threads on every container, all released at once. */
+    private static Set<Long> allocate(List<DocIdAllocator> containers, int rangeSize) throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Future<Integer>> duplicates = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService pool = Executors.newFixedThreadPool(CONTAINERS * THREADS_PER_CONTAINER)) {
+            for (DocIdAllocator alloc : containers) {
+                for (int t = 0; t < THREADS_PER_CONTAINER; t++) {
+                    duplicates.add(pool.submit(() -> {
+                        start.await();
+                        int dup = 0;
+                        for (int i = 0; i < ALLOCATIONS; i++) {
+                            long first = rangeSize == 1 ? alloc.next() : alloc.nextRange(rangeSize);
+                            for (long id = first; id < first + rangeSize; id++) {
+                                if (!ids.add(id)) dup++;
+                            }
+                        }
+                        return dup;
+                    }));
+                }
+            }
+            start.countDown();
+            for (Future<Integer> f : duplicates) assertEquals(0, f.get());
+        }
+        return ids;
+    }
+
+    @Test
+    void concurrentAllocationsAcrossContainersAreUnique() throws Exception {
+        // a small block forces hundreds of leases while other threads are still drawing from the old one
+        Set<Long> ids = allocate(containers(LocalDynamoDb.withFreTables(0), 37), 1);
+        assertEquals(CONTAINERS * THREADS_PER_CONTAINER * ALLOCATIONS, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id > 0));
+    }
+
+    @Test
+    void concurrentRangesAcrossContainersDoNotOverlap() throws Exception {
+        // ranges of 5 straddle the end of a 37-id block, so some leases are left partly unused
+        Set<Long> ids = allocate(containers(LocalDynamoDb.withFreTables(0), 37), 5);
+        assertEquals(CONTAINERS * THREADS_PER_CONTAINER * ALLOCATIONS * 5, ids.size());
+    }
+
+    @Test
+    void rangeLargerThanABlockGetsItsOwnLease() {
+        DocIdAllocator alloc = new DocIdAllocator(LocalDynamoDb.withFreTables(0), IndexStores.LOCAL_COUNTERS, "docSeq", 10);
+        long a = alloc.next();
+        long b = alloc.nextRange(25);
+        long c = alloc.next();
+        assertEquals(1, a);
+        assertEquals(11, b);
+        // the 25-id lease is used up, so the next id comes from a fresh block after it
+        assertEquals(36, c);
+    }
+
+    @Test
+    void discardedLeaseIsNeverHandedOutAgain() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        DocIdAllocator alloc = new DocIdAllocator(db, IndexStores.LOCAL_COUNTERS, "docSeq", 100);
+        assertEquals(1, alloc.next());
+        alloc.discard();
+        assertEquals(101, alloc.next());
+    }
+}
@@ -0,0 +1,173 @@
+package lambda;
+
+import core.IndexStore;
+import core.TermDictionary;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoIndexStoreTest {
+    private static final int DOCS = 64;
+    private static final int CONTAINERS = 4;
+
+    /** One container's view of the shared tables: block layout, no term sharding. */
+    private static DynamoIndexStore store(LocalDynamoDb db) {
+        return new DynamoIndexStore(db, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX, IndexStores.LOCAL_COUNTERS,
+                null, 1000, true, true, 1, 0);
+    }
+
+    private static Map<String, Integer> terms(long docId, int sharedFreq) {
+        Map<String, Integer> tf = new HashMap<>();
+        tf.put("own" + docId, 1);
+        if (sharedFreq > 0) tf.put("shared", sharedFreq);
+        return tf;
+    }
+
+    /** Every doc of ids whose "shared" posting stays gets freq docId + 1; every fourth doc loses it. */
+    private static int expectedFreq(long docId, long first) {
+        return (docId - first) % 4 == 0 ? 0 : (int) docId + 1;
+    }
+
+    /** Updates every doc at once, spread over CONTAINERS stores, while extra runs alongside. */
+    private static void updateConcurrently(LocalDynamoDb db, long[] ids, Runnable extra) throws Exception {
+        List<IndexStore> containers = new ArrayList<>();
+        for (int c = 0; c < CONTAINERS; c++) containers.add(store(db));
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> pending = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(ids.length + 1)) {
+            for (int i = 0; i < ids.length; i++) {
+                IndexStore container = containers.get(i % CONTAINERS);
+                long docId = ids[i];
+                pending.add(pool.submit(() -> {
+                    start.await();
+                    return container.updateDocument(docId, terms(docId, expectedFreq(docId, ids[0])));
+                }));
+            }
+            pending.add(pool.submit(() -> {
+                start.await();
+                extra.run();
+                return null;
+            }));
+            start.countDown();
+            for (Future<?> f : pending) f.get();
+        }
+    }
+
+    private static void assertShared(LocalDynamoDb db, long[] ids) {
+        Map<Long, Long> freqs = new HashMap<>();
+        for (long[] p : store(db).lookupIndex("shared")) assertNull(freqs.put(p[0], p[1]), "duplicate posting " + p[0]);
+        Map<Long, Long> expected = new HashMap<>();
+        for (long id : ids) {
+            int f = expectedFreq(id, ids[0]);
+            if (f > 0) expected.put(id, (long) f);
+        }
+        assertEquals(expected, freqs);
+    }
+
+    @Test
+    void concurrentUpdatesOfOneBlockAreAllKept() throws Exception {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        DynamoIndexStore loader = store(db);
+        long[] ids = loader.putDocuments(null, Collections.nCopies(DOCS, "doc.txt"));
+        Map<Long, Map<String, Integer>> docs = new HashMap<>();
+        for (long id : ids) docs.put(id, terms(id, 1));
+        // one batch: all DOCS postings of "shared" land in a single block
+        loader.updateIndexBatch(docs);
+
+        // the first doc drops the term too, so its block is re-keyed while others rewrite it
+        updateConcurrently(db, ids, () -> {});
+        assertShared(db, ids);
+    }
+
+    @Test
+    void compactionRacingUpdatesLosesNone() throws Exception {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        DynamoIndexStore loader = store(db);
+        long[] ids = loader.putDocuments(null, Collections.nCopies(DOCS, "doc.txt"));
+        // one doc per batch: DOCS single-posting blocks for compaction to merge
+        for (long id : ids) loader.updateIndexBatch(Map.of(id, terms(id, 1)));
+
+        updateConcurrently(db, ids, () -> store(db).compact("shared"));
+        assertShared(db, ids);
+        // compacting again once nothing races packs what is left into one block
+        store(db).compact("shared");
+        assertShared(db, ids);
+    }
+
+    private static boolean isHot(LocalDynamoDb db, String term) {
+        Map<String, AttributeValue> row = db.getItem(GetItemRequest.builder()
+                .tableName(IndexStores.LOCAL_COUNTERS)
+                .key(Map.of("name", AttributeValue.builder().s("hotTerms").build()))
+                .build()).item();
+        return row != null && row.containsKey("terms") && row.get("terms").ss().contains(term);
+    }
+
+    @Test
+    void searchesNeverPromoteButCompactionDoes() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        // 4 shards, hot from a df of 8
+        DynamoIndexStore store = new DynamoIndexStore(db, IndexStores.LOCAL_DOCMAP, IndexStores.LOCAL_TERMIDX,
+                IndexStores.LOCAL_COUNTERS, null, 1000, true, true, 4, 8);
+        long[] ids = store.putDocuments(null, Collections.nCopies(DOCS, "doc.txt"));
+        for (long id : ids) store.updateIndexBatch(Map.of(id, terms(id, 1)));
+
+        assertEquals(DOCS, store.lookupIndex("shared").size());
+        assertFalse(isHot(db, "shared"));
+        store.compact("shared");
+        assertTrue(isHot(db, "shared"));
+        assertFalse(isHot(db, "own" + ids[0]));
+        assertEquals(DOCS, store.lookupIndex("shared").size());
+    }
+
+    private static int rowCount(LocalDynamoDb db, String row) {
+        return db.query(QueryRequest.builder()
+                .tableName(IndexStores.LOCAL_TERMIDX)
+                .keyConditionExpression("term = :t")
+                .expressionAttributeValues(Map.of(":t", AttributeValue.builder().s(row).build()))
+                .build()).items().size();
+    }
+
+    @Test
+    void mergedDictionaryBasesMatchWhatAWarmContainerBuilt() {
+        LocalDynamoDb db = LocalDynamoDb.withFreTables(0);
+        DynamoIndexStore writer = store(db), warm = store(db);
+        assertEquals(0, warm.termDictionary().size());
+        int writes = 2 * DynamoIndexStore.DICT_MERGE_DELTAS + 8;
+        long[] ids = writer.putDocuments(null, Collections.nCopies(writes, "doc.txt"));
+        TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < writes; i++) {
+            // one new term per write: one delta row each
+            writer.updateIndexBatch(Map.of(ids[i], terms(ids[i], 1)));
+            expected.add("own" + ids[i]);
+            expected.add("shared");
+            warm.expireCaches();
+            warm.termDictionary();
+        }
+        List<String> warmTerms = warm.termDictionary().terms();
+        assertEquals(List.copyOf(expected), warmTerms);
+
+        // the warm container merged twice: the first base is gone and so are the deltas it covered
+        assertTrue(rowCount(db, DynamoIndexStore.DICT_BASE_TERM) >= 1);
+        int deltas = rowCount(db, DynamoIndexStore.DICT_TERM);
+        assertTrue(deltas < writes, deltas + " delta rows left of " + writes);
+
+        TermDictionary cold = store(db).termDictionary();
+        assertEquals(warmTerms, cold.terms());
+        assertEquals(List.of("own" + ids[0]), cold.prefix("own" + ids[0], 10).terms().subList(0, 1));
+        assertEquals(List.of("shared"), cold.fuzzy("sharde", 2, 10).terms());
+    }
+}